@@ -39,7 +39,9 @@ package free.yhc.feeder;
 import static free.yhc.feeder.model.Utils.eAssert;
 import android.content.Context;
 import android.database.Cursor;
+import free.yhc.feeder.db.ColumnItem;
 import free.yhc.feeder.db.DB;
+import free.yhc.feeder.db.ItemPageQuery;
 import free.yhc.feeder.model.UnexpectedExceptionHandler;
 import free.yhc.feeder.model.Utils;
 
@@ -52,6 +54,8 @@ AsyncAdapter.DataProvider {
 
     private Cursor          mCur;
     private ItemBuilder     mIbldr;
+    // If this is not null, items are loaded by page instead of cursor.
+    private volatile AsyncItemPageProvider mPager = null;
 
     interface ItemBuilder {
         Object buildItem(AsyncCursorAdapter adapter, Cursor c);
@@ -94,6 +98,24 @@ AsyncAdapter.DataProvider {
             if (null != mCur)
                 mCur.close();
             mCur = newCur;
+            mPager = null;
+        }
+    }
+
+    /**
+     * Load items by keyset page instead of cursor. See {@link ItemPageQuery}.
+     * Like {@link AsyncCursorAdapter#changeCursor(Cursor)}, adapter items are NOT reloaded.
+     * @param q
+     * @param columns
+     *   SHOULD include ColumnItem.ID and ColumnItem.PUBTIME.
+     */
+    public void
+    changePageQuery(ItemPageQuery q, ColumnItem[] columns) {
+        synchronized (mCurlock) {
+            if (null != mCur)
+                mCur.close();
+            mCur = null;
+            mPager = new AsyncItemPageProvider(this, mIbldr, q, columns);
         }
     }
 
@@ -115,9 +137,11 @@ AsyncAdapter.DataProvider {
     @Override
     public String
     dump(UnexpectedExceptionHandler.DumpLevel lv) {
+        AsyncItemPageProvider pager = mPager;
         return super.dump(lv)
                 + "[ AsyncCursorAdapter ]"
-                + "  curCount : " + ((null == mCur)? "null": mCur.getCount()) + "\n";
+                + "  curCount : " + ((null == mCur)? "null": mCur.getCount()) + "\n"
+                + ((null == pager)? "": pager.dump());
     }
 
     /**
@@ -135,8 +159,15 @@ AsyncAdapter.DataProvider {
      */
     public void
     reloadItem(int[] itemIds) {
+        AsyncItemPageProvider pager = mPager;
         for (int id : itemIds) {
             int pos = id - getPosTop();
+            if (null != pager) {
+                Object item = pager.buildItem(id);
+                if (null != item)
+                    destroyItem(setItem(pos, item));
+                continue;
+            }
             synchronized (mCurlock) {
                 if (mCur.moveToPosition(id))
                     destroyItem(setItem(pos ,mIbldr.buildItem(this, mCur)));
@@ -155,12 +186,20 @@ AsyncAdapter.DataProvider {
     public void
     removeItem(int position) {
         super.removeItem(position);
+        // Positions of items after removed one, are changed.
+        AsyncItemPageProvider pager = mPager;
+        if (null != pager)
+            pager.reset();
     }
 
     @Override
     public int
     requestData(final AsyncAdapter adapter, Object priv, long nrseq, final int from, final int sz) {
         //logI("AsyncCursorAdapter : requestData - START");
+        AsyncItemPageProvider pager = mPager;
+        if (null != pager)
+            return pager.requestData(adapter, priv, nrseq, from, sz);
+
         Object[] items;
         boolean eod = true;
         synchronized (mCurlock) {
@@ -196,6 +235,10 @@ AsyncAdapter.DataProvider {
     @Override
     public int
     requestDataCnt(AsyncAdapter adapter) {
+        AsyncItemPageProvider pager = mPager;
+        if (null != pager)
+            return pager.requestDataCnt(adapter);
+
         // mCur.getCount() is very slow at first call.
         synchronized (mCurlock) {
             return mCur.getCount();
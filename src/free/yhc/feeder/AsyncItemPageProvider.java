@@ -0,0 +1,260 @@
+/******************************************************************************
+ * Copyright (C) 2012, 2013, 2014
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of FeedHive
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.feeder;
+
+import static free.yhc.feeder.model.Utils.eAssert;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import android.database.Cursor;
+import free.yhc.feeder.db.ColumnItem;
+import free.yhc.feeder.db.DBPolicy;
+import free.yhc.feeder.db.ItemPageQuery;
+import free.yhc.feeder.model.Utils;
+
+/**
+ * Data provider that loads items by keyset page. (See {@link ItemPageQuery})
+ * Cursor holding all items is not used.
+ * Key of each provided item is remembered by position.
+ * And NEXT/PREV load uses key of item adjacent to requested range.
+ */
+class AsyncItemPageProvider implements
+AsyncAdapter.DataProvider {
+    private static final boolean DBG = false;
+    private static final Utils.Logger P = new Utils.Logger(AsyncItemPageProvider.class);
+
+    // Keys are forgotten when more than this are remembered.
+    // Usually, this is much larger than number of items loaded at adapter.
+    private static final int MAX_KEYS = 4096;
+    // Items are counted up to this at first. Exact count is required only when there are more.
+    private static final int CNT_LIMIT = 1024;
+
+    private final DBPolicy      mDbp = DBPolicy.get();
+    private final ItemPageQuery mQuery;
+    private final ColumnItem[]  mColumns;
+    private final AsyncCursorAdapter                mAdapter;
+    private final AsyncCursorAdapter.ItemBuilder    mIbldr;
+
+    // Key : position of item
+    private final HashMap<Integer, ItemPageQuery.Key> mKeys = new HashMap<Integer, ItemPageQuery.Key>();
+
+    // Number of items. (-1) means 'unknown'.
+    // This is known when end of data is loaded, or counted when it is requested.
+    private volatile int        mCnt = -1;
+
+    // Only for debugging.
+    private volatile int        mNrOffsetQuery = 0;
+
+    AsyncItemPageProvider(AsyncCursorAdapter            adapter,
+                          AsyncCursorAdapter.ItemBuilder bldr,
+                          ItemPageQuery                 q,
+                          ColumnItem[]                  columns) {
+        eAssert(Arrays.asList(columns).contains(ColumnItem.ID)
+                && Arrays.asList(columns).contains(ColumnItem.PUBTIME));
+        mAdapter = adapter;
+        mIbldr = bldr;
+        mQuery = q;
+        mColumns = columns;
+    }
+
+    private ItemPageQuery.Key
+    getKey(int pos) {
+        synchronized (mKeys) {
+            return mKeys.get(pos);
+        }
+    }
+
+    private ItemPageQuery.Key
+    buildKey(Cursor c) {
+        return new ItemPageQuery.Key(c.getLong(c.getColumnIndex(ColumnItem.PUBTIME.getName())),
+                                     c.getLong(c.getColumnIndex(ColumnItem.ID.getName())));
+    }
+
+    /**
+     * Is row at current cursor position the item remembered at given position?
+     * @param pos
+     * @param c
+     * @return
+     *   true if key of the position is not known.
+     */
+    private boolean
+    isKeyAt(int pos, Cursor c) {
+        ItemPageQuery.Key key = getKey(pos);
+        return null == key || key.equals(buildKey(c));
+    }
+
+    /**
+     * Query rows from 'from'.
+     * One more row is requested to know whether it is end of data or not.
+     * @param from
+     * @param sz
+     * @return
+     *   cursor whose first row is item at 'from'.
+     */
+    private Cursor
+    queryPage(int from, int sz) {
+        if (0 == from)
+            return mDbp.queryItemPage(mQuery, mColumns, null, true, sz + 1);
+
+        ItemPageQuery.Key key = getKey(from - 1);
+        if (null != key)
+            return mDbp.queryItemPage(mQuery, mColumns, key, true, sz + 1);
+
+        if (DBG) P.v("Key is unknown. Query by offset : " + from);
+        mNrOffsetQuery++;
+        return mDbp.queryItemPage(mQuery, mColumns, from, sz + 1);
+    }
+
+    /**
+     * Forget all keys.
+     * This SHOULD be called when positions of items are changed.
+     * (ex. items are inserted or deleted.)
+     */
+    void
+    reset() {
+        synchronized (mKeys) {
+            mKeys.clear();
+        }
+        mCnt = -1;
+    }
+
+    /**
+     * Build item at given position.
+     * @param pos
+     * @return
+     *   null if there is no item at the position.
+     */
+    Object
+    buildItem(int pos) {
+        if (pos < 0)
+            return null;
+        Cursor c = queryPage(pos, 0);
+        Object item = null;
+        if (c.moveToFirst())
+            item = mIbldr.buildItem(mAdapter, c);
+        c.close();
+        return item;
+    }
+
+    String
+    dump() {
+        return "[ AsyncItemPageProvider ]\n"
+               + "  keys : " + mKeys.size() + "\n"
+               + "  count : " + mCnt + "\n"
+               + "  offset queries : " + mNrOffsetQuery + "\n";
+    }
+
+    @Override
+    public int
+    requestData(AsyncAdapter adapter, Object priv, long nrseq, int from, int sz) {
+        Cursor c = null;
+        boolean reversed = false;
+
+        // Items before the key at 'from + sz' (in case of PREV load).
+        ItemPageQuery.Key next = getKey(from + sz);
+        if (from > 0
+            && null == getKey(from - 1)
+            && null != next) {
+            c = mDbp.queryItemPage(mQuery, mColumns, next, false, sz);
+            reversed = true;
+            // Rows are in reversed order. First row is at 'from + sz - 1' and last row is at 'from'.
+            // NOTE
+            // Number of rows is same even if one item is inserted and another is deleted.
+            // So, rows at both ends are compared with known keys, too.
+            if (c.getCount() != sz
+                || !(c.moveToFirst() && isKeyAt(from + sz - 1, c))
+                || !(c.moveToLast() && isKeyAt(from, c))) {
+                // Items are inserted or deleted. Position of key is not valid anymore.
+                c.close();
+                c = null;
+                reversed = false;
+            }
+        }
+
+        if (null == c)
+            c = queryPage(from, sz);
+
+        boolean eod = reversed? false: c.getCount() <= sz;
+        Object[] items = new Object[Math.min(c.getCount(), sz)];
+        HashMap<Integer, ItemPageQuery.Key> keys = new HashMap<Integer, ItemPageQuery.Key>();
+        if (c.moveToFirst()) {
+            int i = 0;
+            do {
+                int idx = reversed? items.length - 1 - i: i;
+                items[idx] = mIbldr.buildItem(mAdapter, c);
+                keys.put(from + idx, buildKey(c));
+            } while (++i < items.length && c.moveToNext());
+        }
+        c.close();
+
+        synchronized (mKeys) {
+            if (mKeys.size() + keys.size() > MAX_KEYS)
+                mKeys.clear();
+            mKeys.putAll(keys);
+        }
+        if (eod)
+            mCnt = from + items.length;
+        adapter.provideItems(priv, nrseq, from, items, eod);
+        return 0;
+    }
+
+    @Override
+    public int
+    requestDataCnt(AsyncAdapter adapter) {
+        int cnt = mCnt;
+        if (cnt >= 0)
+            return cnt;
+
+        // NOTE
+        // Counting all items reads every matching row.
+        // Usually, there are not so many items. So, limited count is enough.
+        cnt = mDbp.getItemPageCount(mQuery, CNT_LIMIT);
+        if (cnt >= CNT_LIMIT) {
+            if (DBG) P.v("Over " + CNT_LIMIT + " items. Count exactly.");
+            cnt = mDbp.getItemPageCount(mQuery, 0);
+        }
+        mCnt = cnt;
+        return cnt;
+    }
+
+    @Override
+    public void
+    destroyData(AsyncAdapter adapter, Object data) {
+        mIbldr.destroyItem(mAdapter, data);
+    }
+}
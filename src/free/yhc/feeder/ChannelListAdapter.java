@@ -80,6 +80,10 @@ AsyncCursorAdapter.ItemBuilder {
     private final View.OnClickListener mPosDnOnClick;
 
     private final HashMap<View, Integer> mView2PosMap = new HashMap<View, Integer>();
+    // Item counters of all channels. Set only while items are loaded at requestData.
+    // (Per thread. Items may be built at UI thread too - ex. reloadItem.)
+    private final ThreadLocal<HashMap<Long, DBPolicy.ChannelStat>> mStats
+        = new ThreadLocal<HashMap<Long, DBPolicy.ChannelStat>>();
 
     interface OnActionListener {
         void onUpdateClick(ImageView ibtn, long cid);
@@ -251,7 +255,13 @@ AsyncCursorAdapter.ItemBuilder {
             i.title = getCursorString(c, ColumnChannel.TITLE);
             i.desc = getCursorString(c, ColumnChannel.DESCRIPTION);
             i.lastUpdate = new Date(getCursorLong(c, ColumnChannel.LASTUPDATE));
-            i.maxItemId = mDbp.getItemInfoMaxId(i.cid);
+            // Counters of all channels are read at once while loading items. (See requestData)
+            HashMap<Long, DBPolicy.ChannelStat> stats = mStats.get();
+            if (null != stats) {
+                DBPolicy.ChannelStat stat = stats.get(i.cid);
+                i.maxItemId = (null == stat)? 0: stat.maxItemId;
+            } else
+                i.maxItemId = mDbp.getItemInfoMaxId(i.cid);
             i.oldLastItemId = mDbp.getChannelInfoLong(i.cid, ColumnChannel.OLDLAST_ITEMID);
             i.bm = mDbp.getChannelImageBitmap(i.cid);
         } catch (StaleDataException e) {
@@ -277,8 +287,11 @@ AsyncCursorAdapter.ItemBuilder {
         int ret;
         try {
             mDbp.getDelayedChannelUpdate();
+            // Read counters of all channels by one query, instead of one query per channel.
+            mStats.set(mDbp.getChannelStats());
             ret = super.requestData(adapter, priv, nrseq, from, sz);
         } finally {
+            mStats.remove();
             mDbp.putDelayedChannelUpdate();
         }
         return ret;
@@ -337,7 +337,7 @@ UnexpectedExceptionHandler.TrackedModule {
                 eAssert(false);
                 return Err.UNKNOWN; // something evil!!!
             } else {
-                mDbp.updateChannel(mCidPickImage, ColumnChannel.IMAGEBLOB, imageData);
+                mDbp.updateChannel_image(mCidPickImage, imageData);
                 mCidPickImage = -1;
             }
             return Err.NO_ERR;
@@ -561,6 +561,12 @@ UnexpectedExceptionHandler.TrackedModule {
         startActivity(intent);
     }
 
+    private void
+    onContext_markAllOpened(final long cid) {
+        // One masked UPDATE for all items of channel. See DBPolicy.markItems_opened
+        mDbp.markItemsAsync_opened(new long[] { cid }, -1);
+    }
+
     private void
     onContext_pickIcon(final long cid) {
         Intent i = new Intent(Intent.ACTION_PICK,
@@ -599,6 +605,7 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     public void
     refreshListAsync() {
+        mDbp.prefetchChannelImagesAsync(mDbp.getChannelIds(mCatId));
         Cursor newCursor = ChannelListAdapter.getQueryCursor(mCatId);
         getAdapter().changeCursor(newCursor);
         getAdapter().reloadDataSetAsync();
@@ -677,6 +684,10 @@ UnexpectedExceptionHandler.TrackedModule {
             onContext_deleteChannel(dbId);
             return true;
 
+        case R.id.mark_all_opened:
+            onContext_markAllOpened(dbId);
+            return true;
+
         case R.id.delete_dnfile:
             onContext_deleteDownloaded(dbId);
             return true;
@@ -810,6 +821,8 @@ UnexpectedExceptionHandler.TrackedModule {
         LinearLayout ll = (LinearLayout)inflater.inflate(R.layout.channel_listview, null);
         mListView = (ListView)ll.findViewById(R.id.list);
         eAssert(null != mListView);
+        // Channel icons are loaded in advance while list is being prepared.
+        mDbp.prefetchChannelImagesAsync(mDbp.getChannelIds(mCatId));
         mListView.setAdapter(new ChannelListAdapter(getActivity(),
                                                     ChannelListAdapter.getQueryCursor(mCatId),
                                                     mListView,
@@ -43,14 +43,13 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
 
 import android.app.Activity;
 import android.app.Dialog;
 import android.content.Context;
 import android.content.res.Configuration;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteException;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.MenuItem;
@@ -66,8 +65,10 @@ import free.yhc.feeder.UiHelper.OnConfirmDialogAction;
 import free.yhc.feeder.db.ColumnChannel;
 import free.yhc.feeder.db.DB;
 import free.yhc.feeder.db.DBPolicy;
+import free.yhc.feeder.db.DBSnapshot;
 import free.yhc.feeder.model.Environ;
 import free.yhc.feeder.model.Err;
+import free.yhc.feeder.model.ItemRetention;
 import free.yhc.feeder.model.RTTask;
 import free.yhc.feeder.model.UnexpectedExceptionHandler;
 import free.yhc.feeder.model.Utils;
@@ -87,6 +88,8 @@ UnexpectedExceptionHandler.TrackedModule {
 
     private String mExDBFilePath = null;
     private String mInDBFilePath = null;
+    // Content directories of merged DB are here. (ex. copied from other device.)
+    private String mExContentRootPath = null;
     private DBInfo mDbInfo       = new DBInfo();
 
     private static class DBInfo {
@@ -171,44 +174,25 @@ UnexpectedExceptionHandler.TrackedModule {
         ScheduledUpdateService.enable();
     }
 
-    private Err
-    verifyCandidateDB(File dbf) {
-        SQLiteDatabase db = null;
-        try {
-            db = SQLiteDatabase.openDatabase(dbf.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
-        } catch (SQLiteException e0) {
-            return Err.DB_UNKNOWN;
-        }
-        return DB.verifyDB(db);
-    }
-
     /**
-     * Only 'export DB' and 'import DB' requires exclusive DB access.
-     * Because these two cases exceptionally uses 'File' operations (NOT SQLite DB operation),
-     *   Synchronization supported SQLiteDatabase module, isn't used.
-     * So, race-condition of file-system-level may be issued.
+     * Database is exported as consistent snapshot of live DB.
+     * So, unlike import, exclusive access to DB is NOT required.
+     * (Channels can be updated while exporting.)
      */
     private void
     exportDBAsync() {
-        if (!getExclusiveDBAccess()) {
-            UiHelper.showTextToast(this, R.string.warn_db_in_use);
-            return;
-        }
-
         DiagAsyncTask.Worker exportWork = new DiagAsyncTask.Worker() {
             @Override
             public Err
-            doBackgroundWork(DiagAsyncTask task) {
-                try {
-                    FileInputStream fis = new FileInputStream(new File(mInDBFilePath));
-                    FileOutputStream fos = new FileOutputStream(new File(mExDBFilePath));
-                    Utils.copy(fos, fis);
-                    fis.close();
-                    fos.close();
-                } catch (Exception e) {
-                    return Err.IO_FILE;
-                }
-                return Err.NO_ERR;
+            doBackgroundWork(final DiagAsyncTask task) {
+                DBSnapshot.OnProgress progress = new DBSnapshot.OnProgress() {
+                    @Override
+                    public void
+                    onProgress(int percent) {
+                        task.publishProgress(percent);
+                    }
+                };
+                return mDbp.exportDatabase(new File(mExDBFilePath), progress)? Err.NO_ERR: Err.IO_FILE;
             }
 
             @Override
@@ -216,20 +200,12 @@ UnexpectedExceptionHandler.TrackedModule {
             onPostExecute(DiagAsyncTask task, Err result) {
                 if (result != Err.NO_ERR)
                     UiHelper.showTextToast(DBManagerActivity.this, result.getMsgId());
-
-                putExclusiveDBAccess();
-            }
-
-            @Override
-            public void
-            onCancelled(DiagAsyncTask task) {
-                putExclusiveDBAccess();
             }
         };
 
         DiagAsyncTask task = new DiagAsyncTask(this,
                                                exportWork,
-                                               DiagAsyncTask.Style.SPIN,
+                                               DiagAsyncTask.Style.PROGRESS,
                                                R.string.exporting);
         task.run();
     }
@@ -258,46 +234,28 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     private void
     importDBAsync() {
-        final String inDBBackupSuffix = "______backup";
+        final String inDBImportSuffix = "-import";
         final File exDbf = new File(mExDBFilePath);
         if (!exDbf.exists()) {
             UiHelper.showTextToast(this, R.string.warn_exdb_access_denied);
             return;
         }
 
-        switch(verifyCandidateDB(exDbf)) {
-        case VERSION_MISMATCH:
-            UiHelper.showTextToast(this, R.string.warn_db_version_mismatch);
-            return;
-
-        case NO_ERR:
-            break;
-
-        default:
-            UiHelper.showTextToast(this, R.string.warn_exdb_not_compatible);
-            return;
-        }
-
         if (!getExclusiveDBAccess()) {
             UiHelper.showTextToast(this, R.string.warn_db_in_use);
             return;
         }
 
-        final File inDbf = new File(mInDBFilePath);
-        final File inDbfBackup = new File(inDbf.getAbsoluteFile() + inDBBackupSuffix);
-        if (!inDbf.renameTo(inDbfBackup)) {
-            UiHelper.showTextToast(this, Err.IO_FILE.getMsgId());
-            putExclusiveDBAccess();
-            return;
-        }
-
+        // Candidate is copied next to DB file first, and verified copy is moved to DB file.
+        // So, DB is replaced at once and DB is usable while copying.
+        final File importf = new File(new File(mInDBFilePath).getAbsolutePath() + inDBImportSuffix);
         DiagAsyncTask.Worker importWork = new DiagAsyncTask.Worker() {
             @Override
             public Err
             doBackgroundWork(DiagAsyncTask task) {
                 try {
                     FileInputStream fis = new FileInputStream(exDbf);
-                    FileOutputStream fos = new FileOutputStream(inDbf);
+                    FileOutputStream fos = new FileOutputStream(importf);
                     Utils.copy(fos, fis);
                     fis.close();
                     fos.close();
@@ -305,24 +263,33 @@ UnexpectedExceptionHandler.TrackedModule {
                     return Err.IO_FILE;
                 }
 
-                mDbp.reloadDatabase();
-
-                return Err.NO_ERR;
+                Err err = DB.verifyDatabaseFile(importf);
+                if (Err.NO_ERR == err
+                    && !mDbp.replaceDatabase(importf))
+                    err = Err.IO_FILE;
+                return err;
             }
 
             @Override
             public void
             onPostExecute(DiagAsyncTask task, Err result) {
-                if (result == Err.NO_ERR) {
-                    // All are done successfully!
-                    // Delete useless backup file!
-                    inDbfBackup.delete();
+                importf.delete();
+                switch (result) {
+                case NO_ERR:
                     onDBChanged(ID_ALL_CHANNEL, 0);
-                } else {
-                    if (inDbfBackup.renameTo(inDbf))
-                        UiHelper.showTextToast(DBManagerActivity.this, Err.DB_CRASH.getMsgId());
-                    else
-                        UiHelper.showTextToast(DBManagerActivity.this, Err.IO_FILE.getMsgId());
+                    break;
+
+                case VERSION_MISMATCH:
+                    UiHelper.showTextToast(DBManagerActivity.this, R.string.warn_db_version_mismatch);
+                    break;
+
+                case DB_UNKNOWN:
+                case DB_CRASH:
+                    UiHelper.showTextToast(DBManagerActivity.this, R.string.warn_exdb_not_compatible);
+                    break;
+
+                default:
+                    UiHelper.showTextToast(DBManagerActivity.this, result.getMsgId());
                 }
                 putExclusiveDBAccess();
             }
@@ -330,6 +297,7 @@ UnexpectedExceptionHandler.TrackedModule {
             @Override
             public void
             onCancelled(DiagAsyncTask task) {
+                importf.delete();
                 putExclusiveDBAccess();
             }
         };
@@ -356,6 +324,99 @@ UnexpectedExceptionHandler.TrackedModule {
         }).show();
     }
 
+    /**
+     * Unlike import, current DB is kept and channels/items of external DB are added to it.
+     * External DB is read directly - it is not copied.
+     */
+    private void
+    mergeDBAsync() {
+        final File exDbf = new File(mExDBFilePath);
+        if (!exDbf.exists()) {
+            UiHelper.showTextToast(this, R.string.warn_exdb_access_denied);
+            return;
+        }
+
+        // Channels SHOULD NOT be updated while merging. Channel may be inserted twice.
+        if (!getExclusiveDBAccess()) {
+            UiHelper.showTextToast(this, R.string.warn_db_in_use);
+            return;
+        }
+
+        DiagAsyncTask.Worker mergeWork = new DiagAsyncTask.Worker() {
+            @Override
+            public Err
+            doBackgroundWork(final DiagAsyncTask task) {
+                Err err = DB.verifyDatabaseFile(exDbf);
+                if (Err.NO_ERR != err)
+                    return err;
+
+                DBSnapshot.OnProgress progress = new DBSnapshot.OnProgress() {
+                    @Override
+                    public void
+                    onProgress(int percent) {
+                        task.publishProgress(percent);
+                    }
+                };
+                File contentRoot = new File(mExContentRootPath);
+                return mDbp.mergeDatabase(exDbf,
+                                          contentRoot.isDirectory()? contentRoot: null,
+                                          progress);
+            }
+
+            @Override
+            public void
+            onPostExecute(DiagAsyncTask task, Err result) {
+                switch (result) {
+                case NO_ERR:
+                    onDBChanged(ID_ALL_CHANNEL, 0);
+                    break;
+
+                case VERSION_MISMATCH:
+                    UiHelper.showTextToast(DBManagerActivity.this, R.string.warn_db_version_mismatch);
+                    break;
+
+                case DB_UNKNOWN:
+                case DB_CRASH:
+                    UiHelper.showTextToast(DBManagerActivity.this, R.string.warn_exdb_not_compatible);
+                    break;
+
+                default:
+                    UiHelper.showTextToast(DBManagerActivity.this, result.getMsgId());
+                }
+                putExclusiveDBAccess();
+            }
+
+            @Override
+            public void
+            onCancelled(DiagAsyncTask task) {
+                // Items merged before cancel are kept. (Each chunk is merged atomically.)
+                onDBChanged(ID_ALL_CHANNEL, 0);
+                putExclusiveDBAccess();
+            }
+        };
+
+        DiagAsyncTask task = new DiagAsyncTask(this,
+                                               mergeWork,
+                                               DiagAsyncTask.Style.PROGRESS,
+                                               R.string.merging);
+        task.run();
+    }
+
+    private void
+    actionMergeDB() {
+        CharSequence title = getResources().getText(R.string.mergedb);
+        CharSequence msg = getResources().getText(R.string.database) + " <= " + mExDBFilePath;
+        UiHelper.buildConfirmDialog(this, title, msg, new OnConfirmDialogAction() {
+            @Override
+            public void
+            onOk(Dialog dialog) {
+                mergeDBAsync();
+            }
+            @Override
+            public void onCancel(Dialog dialog) { }
+        }).show();
+    }
+
     /**
      *
      * @param cid
@@ -369,7 +430,9 @@ UnexpectedExceptionHandler.TrackedModule {
             @Override
             public Err
             doBackgroundWork(DiagAsyncTask task) {
-                nr = mDbp.deleteOldItems(cid, percent);
+                // Percent is of whole DB in case of ID_ALL_CHANNEL.
+                // Favorite items and new items not recognized by user are kept.
+                nr = ItemRetention.get().shrink(cid, percent).nrItems;
                 return Err.NO_ERR;
             }
 
@@ -438,12 +501,14 @@ UnexpectedExceptionHandler.TrackedModule {
                 Cursor c = mDbp.queryChannel(new ColumnChannel[] { ColumnChannel.ID,
                                                                    ColumnChannel.TITLE });
 
+                HashMap<Long, DBPolicy.ChannelStat> stats = mDbp.getChannelStats();
                 mDbInfo.channs = new DBInfo.ChannInfo[c.getCount()];
                 c.moveToFirst();
                 for (int i = 0; i < mDbInfo.channs.length; i++) {
+                    DBPolicy.ChannelStat stat = stats.get(c.getLong(0));
                     mDbInfo.channs[i] = new DBInfo.ChannInfo();
                     mDbInfo.channs[i].id = c.getLong(0);
-                    mDbInfo.channs[i].nrItmes = mDbp.getChannelInfoNrItems(c.getLong(0));
+                    mDbInfo.channs[i].nrItmes = (null == stat)? 0: (int)stat.nrItems;
                     mDbInfo.channs[i].title = c.getString(1);
                     c.moveToNext();
                 }
@@ -488,6 +553,7 @@ UnexpectedExceptionHandler.TrackedModule {
         mDbInfo.sz = (int)(new File(mInDBFilePath).length() / 1024);
         CharSequence text = getResources().getText(R.string.db_size) + " : " + mDbInfo.sz + " KB";
         ((TextView)findViewById(R.id.total_dbsz)).setText(text);
+        showSpaceStat();
         if (ID_ALL_CHANNEL == cid)
             activateChannelInfoListView(false);
         else {
@@ -500,6 +566,23 @@ UnexpectedExceptionHandler.TrackedModule {
         }
     }
 
+    /**
+     * Free pages are reclaimed at background while DB is idle. (See DBPolicy.getSpaceStat)
+     */
+    private void
+    showSpaceStat() {
+        DBPolicy.SpaceStat ss = mDbp.getSpaceStat();
+        long freeKB = ss.nrFreePages * ss.pageSize / 1024;
+        long percent = (ss.nrPages > 0)? ss.nrFreePages * 100 / ss.nrPages: 0;
+        CharSequence text = getResources().getText(R.string.db_free_space) + " : "
+                            + freeKB + " KB (" + percent + "%)\n"
+                            + getResources().getText(R.string.db_reclaimed) + " : "
+                            + (ss.reclaimedBytes / 1024) + " KB ("
+                            + ss.nrVacuumSteps + " " + getResources().getText(R.string.db_vacuum_steps)
+                            + ", max " + ss.maxVacuumStepTime + " ms)";
+        ((TextView)findViewById(R.id.db_space)).setText(text);
+    }
+
     private void
     activateChannelInfoListView(boolean activate) {
         if (activate) {
@@ -534,6 +617,7 @@ UnexpectedExceptionHandler.TrackedModule {
         mExDBFilePath = Environ.get().getAppRootDirectoryPath()
                         + getResources().getText(R.string.app_name) + ".db";
         mInDBFilePath = getDatabasePath(DB.getDBName()).getAbsolutePath();
+        mExContentRootPath = Environ.get().getAppRootDirectoryPath() + "merge/";
 
         ((Button)findViewById(R.id.exportdb)).setOnClickListener(new View.OnClickListener() {
             @Override
@@ -549,6 +633,13 @@ UnexpectedExceptionHandler.TrackedModule {
             }
         });
 
+        ((Button)findViewById(R.id.mergedb)).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                actionMergeDB();
+            }
+        });
+
         ((Button)findViewById(R.id.shrinkdb)).setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
@@ -47,6 +47,8 @@ import free.yhc.feeder.db.DB;
 import free.yhc.feeder.db.DBPolicy;
 import free.yhc.feeder.model.ContentsManager;
 import free.yhc.feeder.model.Environ;
+import free.yhc.feeder.model.ItemRetention;
+import free.yhc.feeder.model.NetConnPool;
 import free.yhc.feeder.model.RTTask;
 import free.yhc.feeder.model.UnexpectedExceptionHandler;
 import free.yhc.feeder.model.UsageReport;
@@ -123,13 +125,17 @@ public class FeederApp extends Application {
         // And most modules uses application context in it's early stage - ex. constructor.
         Utils.init();
         Utils.cleanTempFiles();
+        Utils.cleanStalePartialFiles();
 
         // register default customized uncaught exception handler for error collecting.
         Thread.setDefaultUncaughtExceptionHandler(UnexpectedExceptionHandler.get());
 
+        // NetConnPool SHOULD be initialized before any network access.
+        NetConnPool.get();
         DB.get().open();
         ContentsManager.get();
         DBPolicy.get();
+        ItemRetention.get();
         RTTask.get();
         UsageReport.get();
         NotiManager.get();
@@ -146,6 +152,19 @@ public class FeederApp extends Application {
         // Application is about to be killed.
         // Remove all non-sticky notification.
         NotiManager.get().removeAllNonStickyNotification();
+        // Pending item states are lost if process is killed.
+        // NOTE
+        // Flush is done at background. Waiting other DB transaction at UI thread may cause ANR.
+        DBPolicy.get().flushItemStatesAsync();
         super.onLowMemory();
     }
+
+    @Override
+    public void
+    onTrimMemory(int level) {
+        // This is called when UI goes to background, too. (TRIM_MEMORY_UI_HIDDEN)
+        // Process in background may be killed at any time.
+        DBPolicy.get().flushItemStatesAsync();
+        super.onTrimMemory(level);
+    }
 }
@@ -74,6 +74,7 @@ import free.yhc.feeder.db.ColumnChannel;
 import free.yhc.feeder.db.ColumnItem;
 import free.yhc.feeder.db.DB;
 import free.yhc.feeder.db.DBPolicy;
+import free.yhc.feeder.db.ItemPageQuery;
 import free.yhc.feeder.model.BGTask;
 import free.yhc.feeder.model.BGTaskUpdateChannel;
 import free.yhc.feeder.model.BaseBGTask;
@@ -188,10 +189,12 @@ UnexpectedExceptionHandler.TrackedModule {
                     ColumnItem.CHANNELID,
                     ColumnItem.TITLE,
                     ColumnItem.DESCRIPTION,
+                    ColumnItem.DESCRIPTION_Z, // Description is decompressed only for items shown.
                     ColumnItem.ENCLOSURE_LENGTH,
                     ColumnItem.ENCLOSURE_URL,
                     ColumnItem.ENCLOSURE_TYPE,
                     ColumnItem.PUBDATE,
+                    ColumnItem.PUBTIME, // Mandatory for loading by page.
                     ColumnItem.LINK };
 
         protected String _mSearch = "";
@@ -206,6 +209,18 @@ UnexpectedExceptionHandler.TrackedModule {
         void    onResume() {}
         long[]  getCids()  { return new long[0]; }
         Cursor  query()    { return null; }
+        ItemPageQuery buildPageQuery() { return null; }
+
+        /**
+         * Items are loaded by page if possible - it's much faster than cursor for large list.
+         * But search result is ordered by rank. So, cursor from 'query()' is used for searching.
+         * @return
+         *   null if 'query()' SHOULD be used.
+         */
+        ItemPageQuery
+        pageQuery() {
+            return _mSearch.isEmpty()? buildPageQuery(): null;
+        }
 
         boolean
         doesRunningBGTaskExists() {
@@ -306,6 +321,12 @@ UnexpectedExceptionHandler.TrackedModule {
             return mDbp.queryItem(_mCid, _mQueryProjection, _mSearch, _mFromPubtime, _mToPubtime);
         }
 
+        @Override
+        ItemPageQuery
+        buildPageQuery() {
+            return ItemPageQuery.channels(new long[] { _mCid }, _mFromPubtime, _mToPubtime);
+        }
+
         @Override
         long
         minPubtime() {
@@ -371,6 +392,12 @@ UnexpectedExceptionHandler.TrackedModule {
             return mDbp.queryItem(_mCids, _mQueryProjection, _mSearch, _mFromPubtime, _mToPubtime);
         }
 
+        @Override
+        ItemPageQuery
+        buildPageQuery() {
+            return ItemPageQuery.channels(_mCids, _mFromPubtime, _mToPubtime);
+        }
+
         @Override
         long
         minPubtime() {
@@ -429,6 +456,14 @@ UnexpectedExceptionHandler.TrackedModule {
                                       _mSearch, _mFromPubtime, _mToPubtime);
         }
 
+        @Override
+        ItemPageQuery
+        buildPageQuery() {
+            return ItemPageQuery.mask(ColumnItem.STATE,
+                                      Feed.Item.MSTAT_FAV, Feed.Item.FSTAT_FAV_ON,
+                                      _mFromPubtime, _mToPubtime);
+        }
+
         @Override
         long
         minPubtime() {
@@ -490,6 +525,12 @@ UnexpectedExceptionHandler.TrackedModule {
             return mDbp.queryItem(_mQueryProjection, _mSearch, _mFromPubtime, _mToPubtime);
         }
 
+        @Override
+        ItemPageQuery
+        buildPageQuery() {
+            return ItemPageQuery.channels(null, _mFromPubtime, _mToPubtime);
+        }
+
         @Override
         long
         minPubtime() {
@@ -674,13 +715,25 @@ UnexpectedExceptionHandler.TrackedModule {
         la.notifyDataSetChanged();
     }
 
+    /**
+     * Set source of list items - page query or cursor - to adapter.
+     * @param adapter
+     */
+    private void
+    changeListSource(ItemListAdapter adapter) {
+        ItemPageQuery q = mOpMode.pageQuery();
+        if (null != q)
+            adapter.changePageQuery(q, mOpMode._mQueryProjection);
+        else
+            adapter.changeCursor(mOpMode.query());
+    }
+
     private void
     refreshList(long id) {
         if (null == mList || null == getListAdapter())
             return;
 
-        Cursor newCursor = mOpMode.query();
-        getListAdapter().changeCursor(newCursor);
+        changeListSource(getListAdapter());
         getListAdapter().reloadItem(getListAdapter().findItemId(id));
     }
 
@@ -692,8 +745,7 @@ UnexpectedExceptionHandler.TrackedModule {
         // [ NOTE ]
         // Usually, number of channels are not big.
         // So, we don't need to think about async. loading.
-        Cursor newCursor = mOpMode.query();
-        getListAdapter().changeCursor(newCursor);
+        changeListSource(getListAdapter());
         getListAdapter().reloadDataSetAsync();
     }
 
@@ -1169,12 +1221,14 @@ UnexpectedExceptionHandler.TrackedModule {
 
         mOpMode.onCreate();
 
-        mList.setAdapter(new ItemListAdapter(ItemListActivity.this,
-                                            mOpMode.query(),
-                                            mList,
-                                            DATA_REQ_SZ,
-                                            DATA_ARR_MAX,
-                                            mOpMode.getAdapterActionHandler()));
+        ItemListAdapter adapter = new ItemListAdapter(ItemListActivity.this,
+                                                      null,
+                                                      mList,
+                                                      DATA_REQ_SZ,
+                                                      DATA_ARR_MAX,
+                                                      mOpMode.getAdapterActionHandler());
+        changeListSource(adapter);
+        mList.setAdapter(adapter);
         mDbWatcher = new DBWatcher();
     }
 
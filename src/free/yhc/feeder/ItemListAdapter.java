@@ -54,6 +54,7 @@ import android.widget.TextView;
 import free.yhc.feeder.db.ColumnChannel;
 import free.yhc.feeder.db.ColumnItem;
 import free.yhc.feeder.db.DBPolicy;
+import free.yhc.feeder.db.ItemDescription;
 import free.yhc.feeder.model.BaseBGTask;
 import free.yhc.feeder.model.ContentsManager;
 import free.yhc.feeder.model.Feed;
@@ -272,7 +273,7 @@ AsyncCursorAdapter.ItemBuilder {
             i.id = getCursorLong(c, ColumnItem.ID);
             i.state = mDbp.getItemInfoLong(i.id, ColumnItem.STATE);
             i.title = getCursorString(c, ColumnChannel.TITLE);
-            i.desc = getCursorString(c, ColumnChannel.DESCRIPTION);
+            i.desc = ItemDescription.get(c);
             i.pubDate = getCursorString(c, ColumnItem.PUBDATE);
             i.enclosureLen = getCursorString(c, ColumnItem.ENCLOSURE_LENGTH);
             i.enclosureUrl = getCursorString(c, ColumnItem.ENCLOSURE_URL);
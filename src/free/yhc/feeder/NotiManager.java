@@ -38,6 +38,7 @@ package free.yhc.feeder;
 
 import static free.yhc.feeder.model.Utils.eAssert;
 
+import java.util.HashMap;
 import java.util.HashSet;
 
 import android.app.Notification;
@@ -246,10 +247,13 @@ UnexpectedExceptionHandler.TrackedModule {
             case SCAN: {
                 // cids are not used in this case
                 DBPolicy dbp = DBPolicy.get();
+                HashMap<Long, DBPolicy.ChannelStat> stats = dbp.getChannelStats();
                 for (Long cid : dbp.getChannelIds()) {
-                    long oldLast = dbp.getChannelInfoLong(cid, ColumnChannel.OLDLAST_ITEMID);
-                    long max     = dbp.getItemInfoMaxId(cid);
-                    if (oldLast < max)
+                    DBPolicy.ChannelStat stat = stats.get(cid);
+                    Long oldLast = dbp.getChannelInfoLong(cid, ColumnChannel.OLDLAST_ITEMID);
+                    if (null != stat
+                        && null != oldLast
+                        && oldLast < stat.maxItemId)
                         mNewItemChannSet.add(cid);
                     else
                         mNewItemChannSet.remove(cid);
@@ -49,7 +49,6 @@ import android.app.Service;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
 import android.os.IBinder;
 import free.yhc.feeder.db.ColumnChannel;
 import free.yhc.feeder.db.DBPolicy;
@@ -352,16 +351,15 @@ UnexpectedExceptionHandler.TrackedModule {
         eAssert(dayms <= Utils.DAY_IN_MS);
 
         // If we get killed, after returning from here, restart
-        Cursor c = DBPolicy.get().queryChannel(ColumnChannel.SCHEDUPDATETIME);
-        if (!c.moveToFirst()) {
-            c.close();
+        DBPolicy dbp = DBPolicy.get();
+        long[] cids = dbp.getChannelIds();
+        if (0 == cids.length)
             return; // There is no channel.
-        }
 
         final long invalidNearestNext = Utils.DAY_IN_MS * 2;
         long nearestNext = invalidNearestNext; // large enough value.
-        do {
-            String sStr = c.getString(0);
+        for (long cid : cids) {
+            String sStr = dbp.getChannelInfoString(cid, ColumnChannel.SCHEDUPDATETIME);
             if (Utils.isValidValue(sStr)) {
                 // NOTE : IMPORTANT
                 //   Time stored at DB is HOUR_OF_DAY (0 - 23)
@@ -379,8 +377,7 @@ UnexpectedExceptionHandler.TrackedModule {
                         nearestNext = out[0];
                 }
             }
-        } while (c.moveToNext());
-        c.close();
+        }
 
         if (nearestNext != invalidNearestNext) {
             Context cxt = Environ.getAppContext();
@@ -458,17 +455,12 @@ UnexpectedExceptionHandler.TrackedModule {
         }
 
         // If we get killed, after returning from here, restart
-        Cursor c = mDbp.queryChannel(new ColumnChannel[] {
-                ColumnChannel.ID,
-                ColumnChannel.SCHEDUPDATETIME });
-        // below values are 'Column Index' for above query.
-        final int iId   = 0;
-        final int iTime = 1;
-
-        if (!c.moveToFirst()) {
-            c.close();
+        // NOTE
+        // Channel information is read from in-memory channel snapshot of DBPolicy.
+        // So, DB is not accessed here.
+        long[] allCids = mDbp.getChannelIds();
+        if (0 == allCids.length)
             return; // There is no channel.
-        }
 
         // NOTE : IMPORTANT
         // Service is started behind it's original plan by amount of 'schedError'
@@ -476,12 +468,11 @@ UnexpectedExceptionHandler.TrackedModule {
         //   between 'schedTime' and 'current'.
         long schedError = calNow.getTimeInMillis() - schedTime;
         LinkedList<Long> chl = new LinkedList<Long>();
-        do {
-            String sStr = c.getString(iTime);
+        for (long cid : allCids) {
+            String sStr = mDbp.getChannelInfoString(cid, ColumnChannel.SCHEDUPDATETIME);
             //   We cannot guarantee that service is started at exact time.
             //   So, we need to check error and find next scheduled based on this error.
             long[] ss  = Utils.nStringToNrs(sStr);
-            long   cid = c.getLong(iId);
             long[] out = new long[2];
             for (long s : ss) {
                 long sms = Utils.secToMs(s);
@@ -492,8 +483,7 @@ UnexpectedExceptionHandler.TrackedModule {
                 if (out[1] <= schedError)
                     chl.add(cid);
             }
-        } while (c.moveToNext());
-        c.close();
+        }
 
         long[] cids = Utils.convertArrayLongTolong(chl.toArray(new Long[0]));
         startUpdates(startId, cids);
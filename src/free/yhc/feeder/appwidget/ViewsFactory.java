@@ -54,6 +54,7 @@ import free.yhc.feeder.db.ColumnChannel;
 import free.yhc.feeder.db.ColumnItem;
 import free.yhc.feeder.db.DB;
 import free.yhc.feeder.db.DBPolicy;
+import free.yhc.feeder.db.ItemDescription;
 import free.yhc.feeder.model.BGTask;
 import free.yhc.feeder.model.BaseBGTask;
 import free.yhc.feeder.model.ContentsManager;
@@ -80,6 +81,7 @@ UnexpectedExceptionHandler.TrackedModule {
     private static final int    COLI_ENCLOSURE_TYPE     = 6;
     private static final int    COLI_PUBDATE            = 7;
     private static final int    COLI_LINK               = 8;
+    private static final int    COLI_DESCRIPTION_Z      = 9;
 
     private static final ColumnItem[] sQueryProjection = new ColumnItem[] {
             ColumnItem.ID, // Mandatory.
@@ -90,7 +92,8 @@ UnexpectedExceptionHandler.TrackedModule {
             ColumnItem.ENCLOSURE_URL,
             ColumnItem.ENCLOSURE_TYPE,
             ColumnItem.PUBDATE,
-            ColumnItem.LINK };
+            ColumnItem.LINK,
+            ColumnItem.DESCRIPTION_Z };
 
     private final DBPolicy  mDbp = DBPolicy.get();
     private final ContentsManager mCm = ContentsManager.get();
@@ -427,13 +430,17 @@ UnexpectedExceptionHandler.TrackedModule {
         // Called at binder thread
         long iid, cid;
         String title, desc;
+        byte[] descz;
         synchronized (mCursorLock) {
             mCursor.moveToPosition(position);
             iid = mCursor.getLong(COLI_ID);
             cid = mCursor.getLong(COLI_CHANNELID);
             title = mCursor.getString(COLI_TITLE);
             desc = mCursor.getString(COLI_DESCRIPTION);
+            descz = mCursor.getBlob(COLI_DESCRIPTION_Z);
         }
+        if (ItemDescription.isCompressed(descz))
+            desc = ItemDescription.decompress(descz);
         RemoteViews rv = new RemoteViews(Environ.getAppContext().getPackageName(),
                                          R.layout.appwidget_row);
         rv.setTextViewText(R.id.channel, mDbp.getChannelInfoString(cid, ColumnChannel.TITLE));
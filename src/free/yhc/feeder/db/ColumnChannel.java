@@ -44,7 +44,8 @@ public enum ColumnChannel implements DB.Column {
     DESCRIPTION     ("description",     "text",     "not null"),
 
     // Columns for internal use.
-    IMAGEBLOB       ("imageblob",       "blob",     "not null"), // image from channel tag.
+    // NOTE
+    // Image from channel tag is stored at separated table. (See 'ColumnChannelImage')
     LASTUPDATE      ("lastupdate",      "integer",  "not null"), // time when channel is updated, lastly
     // For fast/simple comparison, flag of 'long' type is used instead of text.
     ACTION          ("action",          "integer",  "not null"),
@@ -76,6 +77,15 @@ public enum ColumnChannel implements DB.Column {
     //
     // NOT USED YET! For future use.
     NRITEMS_SOFTMAX ("nritemssoftmax",  "integer",  "not null"),
+    // Validators of feed applied at last update - used for HTTP conditional GET. (See NetLoader)
+    // Empty if server doesn't give it.
+    ETAG            ("etag",            "text",     "not null"),
+    LASTMODIFIED    ("lastmodified",    "text",     "not null"),
+    // Hash of feed body applied at last update.
+    // This is used to know that feed is not changed, when server doesn't support validators.
+    BODYHASH        ("bodyhash",        "integer",  "not null"),
+    // Number of updates skipped because feed was not changed. (For statistics.)
+    NRNOTMODIFIED   ("nrnotmodified",   "integer",  "not null"),
     URL             ("url",             "text",     "not null"), // channel url of this rss.
     CATEGORYID      ("categoryid",      "integer",  ""),
     POSITION        ("position",        "integer",  "not null"), // position order used by UI.
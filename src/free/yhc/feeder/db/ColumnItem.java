@@ -51,6 +51,11 @@ public enum ColumnItem implements DB.Column {
     STATE           ("state",           "integer",  "not null"), // new, read etc
     // time when this item is inserted.(milliseconds since 1970.1.1....)
     PUBTIME         ("pubtime",         "integer",  "not null"),
+    // 64-bit hash of keys used to check duplicated item.
+    // (See 'DB.getItemFingerprint')
+    FINGERPRINT     ("fingerprint",     "integer",  "not null"),
+    // Compressed DESCRIPTION. Empty if DESCRIPTION is stored as it is. (See ItemDescription)
+    DESCRIPTION_Z   ("descriptionz",    "blob",     ""),
     CHANNELID       ("channelid",       "integer",  ""),
     ID              (BaseColumns._ID,   "integer",  "primary key autoincrement, "
             // Add additional : foreign key
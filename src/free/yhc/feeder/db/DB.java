@@ -38,14 +38,21 @@ package free.yhc.feeder.db;
 
 import static free.yhc.feeder.model.Utils.eAssert;
 
-import java.lang.reflect.Method;
+import java.io.File;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
+import android.provider.BaseColumns;
 import free.yhc.feeder.model.Environ;
 import free.yhc.feeder.model.Err;
 import free.yhc.feeder.model.Feed;
@@ -71,7 +78,14 @@ UnexpectedExceptionHandler.TrackedModule {
      **************************************/
     static final String TABLE_CATEGORY  = "category";
     static final String TABLE_CHANNEL   = "channel";
+    // 'id' of this table is same with channel id.
+    static final String TABLE_CHANNEL_IMAGE = "channel_image";
+    // Item counters of channel. 'id' of this table is same with channel id.
+    static final String TABLE_CHANNEL_STAT  = "channel_stat";
     static final String TABLE_ITEM      = "item";
+    // Full text search index for item table.
+    // 'docid' of this table is same with item id.
+    static final String TABLE_ITEM_FTS  = "item_fts";
 
     // NOTE
     // Oops... mistake on spelling - 'feeder.db' is right.
@@ -79,7 +93,7 @@ UnexpectedExceptionHandler.TrackedModule {
     // So, let's ignore it until real DB structure is needed to be changed.
     // => this can be resolved by 'DB Upgrade operation'.
     private static final String NAME            = "feader.db";
-    private static final int    VERSION         = 3;
+    private static final int    VERSION         = 11;
 
     private static final long FLAG_CATEGORY_TABLE = 0x1;
     private static final long FLAG_CHANNEL_TABLE  = 0x10;
@@ -87,21 +101,141 @@ UnexpectedExceptionHandler.TrackedModule {
     private static final long FLAG_ITEM_TABLE     = 0x100;
 
     private static final String ITEM_QUERY_DEFAULT_ORDER = ColumnItem.PUBTIME.getName() + " DESC";
+    // Order of item page. (See ItemPageQuery)
+    // '_id' is used to decide order of items having same publish time.
+    private static final String ITEM_PAGE_ORDER = ColumnItem.PUBTIME.getName() + " DESC, "
+                                                  + ColumnItem.ID.getName() + " DESC";
+    private static final String ITEM_PAGE_ORDER_REVERSED = ColumnItem.PUBTIME.getName() + " ASC, "
+                                                           + ColumnItem.ID.getName() + " ASC";
     private static final String CHANNEL_QUERY_DEFAULT_ORDER = ColumnChannel.POSITION.getName() + " ASC";
 
+    // SQLite doesn't allow more than 999 bind arguments in one statement.
+    // Values are inlined into SQL if number of values exceeds this.
+    private static final int    MAX_BIND_ARGS       = 500;
+    // Number of connections used only for query.
+    private static final int    READ_POOL_SIZE      = 2;
+
+    // Maximum number of entries of query shape caches.
+    // Number of query shapes used in this application is limited.
+    // So, this is just for safety.
+    private static final int    MAX_SHAPE_CACHE     = 256;
+
+    // Secondary indexes of item table.
+    // Almost all item queries filter rows with 'channelid', 'state' or 'pubtime'.
+    // Without these indexes, each of them is full table scan.
+    // { <index name>, <indexed columns> }
+    private static final String[][] sItemIndexes = new String[][] {
+        // items of channel ordered by publish time (default order of item query)
+        new String[] { "item_channelid_pubtime",
+                       ColumnItem.CHANNELID.getName() + ", " + ColumnItem.PUBTIME.getName() + " DESC" },
+        // items of channel ordered by id. (See 'queryItemIds')
+        new String[] { "item_channelid_id",
+                       ColumnItem.CHANNELID.getName() + ", " + ColumnItem.ID.getName() },
+        // items selected by state flag. (See 'queryItemMask')
+        new String[] { "item_state_pubtime",
+                       ColumnItem.STATE.getName() + ", " + ColumnItem.PUBTIME.getName() },
+        // all items ordered by publish time.
+        new String[] { "item_pubtime",
+                       ColumnItem.PUBTIME.getName() },
+        // items of channel selected by fingerprint. (See 'queryItemFingerprints')
+        new String[] { "item_channelid_fingerprint",
+                       ColumnItem.CHANNELID.getName() + ", " + ColumnItem.FINGERPRINT.getName() },
+    };
+
+    // Item columns indexed by full text search.
+    private static final ColumnItem[] sItemFTSColumns = new ColumnItem[] {
+        ColumnItem.TITLE,
+        ColumnItem.DESCRIPTION,
+    };
+
+    // Rank of full text search result - number of matching terms.
+    // 'offsets()' gives 4 integers(separated by space) for each matching term.
+    // NOTE
+    // Custom SQL function (ex. ranking function using 'matchinfo()') cannot be registered
+    //   at Android framework. So, only built-in functions are used.
+    private static final String FTS_RANK        = "ftsrank";
+    private static final String FTS_RANK_EXPR   = "(length(offsets(" + TABLE_ITEM_FTS + "))"
+                                                  + " - length(replace(offsets(" + TABLE_ITEM_FTS + "), ' ', ''))"
+                                                  + " + 1) / 4";
+
     private static DB sInstance = null;
 
+    // Projection cache. Key : columns.
+    private static final HashMap<List<Column>, String[]> sProjections
+        = new HashMap<List<Column>, String[]>();
+    // Where clause template cache. Key : operator, join and columns.
+    private static final HashMap<List<Object>, String> sWhereTemplates
+        = new HashMap<List<Object>, String>();
+
     /**************************************
      * Members
      **************************************/
     private SQLiteDatabase mDb = null;
+    // Connections used only for query (read-only access).
+    // With write-ahead logging, query on these connections doesn't wait for writer.
+    // 'null' if write-ahead logging is not available. (mDb is used for query.)
+    private volatile SQLiteDatabase[] mReadDbs = null;
+    private final AtomicInteger mReadDbIdx = new AtomicInteger(0);
 
     private final ListenerManager mLm = new ListenerManager();
 
+    // Compiled statements used to update one column of a row.
+    // Key : <table>.<column>
+    // NOTE
+    // Statement is bound to DB connection. So, cache SHOULD be cleared before DB is closed.
+    private final HashMap<String, SQLiteStatement> mUpdateStmts = new HashMap<String, SQLiteStatement>();
+
+    // SQL (with bind argument placeholders) built from query shape.
+    // Key : table, projection, where clause, order and limit.
+    // Same query shape leads to same SQL string. So, SQLite statement cache is hit.
+    private final HashMap<List<Object>, String> mQuerySQLs = new HashMap<List<Object>, String>();
+    // For instrumentation.
+    // Number of SQL built from query shape (that is, number of new shapes - prepared by SQLite).
+    private long mNrSQLBuilt    = 0;
+    // Number of queries done via query shape cache.
+    private long mNrShapeQuery  = 0;
+
+    /**
+     * Where clause and it's bind arguments.
+     */
+    private static class SQLWhere {
+        static final SQLWhere EMPTY = new SQLWhere("", null);
+
+        // Empty string if there is no condition.
+        final String    clause;
+        // null if there is no argument.
+        final String[]  args;
+
+        SQLWhere(String aClause, String[] aArgs) {
+            clause = aClause;
+            args = aArgs;
+        }
+
+        boolean
+        isEmpty() {
+            return clause.isEmpty();
+        }
+
+        /**
+         * Join two where clauses with "AND".
+         * @param wh
+         * @return
+         */
+        SQLWhere
+        and(SQLWhere wh) {
+            if (wh.isEmpty())
+                return this;
+            if (isEmpty())
+                return wh;
+            return new SQLWhere(clause + " AND " + wh.clause, concatArgs(args, wh.args));
+        }
+    }
+
     public enum UpdateType implements ListenerManager.Type {
         CATEGORY_TABLE  (FLAG_CATEGORY_TABLE),
         CHANNEL_TABLE   (FLAG_CHANNEL_TABLE),
         CHANNEL_DATA    (FLAG_CHANNEL_DATA), // arg0 : <Long> channel id.
+        // arg0 : <Boolean> TRUE if new items are inserted and existing items are not changed.
         ITEM_TABLE      (FLAG_ITEM_TABLE);
 
         private final long _mFlag;
@@ -147,32 +281,73 @@ UnexpectedExceptionHandler.TrackedModule {
                 new String[] { "android_metadata",  "CREATE TABLE android_metadata (locale TEXT);" },
                 new String[] { TABLE_CATEGORY,      buildTableSQL(TABLE_CATEGORY, ColumnCategory.values())},
                 new String[] { TABLE_CHANNEL,       buildTableSQL(TABLE_CHANNEL,  ColumnChannel.values())},
+                new String[] { TABLE_CHANNEL_IMAGE, buildTableSQL(TABLE_CHANNEL_IMAGE, ColumnChannelImage.values())},
+                new String[] { TABLE_CHANNEL_STAT,  buildTableSQL(TABLE_CHANNEL_STAT, ColumnChannelStat.values())},
                 new String[] { TABLE_ITEM,          buildTableSQL(TABLE_ITEM,     ColumnItem.values())},
+                new String[] { TABLE_ITEM_FTS,      buildFTSTableSQL(TABLE_ITEM_FTS, sItemFTSColumns)},
         };
+        String[][] trigs = concatArrays(buildItemFTSTriggerSQLs(),
+                                        buildChannelStatTriggerSQLs(TABLE_ITEM),
+                                        buildChannelStatTriggerSQLs(TABLE_CHANNEL));
+
+        String[][] idxs = new String[sItemIndexes.length][];
+        for (int i = 0; i < idxs.length; i++)
+            idxs[i] = new String[] { sItemIndexes[i][0],
+                                     buildIndexSQL(sItemIndexes[i][0], TABLE_ITEM, sItemIndexes[i][1]) };
+
+        HashMap<String, String> tblmap = getSchemaSQLs(db, "table");
+        HashMap<String, String> idxmap = getSchemaSQLs(db, "index");
+        HashMap<String, String> trigmap = getSchemaSQLs(db, "trigger");
+
+        // Verify
+        for (String[] ts : tbls) {
+            if (!verifySchemaSQL(tblmap, ts[iTblName], ts[iTblSql]))
+                return Err.DB_UNKNOWN;
+        }
+
+        for (String[] is : idxs) {
+            if (!verifySchemaSQL(idxmap, is[iTblName], is[iTblSql]))
+                return Err.DB_UNKNOWN;
+        }
+
+        for (String[] ts : trigs) {
+            if (!verifySchemaSQL(trigmap, ts[iTblName], ts[iTblSql]))
+                return Err.DB_UNKNOWN;
+        }
+        return Err.NO_ERR;
+    }
 
+    /**
+     *
+     * @param db
+     * @param type
+     *   type of schema object - 'table', 'index' etc.
+     * @return
+     *   Key : name of object, Value : sql text
+     */
+    private static HashMap<String, String>
+    getSchemaSQLs(SQLiteDatabase db, String type) {
         Cursor c = db.query("sqlite_master",
                             new String[] {"name", "sql"},
-                            "type = 'table'",
+                            "type = " + DatabaseUtils.sqlEscapeString(type),
                             null, null, null, null);
 
         HashMap<String, String> map = new HashMap<String, String>();
         if (c.moveToFirst()) {
             do {
-                // Key : table name, Value : sql text
                 map.put(c.getString(0), c.getString(1));
             } while (c.moveToNext());
         }
         c.close();
+        return map;
+    }
 
-        // Verify
-        for (String[] ts : tbls) {
-            // Remove tailing ';' of sql statement.
-            String tssql = ts[iTblSql].substring(0, ts[iTblSql].length() - 1);
-            String sql = map.get(ts[iTblName]);
-            if (null == sql || !sql.equalsIgnoreCase(tssql))
-                return Err.DB_UNKNOWN;
-        }
-        return Err.NO_ERR;
+    private static boolean
+    verifySchemaSQL(HashMap<String, String> map, String name, String expected) {
+        // Remove tailing ';' of sql statement.
+        expected = expected.substring(0, expected.length() - 1);
+        String sql = map.get(name);
+        return null != sql && sql.equalsIgnoreCase(expected);
     }
 
     public static String
@@ -192,67 +367,313 @@ UnexpectedExceptionHandler.TrackedModule {
         return where;
     }
 
+    /**
+     * Can token be searched by full text search index?
+     * NOTE
+     * 'simple' tokenizer of FTS separates terms only by ASCII characters.
+     * So, CJK text - having no space between words (ex. Korean postposition attached to noun) -
+     *   becomes one long term, and a word in the middle of it cannot be matched.
+     * Token having non-ASCII character is searched as substring with LIKE instead.
+     * @param tok
+     * @return
+     */
+    private static boolean
+    isFTSToken(String tok) {
+        for (int i = 0; i < tok.length(); i++) {
+            if (tok.charAt(i) > 0x7f)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Build MATCH expression of full text search from search string.
+     * Tokens separated by white space are joined with "AND".
+     * Tokens having non-ASCII character are not included. (See {@link #buildFTSLikeWhere(String)})
+     * @param search
+     * @param prefix
+     *   true for prefix query. (each token matches with terms starting with it.)
+     * @return
+     *   null if there is no token to search.
+     */
     public static String
-    buildSQLWhere(String[] columns, String[] searchs, long fromPubtime, long toPubtime) {
-        String wh = "";
-        // check that pubtime is valid value or not.
-        if (fromPubtime >= 0 && toPubtime >= fromPubtime)
-            wh += "("
-                  + ColumnItem.PUBTIME.getName() + " >= " + fromPubtime + " AND "
-                  + ColumnItem.PUBTIME.getName() + " <= " + toPubtime
-                  + ")";
-
-        if (null != columns && null != searchs) {
-            eAssert(columns.length == searchs.length);
-            String whSearch = "";
-            int i = 0;
-            while (i < columns.length) {
-                String tmp = buildSQLWhere(columns[i], searchs[i]);
-                if (!tmp.isEmpty())
-                    whSearch += whSearch.isEmpty()? tmp: " OR " + tmp;
-                i++;
-            }
+    buildFTSMatch(String search, boolean prefix) {
+        if (null == search)
+            return null;
 
-            if (!whSearch.isEmpty())
-                wh += wh.isEmpty()? whSearch: " AND (" + whSearch + ")";
+        StringBuilder sbldr = new StringBuilder();
+        for (String tok : search.split("\\s+")) {
+            // Double quote is only special character inside phrase.
+            tok = tok.replace("\"", "");
+            if (tok.isEmpty() || !isFTSToken(tok))
+                continue;
+            if (sbldr.length() > 0)
+                sbldr.append(" ");
+            sbldr.append("\"").append(tok).append(prefix? "*\"": "\"");
         }
+        return (sbldr.length() > 0)? sbldr.toString(): null;
+    }
 
-        if (!wh.isEmpty())
-            wh = "(" + wh + ")";
-
+    /**
+     * Build where clause of full text search table for tokens that cannot be matched by index.
+     * Each token is searched as substring of indexed columns, and tokens are joined with "AND".
+     * (Indexed columns have text even if description is stored compressed. See ItemDescription.indexText)
+     * @param search
+     * @return
+     *   {@link SQLWhere#EMPTY} if there is no such token.
+     */
+    private static SQLWhere
+    buildFTSLikeWhere(String search) {
+        if (null == search)
+            return SQLWhere.EMPTY;
+
+        SQLWhere wh = SQLWhere.EMPTY;
+        for (String tok : search.split("\\s+")) {
+            if (tok.isEmpty() || isFTSToken(tok))
+                continue;
+            String clause = "";
+            String[] args = new String[sItemFTSColumns.length];
+            for (int i = 0; i < sItemFTSColumns.length;) {
+                clause += sItemFTSColumns[i].getName() + " LIKE ?";
+                args[i] = "%" + tok + "%";
+                if (++i < sItemFTSColumns.length)
+                    clause += " OR ";
+            }
+            wh = wh.and(new SQLWhere("(" + clause + ")", args));
+        }
         return wh;
     }
 
+    private static SQLWhere
+    buildSQLWherePubtime(long fromPubtime, long toPubtime) {
+        // check that pubtime is valid value or not.
+        if (fromPubtime >= 0 && toPubtime >= fromPubtime)
+            return new SQLWhere("("
+                                + ColumnItem.PUBTIME.getName() + " >= ? AND "
+                                + ColumnItem.PUBTIME.getName() + " <= ?"
+                                + ")",
+                                new String[] { String.valueOf(fromPubtime),
+                                               String.valueOf(toPubtime) });
+        return SQLWhere.EMPTY;
+    }
+
+    /**
+     * Item table joined with result of full text search.
+     * @param ftsWhere
+     *   where clause of full text search table. (ex. "item_fts MATCH ?")
+     * @param ranked
+     *   true to get rank column(FTS_RANK) of search result.
+     *   This is valid only when 'ftsWhere' has MATCH expression.
+     * @return
+     */
+    private static String
+    buildItemFTSJoinTable(String ftsWhere, boolean ranked) {
+        return TABLE_ITEM + " JOIN (SELECT docid"
+               + (ranked? ", " + FTS_RANK_EXPR + " AS " + FTS_RANK: "")
+               + " FROM " + TABLE_ITEM_FTS + " WHERE " + ftsWhere + ") AS fts"
+               + " ON " + TABLE_ITEM + "." + ColumnItem.ID.getName() + " = fts.docid";
+    }
 
     /**
      * This function will generate SQL string like below
      * cols[0] 'operator' vals[0] 'join' cols[1] 'operator' vals[1] 'join' ...
      * @param cols
      * @param vals
+     *   null to use bind argument placeholder('?') instead of value.
      * @param operator
      * @param join
      * @return
      */
     private static String
     buildSQLWhere(Column[] cols, Object[] vals, String operator, String join) {
-        String clause = "";
-        if (null != cols && null != vals) {
-            eAssert(cols.length == vals.length);
-            clause = "";
-            operator = " " + operator + " ";
-            join = " " + join + " ";
-            for (int i = 0; i < cols.length;) {
-                clause += cols[i].getName() + operator
-                            + DatabaseUtils.sqlEscapeString(vals[i].toString());
-                if (++i < cols.length)
-                    clause += join;
+        StringBuilder sbldr = new StringBuilder();
+        operator = " " + operator + " ";
+        join = " " + join + " ";
+        for (int i = 0; i < cols.length;) {
+            sbldr.append(cols[i].getName())
+                 .append(operator)
+                 .append(null == vals? "?": DatabaseUtils.sqlEscapeString(vals[i].toString()));
+            if (++i < cols.length)
+                sbldr.append(join);
+        }
+
+        if (sbldr.length() > 0)
+            return "(" + sbldr.toString() + ")";
+        return "";
+    }
+
+    /**
+     * Build where clause with bind arguments.
+     * Clause is cached per query shape(columns, operator and join).
+     * See {@link #buildSQLWhere(Column[], Object[], String, String)}
+     * @param cols
+     * @param vals
+     * @param operator
+     * @param join
+     * @return
+     */
+    private static SQLWhere
+    buildSQLWhereArgs(Column[] cols, Object[] vals, String operator, String join) {
+        if (null == cols || null == vals || 0 == cols.length)
+            return SQLWhere.EMPTY;
+
+        eAssert(cols.length == vals.length);
+        // "c = a OR c = b OR ..." is same with "c IN (a, b, ...)"
+        if (cols.length > 1
+            && "=".equals(operator)
+            && "OR".equalsIgnoreCase(join)) {
+            int i = 1;
+            while (i < cols.length && cols[i] == cols[0])
+                i++;
+            if (i == cols.length)
+                return buildSQLWhereIn(cols[0], vals);
+        }
+
+        if (cols.length > MAX_BIND_ARGS)
+            return new SQLWhere(buildSQLWhere(cols, vals, operator, join), null);
+
+        Object[] keyobjs = new Object[cols.length + 2];
+        keyobjs[0] = operator;
+        keyobjs[1] = join;
+        System.arraycopy(cols, 0, keyobjs, 2, cols.length);
+        List<Object> key = Arrays.asList(keyobjs);
+        String clause;
+        synchronized (sWhereTemplates) {
+            clause = sWhereTemplates.get(key);
+            if (null == clause) {
+                clause = buildSQLWhere(cols, null, operator, join);
+                if (sWhereTemplates.size() >= MAX_SHAPE_CACHE)
+                    sWhereTemplates.clear();
+                sWhereTemplates.put(key, clause);
             }
         }
 
-        if (!clause.isEmpty())
-            clause = "(" + clause + ")";
+        String[] args = new String[vals.length];
+        for (int i = 0; i < vals.length; i++)
+            args[i] = vals[i].toString();
+        return new SQLWhere(clause, args);
+    }
+
+    /**
+     * Build "col IN (?, ?, ...)" where clause with bind arguments.
+     * Used instead of long OR chain for values of one column. (ex. channels of category)
+     * Number of placeholders is rounded up to power of 2, and rest of them are filled with last value.
+     * So, lists of similar size share same SQL - same prepared statement.
+     * @param col
+     * @param vals
+     *   null means 'no condition'. Empty array means 'nothing matches'.
+     * @return
+     */
+    private static SQLWhere
+    buildSQLWhereIn(Column col, Object[] vals) {
+        if (null == vals)
+            return SQLWhere.EMPTY;
+        if (0 == vals.length)
+            return new SQLWhere("(0)", null);
+
+        if (vals.length > MAX_BIND_ARGS) {
+            StringBuilder sbldr = new StringBuilder("(" + col.getName() + " IN (");
+            for (int i = 0; i < vals.length;) {
+                sbldr.append((vals[i] instanceof Number)?
+                             vals[i].toString():
+                             DatabaseUtils.sqlEscapeString(vals[i].toString()));
+                if (++i < vals.length)
+                    sbldr.append(", ");
+            }
+            sbldr.append("))");
+            return new SQLWhere(sbldr.toString(), null);
+        }
+
+        int nr = 1;
+        while (nr < vals.length)
+            nr <<= 1;
+        nr = Math.min(nr, MAX_BIND_ARGS);
+
+        List<Object> key = Arrays.asList(new Object[] { "IN", col, nr });
+        String clause;
+        synchronized (sWhereTemplates) {
+            clause = sWhereTemplates.get(key);
+            if (null == clause) {
+                if (1 == nr)
+                    clause = "(" + col.getName() + " = ?)";
+                else {
+                    StringBuilder sbldr = new StringBuilder("(" + col.getName() + " IN (?");
+                    for (int i = 1; i < nr; i++)
+                        sbldr.append(", ?");
+                    sbldr.append("))");
+                    clause = sbldr.toString();
+                }
+                if (sWhereTemplates.size() >= MAX_SHAPE_CACHE)
+                    sWhereTemplates.clear();
+                sWhereTemplates.put(key, clause);
+            }
+        }
+
+        String[] args = new String[nr];
+        for (int i = 0; i < nr; i++)
+            args[i] = vals[Math.min(i, vals.length - 1)].toString();
+        return new SQLWhere(clause, args);
+    }
+
+    private static String[]
+    concatArgs(String[] args0, String[] args1) {
+        if (null == args0)
+            return args1;
+        if (null == args1)
+            return args0;
+        String[] args = new String[args0.length + args1.length];
+        System.arraycopy(args0, 0, args, 0, args0.length);
+        System.arraycopy(args1, 0, args, args0.length, args1.length);
+        return args;
+    }
+
+    private static String[][]
+    concatArrays(String[][]... arrs) {
+        int len = 0;
+        for (String[][] arr : arrs)
+            len += arr.length;
+        String[][] r = new String[len][];
+        int i = 0;
+        for (String[][] arr : arrs) {
+            System.arraycopy(arr, 0, r, i, arr.length);
+            i += arr.length;
+        }
+        return r;
+    }
+
+    /**
+     * This function will generate SQL string that has same meaning with
+     *   "(where & mask) = value"
+     * In case of item state, bitwise operation on column cannot use index.
+     * So, for item state, all possible state values matching with mask are listed
+     *   with 'IN' operator instead of bitwise operation.
+     * @param where
+     * @param mask
+     * @param value
+     * @return
+     */
+    private static String
+    buildSQLWhereMask(ColumnItem where, long mask, long value) {
+        if (ColumnItem.STATE != where)
+            return "(" + where.getName() + " & " + mask + " = " + value + ")";
+
+        StringBuilder sbldr = new StringBuilder();
+        // Enumerating all subsets of 'Feed.Item.MSTAT_ALL'
+        long all = Feed.Item.MSTAT_ALL;
+        long s = 0;
+        do {
+            if ((s & mask) == value) {
+                if (sbldr.length() > 0)
+                    sbldr.append(", ");
+                sbldr.append(s);
+            }
+            s = (s - all) & all;
+        } while (0 != s);
 
-        return clause;
+        // There is no state matching given mask and value.
+        if (0 == sbldr.length())
+            return "(0)";
+        return "(" + where.getName() + " IN (" + sbldr.toString() + "))";
     }
 
 
@@ -266,6 +687,56 @@ UnexpectedExceptionHandler.TrackedModule {
         return VERSION;
     }
 
+    /**
+     * 64-bit FNV-1a hash of strings.
+     * @param strs
+     * @return
+     */
+    private static long
+    hash64(String... strs) {
+        long h = 0xcbf29ce484222325L;
+        for (String s : strs) {
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                h = (h ^ (c & 0xff)) * 0x100000001b3L;
+                h = (h ^ (c >>> 8)) * 0x100000001b3L;
+            }
+            // separator between strings.
+            h = (h ^ 0xff) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Is 'pubDate' used as key to check duplicated item?
+     * NOTE
+     * This SHOULD MATCH rule of checking duplicated item at 'DBPolicy.getNewItems'
+     * @param pubDate
+     * @return
+     */
+    static boolean
+    isItemPubDateKey(String pubDate) {
+        return Utils.isValidValue(pubDate);
+    }
+
+    /**
+     * Fingerprint of item used to check duplicated item.
+     * 'title' and 'pubDate' are keys if 'pubDate' is available.
+     * Otherwise 'link' and 'enclosureUrl' are keys.
+     * @param title
+     * @param pubDate
+     * @param link
+     * @param enclosureUrl
+     * @return
+     */
+    static long
+    getItemFingerprint(String title, String pubDate, String link, String enclosureUrl) {
+        if (isItemPubDateKey(pubDate))
+            return hash64("T", title, pubDate);
+        else
+            return hash64("L", link, enclosureUrl);
+    }
+
     /**************************************
      * Data
      **************************************/
@@ -296,6 +767,316 @@ UnexpectedExceptionHandler.TrackedModule {
         return sql;
     }
 
+    private static String
+    buildFTSTableSQL(String table, Column[] cols) {
+        String sql = "CREATE VIRTUAL TABLE " + table + " USING fts4 (";
+        for (int i = 0; i < cols.length;) {
+            sql += cols[i].getName();
+            if (++i < cols.length)
+                sql += ", ";
+        }
+        sql += ");";
+        if (DBG) P.v("SQL Cmd : " + sql + "\n");
+        return sql;
+    }
+
+    /**
+     * Triggers to keep full text search index of item table in sync.
+     * NOTE
+     * Index of new item is inserted at 'insertItems' - not by trigger.
+     * Indexed text of description is built from original description. (See ItemDescription.indexText)
+     * This can't be done by SQL. And description of item isn't changed after it is inserted.
+     * (Compressing description doesn't change text.) So, description is not handled by trigger.
+     * @return
+     *   { <trigger name>, <sql> } array.
+     */
+    private static String[][]
+    buildItemFTSTriggerSQLs() {
+        String cols = "";
+        String setCols = "";
+        for (ColumnItem col : sItemFTSColumns) {
+            if (ColumnItem.DESCRIPTION == col)
+                continue;
+            if (!cols.isEmpty()) {
+                cols += ", ";
+                setCols += ", ";
+            }
+            cols += col.getName();
+            setCols += col.getName() + " = new." + col.getName();
+        }
+        String id = ColumnItem.ID.getName();
+        return new String[][] {
+            new String[] { "item_fts_update",
+                           "CREATE TRIGGER item_fts_update AFTER UPDATE OF " + cols + " ON " + TABLE_ITEM + " BEGIN "
+                           + "UPDATE " + TABLE_ITEM_FTS + " SET " + setCols
+                           + " WHERE docid = old." + id + "; END;" },
+            new String[] { "item_fts_delete",
+                           "CREATE TRIGGER item_fts_delete AFTER DELETE ON " + TABLE_ITEM + " BEGIN "
+                           + "DELETE FROM " + TABLE_ITEM_FTS
+                           + " WHERE docid = old." + id + "; END;" },
+        };
+    }
+
+    /**
+     * Triggers to keep item counters of channel(channel_stat table) in sync.
+     * @param table
+     *   table that triggers are attached to. TABLE_ITEM or TABLE_CHANNEL.
+     * @return
+     *   { <trigger name>, <sql> } array.
+     */
+    private static String[][]
+    buildChannelStatTriggerSQLs(String table) {
+        final String id = ColumnChannelStat.ID.getName();
+        final String nritems = ColumnChannelStat.NRITEMS.getName();
+        final String nrunread = ColumnChannelStat.NRUNREAD.getName();
+        final String maxitemid = ColumnChannelStat.MAXITEMID.getName();
+        final String itemId = ColumnItem.ID.getName();
+        final String itemCid = ColumnItem.CHANNELID.getName();
+        // 1 if item is not opened yet. Otherwise 0.
+        final String newUnread = "((new." + ColumnItem.STATE.getName() + " & " + Feed.Item.MSTAT_OPEN
+                                 + ") = " + Feed.Item.FSTAT_OPEN_NEW + ")";
+        final String oldUnread = newUnread.replace("new.", "old.");
+
+        if (TABLE_CHANNEL.equals(table)) {
+            return new String[][] {
+                new String[] { "channel_stat_channel_insert",
+                               "CREATE TRIGGER channel_stat_channel_insert AFTER INSERT ON " + TABLE_CHANNEL + " BEGIN "
+                               + "INSERT INTO " + TABLE_CHANNEL_STAT + " (" + id + ")"
+                               + " VALUES (new." + ColumnChannel.ID.getName() + "); END;" },
+                new String[] { "channel_stat_channel_delete",
+                               "CREATE TRIGGER channel_stat_channel_delete AFTER DELETE ON " + TABLE_CHANNEL + " BEGIN "
+                               + "DELETE FROM " + TABLE_CHANNEL_STAT
+                               + " WHERE " + id + " = old." + ColumnChannel.ID.getName() + "; END;" },
+            };
+        }
+
+        eAssert(TABLE_ITEM.equals(table));
+        return new String[][] {
+            new String[] { "channel_stat_item_insert",
+                           "CREATE TRIGGER channel_stat_item_insert AFTER INSERT ON " + TABLE_ITEM + " BEGIN "
+                           + "UPDATE " + TABLE_CHANNEL_STAT + " SET "
+                           + nritems + " = " + nritems + " + 1, "
+                           + nrunread + " = " + nrunread + " + " + newUnread + ", "
+                           + maxitemid + " = MAX(" + maxitemid + ", new." + itemId + ")"
+                           + " WHERE " + id + " = new." + itemCid + "; END;" },
+            // Largest item id is searched again only when item having largest id is deleted.
+            new String[] { "channel_stat_item_delete",
+                           "CREATE TRIGGER channel_stat_item_delete AFTER DELETE ON " + TABLE_ITEM + " BEGIN "
+                           + "UPDATE " + TABLE_CHANNEL_STAT + " SET "
+                           + nritems + " = " + nritems + " - 1, "
+                           + nrunread + " = " + nrunread + " - " + oldUnread
+                           + " WHERE " + id + " = old." + itemCid + "; "
+                           + "UPDATE " + TABLE_CHANNEL_STAT + " SET "
+                           + maxitemid + " = IFNULL((SELECT MAX(" + itemId + ") FROM " + TABLE_ITEM
+                           + " WHERE " + itemCid + " = old." + itemCid + "), 0)"
+                           + " WHERE " + id + " = old." + itemCid + " AND " + maxitemid + " = old." + itemId + "; END;" },
+            new String[] { "channel_stat_item_state",
+                           "CREATE TRIGGER channel_stat_item_state AFTER UPDATE OF " + ColumnItem.STATE.getName()
+                           + " ON " + TABLE_ITEM + " BEGIN "
+                           + "UPDATE " + TABLE_CHANNEL_STAT + " SET "
+                           + nrunread + " = " + nrunread + " - " + oldUnread + " + " + newUnread
+                           + " WHERE " + id + " = new." + itemCid + "; END;" },
+        };
+    }
+
+    /**
+     * Create triggers of channel_stat attached to given table, if channel_stat table exists.
+     * (Triggers are dropped together when table is dropped.)
+     * @param db
+     * @param table
+     */
+    private static void
+    createChannelStatTriggers(SQLiteDatabase db, String table) {
+        if (!getSchemaSQLs(db, "table").containsKey(TABLE_CHANNEL_STAT))
+            return;
+        for (String[] trig : buildChannelStatTriggerSQLs(table))
+            db.execSQL(trig[1]);
+    }
+
+    /**
+     * Recompute all item counters of channels from item table.
+     * @param db
+     */
+    private static void
+    rebuildChannelStats(SQLiteDatabase db) {
+        final String itemCid = ColumnItem.CHANNELID.getName();
+        final String chanId = TABLE_CHANNEL + "." + ColumnChannel.ID.getName();
+        db.execSQL("DELETE FROM " + TABLE_CHANNEL_STAT + ";");
+        db.execSQL("INSERT INTO " + TABLE_CHANNEL_STAT + " ("
+                   + ColumnChannelStat.ID.getName() + ", "
+                   + ColumnChannelStat.NRITEMS.getName() + ", "
+                   + ColumnChannelStat.NRUNREAD.getName() + ", "
+                   + ColumnChannelStat.MAXITEMID.getName() + ")"
+                   + " SELECT " + chanId + ","
+                   + " (SELECT COUNT(*) FROM " + TABLE_ITEM + " WHERE " + itemCid + " = " + chanId + "),"
+                   + " (SELECT COUNT(*) FROM " + TABLE_ITEM + " WHERE " + itemCid + " = " + chanId
+                   + " AND (" + ColumnItem.STATE.getName() + " & " + Feed.Item.MSTAT_OPEN + ") = "
+                   + Feed.Item.FSTAT_OPEN_NEW + "),"
+                   + " IFNULL((SELECT MAX(" + ColumnItem.ID.getName() + ") FROM " + TABLE_ITEM
+                   + " WHERE " + itemCid + " = " + chanId + "), 0)"
+                   + " FROM " + TABLE_CHANNEL + ";");
+    }
+
+    private static void
+    createItemFTS(SQLiteDatabase db) {
+        db.execSQL(buildFTSTableSQL(TABLE_ITEM_FTS, sItemFTSColumns));
+        for (String[] trig : buildItemFTSTriggerSQLs())
+            db.execSQL(trig[1]);
+    }
+
+    /**
+     * Get SQL statement for creating index
+     * @param name
+     *   name of index
+     * @param table
+     *   name of table
+     * @param cols
+     *   indexed column list. ex. "channelid, pubtime DESC"
+     * @return
+     */
+    private static String
+    buildIndexSQL(String name, String table, String cols) {
+        String sql = "CREATE INDEX " + name + " ON " + table + " (" + cols + ");";
+        if (DBG) P.v("SQL Cmd : " + sql + "\n");
+        return sql;
+    }
+
+    private static void
+    createItemIndexes(SQLiteDatabase db) {
+        for (String[] idx : sItemIndexes)
+            db.execSQL(buildIndexSQL(idx[0], TABLE_ITEM, idx[1]));
+    }
+
+    /**
+     * @return
+     *   sub-query selecting OLDLAST_ITEMID of channel given as bind argument.
+     */
+    private static String
+    buildOldLastItemIdSQL() {
+        return "(SELECT " + ColumnChannel.OLDLAST_ITEMID.getName()
+               + " FROM " + TABLE_CHANNEL
+               + " WHERE " + ColumnChannel.ID.getName() + " = ?)";
+    }
+
+    /**
+     * Check that hot queries on item table use index.
+     * This is for debugging purpose.
+     * (Query plan depends on SQLite version of the platform.)
+     * @param db
+     * @return
+     *   false if one of query falls back to full table scan.
+     */
+    private static boolean
+    verifyItemQueryPlans(SQLiteDatabase db) {
+        final long cid = 1;
+        final String[] cols = getColumnNames(new ColumnItem[] { ColumnItem.ID,
+                                                                ColumnItem.TITLE,
+                                                                ColumnItem.PUBTIME });
+        // Same SQL with real query. Bind arguments are not used to get query plan.
+        final String chwh = buildSQLWhere(new ColumnItem[] { ColumnItem.CHANNELID },
+                                          null, "=", "AND");
+        final String chorwh = buildSQLWhereIn(ColumnItem.CHANNELID, new Object[] { cid, cid + 1 }).clause;
+        final String maskwh = buildSQLWhereMask(ColumnItem.STATE,
+                                                Feed.Item.MSTAT_FAV,
+                                                Feed.Item.FSTAT_FAV_ON);
+        String[] sqls = new String[] {
+                // queryItemAND / queryItemOR (channel)
+                SQLiteQueryBuilder.buildQueryString(false, TABLE_ITEM, cols, chwh,
+                                                    null, null, ITEM_QUERY_DEFAULT_ORDER, null),
+                SQLiteQueryBuilder.buildQueryString(false, TABLE_ITEM, cols, chorwh,
+                                                    null, null, ITEM_QUERY_DEFAULT_ORDER, null),
+                // queryItemOR (all items)
+                SQLiteQueryBuilder.buildQueryString(false, TABLE_ITEM, cols, null,
+                                                    null, null, ITEM_QUERY_DEFAULT_ORDER, null),
+                // queryItemMask
+                SQLiteQueryBuilder.buildQueryString(false, TABLE_ITEM, cols, maskwh,
+                                                    null, null, ITEM_QUERY_DEFAULT_ORDER, null),
+                // queryItemOR (search)
+                SQLiteQueryBuilder.buildQueryString(false,
+                                                    buildItemFTSJoinTable(TABLE_ITEM_FTS + " MATCH ?", true),
+                                                    cols, chwh,
+                                                    null, null, FTS_RANK + " DESC, " + ITEM_QUERY_DEFAULT_ORDER, null),
+                // queryItemIds
+                SQLiteQueryBuilder.buildQueryString(false, TABLE_ITEM,
+                                                    new String[] { ColumnItem.ID.getName() },
+                                                    chwh,
+                                                    null, null, ColumnItem.ID.getName() + " DESC", "1"),
+                // queryItemFingerprints
+                SQLiteQueryBuilder.buildQueryString(false, TABLE_ITEM, cols,
+                                                    ColumnItem.CHANNELID.getName() + " = " + cid + " AND "
+                                                    + ColumnItem.FINGERPRINT.getName() + " IN (1, 2)",
+                                                    null, null, null, null),
+                // queryItemCount
+                SQLiteQueryBuilder.buildQueryString(false, TABLE_ITEM,
+                                                    new String[] { "COUNT(" + ColumnItem.ID.getName() + ")" },
+                                                    chwh,
+                                                    null, null, null, null),
+                // queryItemMinMax
+                "SELECT MIN(" + ColumnItem.PUBTIME.getName() + ") FROM " + TABLE_ITEM
+                    + " WHERE " + chorwh,
+                "SELECT MIN(" + ColumnItem.PUBTIME.getName() + ") FROM " + TABLE_ITEM
+                    + " WHERE " + maskwh,
+                // queryItemPage
+                SQLiteQueryBuilder.buildQueryString(false, TABLE_ITEM, cols,
+                                                    chwh + " AND (" + ColumnItem.PUBTIME.getName() + " <= ?"
+                                                    + " AND (" + ColumnItem.PUBTIME.getName() + " < ?"
+                                                    + " OR " + ColumnItem.ID.getName() + " < ?))",
+                                                    null, null, ITEM_PAGE_ORDER, "50"),
+                // queryItemPubTimeAt
+                "SELECT " + ColumnItem.PUBTIME.getName() + " FROM " + TABLE_ITEM
+                    + " WHERE " + chwh
+                    + " ORDER BY " + ColumnItem.PUBTIME.getName() + " DESC LIMIT 1 OFFSET 10",
+                // queryOldItemIds
+                "SELECT " + ColumnItem.ID.getName() + " FROM " + TABLE_ITEM
+                    + " WHERE " + chwh
+                    + " AND " + ColumnItem.PUBTIME.getName() + " < ?"
+                    + " AND " + buildSQLWhereMask(ColumnItem.STATE,
+                                                  Feed.Item.MSTAT_FAV,
+                                                  Feed.Item.FSTAT_FAV_OFF)
+                    + " ORDER BY " + ColumnItem.PUBTIME.getName() + " LIMIT 50",
+                // queryOldItemIds (keepNew)
+                "SELECT " + ColumnItem.ID.getName() + " FROM " + TABLE_ITEM
+                    + " WHERE " + chwh
+                    + " AND " + ColumnItem.PUBTIME.getName() + " < ?"
+                    + " AND " + buildSQLWhereMask(ColumnItem.STATE,
+                                                  Feed.Item.MSTAT_FAV,
+                                                  Feed.Item.FSTAT_FAV_OFF)
+                    + " AND " + ColumnItem.ID.getName() + " < " + buildOldLastItemIdSQL()
+                    + " ORDER BY " + ColumnItem.PUBTIME.getName() + " LIMIT 50",
+        };
+
+        boolean ret = true;
+        for (String sql : sqls) {
+            // Bind all placeholders with argument for MATCH expression.
+            // (Other arguments are compared with integer column. So, it doesn't matter.)
+            int nrArgs = sql.length() - sql.replace("?", "").length();
+            String[] args = null;
+            if (nrArgs > 0) {
+                args = new String[nrArgs];
+                Arrays.fill(args, buildFTSMatch("a", true));
+            }
+            Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            int detailI = c.getColumnIndex("detail");
+            if (c.moveToFirst()) {
+                do {
+                    // ex. "SCAN TABLE item" : full table scan.
+                    //     "SCAN TABLE item USING INDEX ..." : full scan in index order.
+                    // ("TABLE" keyword is omitted at recent version of SQLite.)
+                    String detail = c.getString(detailI).replace("SCAN TABLE ", "SCAN ");
+                    if (detail.startsWith("SCAN " + TABLE_ITEM)
+                        && !detail.contains(" USING ")) {
+                        P.w("Item table is scanned without index!\n"
+                            + "    SQL : " + sql + "\n"
+                            + "    Plan : " + detail);
+                        ret = false;
+                    }
+                } while (c.moveToNext());
+            }
+            c.close();
+        }
+        return ret;
+    }
+
     /**
      * Convert column[] to string[] of column's name
      * @param cols
@@ -303,10 +1084,23 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     private static String[]
     getColumnNames(Column[] cols) {
-        String[] strs = new String[cols.length];
-        for (int i = 0; i < cols.length; i++)
-            strs[i] = cols[i].getName();
-        return strs;
+        // NOTE
+        // Returned array is shared. So, it SHOULD NOT be modified.
+        List<Column> key = Arrays.asList(cols);
+        synchronized (sProjections) {
+            String[] strs = sProjections.get(key);
+            if (null != strs)
+                return strs;
+
+            strs = new String[cols.length];
+            for (int i = 0; i < cols.length; i++)
+                strs[i] = cols[i].getName();
+            if (sProjections.size() >= MAX_SHAPE_CACHE)
+                sProjections.clear();
+            // 'cols' may be changed by caller. So, copied one is used as key.
+            sProjections.put(Arrays.asList(cols.clone()), strs);
+            return strs;
+        }
     }
 
     private boolean
@@ -364,6 +1158,285 @@ UnexpectedExceptionHandler.TrackedModule {
     upgradeTo3(SQLiteDatabase db) {
 
     }
+
+    private void
+    upgradeTo4(SQLiteDatabase db) {
+        // Secondary indexes for item table are introduced.
+        createItemIndexes(db);
+    }
+
+    private void
+    upgradeTo5(SQLiteDatabase db) {
+        // Full text search index for item table is introduced.
+        createItemFTS(db);
+        // Build index for existing items.
+        String cols = "";
+        for (int i = 0; i < sItemFTSColumns.length;) {
+            cols += sItemFTSColumns[i].getName();
+            if (++i < sItemFTSColumns.length)
+                cols += ", ";
+        }
+        db.execSQL("INSERT INTO " + TABLE_ITEM_FTS + " (docid, " + cols + ")"
+                   + " SELECT " + ColumnItem.ID.getName() + ", " + cols + " FROM " + TABLE_ITEM + ";");
+    }
+    /**
+     * Copy all rows of 'from' table to 'to' table.
+     * Values of columns that exist at both tables are copied.
+     * New columns are filled with empty value of it's type.
+     * @param db
+     * @param from
+     * @param fromCols
+     *   columns of 'from' table.
+     * @param to
+     * @param toCols
+     *   columns of 'to' table.
+     */
+    private static void
+    copyTableRows(SQLiteDatabase db,
+                  String from, String[] fromCols,
+                  String to, Column[] toCols) {
+        String cols = "";
+        String srcs = "";
+        for (Column col : toCols) {
+            String src = null;
+            for (String oc : fromCols) {
+                if (oc.equals(col.getName())) {
+                    src = oc;
+                    break;
+                }
+            }
+            if (null == src) {
+                if (col.getType().equals("integer"))
+                    src = "0";
+                else if (col.getType().equals("blob"))
+                    src = "X''";
+                else
+                    src = "''";
+            }
+            cols += (cols.isEmpty()? "": ", ") + col.getName();
+            srcs += (srcs.isEmpty()? "": ", ") + src;
+        }
+        db.execSQL("INSERT INTO " + to + " (" + cols + ")"
+                   + " SELECT " + srcs + " FROM " + from + ";");
+    }
+
+    /**
+     * Get column names of existing table.
+     * @param db
+     * @param table
+     * @return
+     */
+    private static String[]
+    getTableColumns(SQLiteDatabase db, String table) {
+        Cursor c = db.rawQuery("PRAGMA table_info(" + table + ");", null);
+        String[] cols = new String[c.getCount()];
+        int nameI = c.getColumnIndex("name");
+        if (c.moveToFirst()) {
+            int i = 0;
+            do {
+                cols[i++] = c.getString(nameI);
+            } while (c.moveToNext());
+        }
+        c.close();
+        return cols;
+    }
+
+    /**
+     * Rebuild channel table to apply new set of columns.
+     * Values of columns that exist at both old and new table are preserved.
+     * @param db
+     */
+    private void
+    rebuildChannelTable(SQLiteDatabase db) {
+        // NOTE
+        // Channel table is referenced by other tables (foreign key).
+        // Renaming it changes 'REFERENCES' clause of other tables at some SQLite versions,
+        //   and renamed table is stored with quoted name.
+        // So, rows are backed up to temporary table, and then channel table is re-created.
+        final String tmpTable = TABLE_CHANNEL + "_tmp";
+        String[] oldCols = getTableColumns(db, TABLE_CHANNEL);
+        Cursor c = db.rawQuery("SELECT seq FROM sqlite_sequence WHERE name = ?;",
+                               new String[] { TABLE_CHANNEL });
+        long seq = c.moveToFirst()? c.getLong(0): 0;
+        c.close();
+
+        db.execSQL("CREATE TEMP TABLE " + tmpTable + " AS SELECT * FROM " + TABLE_CHANNEL + ";");
+        db.execSQL("DROP TABLE " + TABLE_CHANNEL + ";");
+        db.execSQL(buildTableSQL(TABLE_CHANNEL, ColumnChannel.values()));
+        copyTableRows(db, tmpTable, oldCols, TABLE_CHANNEL, ColumnChannel.values());
+        db.execSQL("DROP TABLE " + tmpTable + ";");
+
+        // Channel ID SHOULD NOT be reused.
+        db.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + TABLE_CHANNEL + "';");
+        db.execSQL("INSERT INTO sqlite_sequence (name, seq)"
+                   + " SELECT '" + TABLE_CHANNEL + "', MAX(" + seq + ", IFNULL(MAX("
+                   + ColumnChannel.ID.getName() + "), 0)) FROM " + TABLE_CHANNEL + ";");
+        createChannelStatTriggers(db, TABLE_CHANNEL);
+    }
+
+    /**
+     * Rebuild item table to apply new set of columns.
+     * Values of columns that exist at both old and new table are preserved.
+     * Secondary indexes and triggers of item table are re-created.
+     * @param db
+     * @param oldCols
+     *   columns of current(old) item table.
+     */
+    private void
+    rebuildItemTable(SQLiteDatabase db, String[] oldCols) {
+        final String oldTable = TABLE_ITEM + "_old";
+        // Indexes and triggers are moved to renamed table.
+        // So, drop them first to re-create them at new table.
+        for (String[] idx : sItemIndexes)
+            db.execSQL("DROP INDEX IF EXISTS " + idx[0] + ";");
+        for (String[] trig : concatArrays(buildItemFTSTriggerSQLs(), buildChannelStatTriggerSQLs(TABLE_ITEM)))
+            db.execSQL("DROP TRIGGER IF EXISTS " + trig[0] + ";");
+
+        db.execSQL("ALTER TABLE " + TABLE_ITEM + " RENAME TO " + oldTable + ";");
+        db.execSQL(buildTableSQL(TABLE_ITEM, ColumnItem.values()));
+        copyTableRows(db, oldTable, oldCols, TABLE_ITEM, ColumnItem.values());
+
+        // Item ID SHOULD keep increasing even if last items were deleted.
+        // (See comments of 'ColumnChannel.OLDLAST_ITEMID')
+        db.execSQL("UPDATE sqlite_sequence SET seq ="
+                   + " (SELECT seq FROM sqlite_sequence WHERE name = '" + oldTable + "')"
+                   + " WHERE name = '" + TABLE_ITEM + "'"
+                   + " AND EXISTS (SELECT seq FROM sqlite_sequence WHERE name = '" + oldTable + "');");
+        db.execSQL("DROP TABLE " + oldTable + ";");
+
+        createItemIndexes(db);
+        for (String[] trig : buildItemFTSTriggerSQLs())
+            db.execSQL(trig[1]);
+        createChannelStatTriggers(db, TABLE_ITEM);
+    }
+
+    private void
+    upgradeTo6(SQLiteDatabase db) {
+        // Fingerprint column is added to item table.
+        rebuildItemTable(db, new String[] {
+                ColumnItem.TITLE.getName(),
+                ColumnItem.DESCRIPTION.getName(),
+                ColumnItem.LINK.getName(),
+                ColumnItem.ENCLOSURE_URL.getName(),
+                ColumnItem.ENCLOSURE_LENGTH.getName(),
+                ColumnItem.ENCLOSURE_TYPE.getName(),
+                ColumnItem.PUBDATE.getName(),
+                ColumnItem.STATE.getName(),
+                ColumnItem.PUBTIME.getName(),
+                ColumnItem.CHANNELID.getName(),
+                ColumnItem.ID.getName() });
+        // Fingerprint of existing items are filled by chunk to avoid too large cursor.
+        final int chunk = 1000;
+        SQLiteStatement stmt = db.compileStatement(
+                "UPDATE " + TABLE_ITEM + " SET " + ColumnItem.FINGERPRINT.getName() + " = ?"
+                + " WHERE " + ColumnItem.ID.getName() + " = ?;");
+        long lastId = -1;
+        int nr;
+        do {
+            Cursor c = db.query(TABLE_ITEM,
+                                getColumnNames(new ColumnItem[] { ColumnItem.ID,
+                                                                  ColumnItem.TITLE,
+                                                                  ColumnItem.PUBDATE,
+                                                                  ColumnItem.LINK,
+                                                                  ColumnItem.ENCLOSURE_URL }),
+                                ColumnItem.ID.getName() + " > " + lastId,
+                                null, null, null,
+                                ColumnItem.ID.getName() + " ASC",
+                                "" + chunk);
+            nr = c.getCount();
+            if (c.moveToFirst()) {
+                do {
+                    lastId = c.getLong(0);
+                    stmt.bindLong(1, getItemFingerprint(c.getString(1), c.getString(2),
+                                                        c.getString(3), c.getString(4)));
+                    stmt.bindLong(2, lastId);
+                    stmt.execute();
+                } while (c.moveToNext());
+            }
+            c.close();
+        } while (nr >= chunk);
+        stmt.close();
+    }
+
+    private void
+    upgradeTo7(SQLiteDatabase db) {
+        // Image blob of channel is moved to separated table.
+        db.execSQL(buildTableSQL(TABLE_CHANNEL_IMAGE, ColumnChannelImage.values()));
+        db.execSQL("INSERT INTO " + TABLE_CHANNEL_IMAGE + " ("
+                   + ColumnChannelImage.ID.getName() + ", " + ColumnChannelImage.IMAGEBLOB.getName() + ")"
+                   + " SELECT " + ColumnChannel.ID.getName() + ", imageblob FROM " + TABLE_CHANNEL
+                   + " WHERE length(imageblob) > 0;");
+        rebuildChannelTable(db);
+    }
+
+    private void
+    upgradeTo8(SQLiteDatabase db) {
+        // Item counters of channel are introduced.
+        db.execSQL(buildTableSQL(TABLE_CHANNEL_STAT, ColumnChannelStat.values()));
+        createChannelStatTriggers(db, TABLE_CHANNEL);
+        createChannelStatTriggers(db, TABLE_ITEM);
+        rebuildChannelStats(db);
+    }
+
+    private void
+    upgradeTo9(SQLiteDatabase db) {
+        // Compressed description column is introduced.
+        // Existing descriptions are compressed later at background. (See compressItemDescriptions)
+        // Full text search index of new item is inserted without trigger.
+        db.execSQL("DROP TRIGGER IF EXISTS item_fts_insert;");
+        rebuildItemTable(db, getTableColumns(db, TABLE_ITEM));
+    }
+
+    private void
+    upgradeTo10(SQLiteDatabase db) {
+        // Validators for conditional GET are added to channel table.
+        rebuildChannelTable(db);
+    }
+
+    private void
+    upgradeTo11(SQLiteDatabase db) {
+        // Only leading text of description is indexed by full text search. (See ItemDescription.indexText)
+        // Description is not updated by trigger anymore.
+        for (String[] trig : buildItemFTSTriggerSQLs()) {
+            db.execSQL("DROP TRIGGER IF EXISTS " + trig[0] + ";");
+            db.execSQL(trig[1]);
+        }
+        db.execSQL("DELETE FROM " + TABLE_ITEM_FTS + ";");
+        // Index is rebuilt by chunk to avoid too large cursor.
+        final int chunk = 500;
+        SQLiteStatement stmt = db.compileStatement(
+                "INSERT INTO " + TABLE_ITEM_FTS + " (docid, "
+                + ColumnItem.TITLE.getName() + ", " + ColumnItem.DESCRIPTION.getName() + ")"
+                + " VALUES (?, ?, ?);");
+        long lastId = -1;
+        int nr;
+        do {
+            Cursor c = db.query(TABLE_ITEM,
+                                getColumnNames(new ColumnItem[] { ColumnItem.ID,
+                                                                  ColumnItem.TITLE,
+                                                                  ColumnItem.DESCRIPTION,
+                                                                  ColumnItem.DESCRIPTION_Z }),
+                                ColumnItem.ID.getName() + " > " + lastId,
+                                null, null, null,
+                                ColumnItem.ID.getName() + " ASC",
+                                "" + chunk);
+            nr = c.getCount();
+            if (c.moveToFirst()) {
+                do {
+                    lastId = c.getLong(0);
+                    stmt.bindLong(1, lastId);
+                    stmt.bindString(2, c.getString(1));
+                    stmt.bindString(3, ItemDescription.indexText(ItemDescription.get(c)));
+                    stmt.executeInsert();
+                } while (c.moveToNext());
+            }
+            c.close();
+        } while (nr >= chunk);
+        stmt.close();
+        // Merge index segments built above.
+        db.execSQL("INSERT INTO " + TABLE_ITEM_FTS + " (" + TABLE_ITEM_FTS + ") VALUES ('optimize');");
+    }
+
     /**************************************
      * Overriding.
      **************************************/
@@ -373,7 +1446,13 @@ UnexpectedExceptionHandler.TrackedModule {
     onCreate(SQLiteDatabase db) {
         db.execSQL(buildTableSQL(TABLE_CATEGORY, ColumnCategory.values()));
         db.execSQL(buildTableSQL(TABLE_CHANNEL,  ColumnChannel.values()));
+        db.execSQL(buildTableSQL(TABLE_CHANNEL_IMAGE, ColumnChannelImage.values()));
+        db.execSQL(buildTableSQL(TABLE_CHANNEL_STAT, ColumnChannelStat.values()));
         db.execSQL(buildTableSQL(TABLE_ITEM,     ColumnItem.values()));
+        createItemIndexes(db);
+        createItemFTS(db);
+        createChannelStatTriggers(db, TABLE_CHANNEL);
+        createChannelStatTriggers(db, TABLE_ITEM);
         // default category is empty-named-category
         db.execSQL("INSERT INTO " + TABLE_CATEGORY + " ("
                     + ColumnCategory.NAME.getName() + ", " + ColumnCategory.ID.getName() + ") "
@@ -389,6 +1468,33 @@ UnexpectedExceptionHandler.TrackedModule {
             case 1:
                 upgradeTo2(db);
                 break;
+            case 2:
+                upgradeTo3(db);
+                break;
+            case 3:
+                upgradeTo4(db);
+                break;
+            case 4:
+                upgradeTo5(db);
+                break;
+            case 5:
+                upgradeTo6(db);
+                break;
+            case 6:
+                upgradeTo7(db);
+                break;
+            case 7:
+                upgradeTo8(db);
+                break;
+            case 8:
+                upgradeTo9(db);
+                break;
+            case 9:
+                upgradeTo10(db);
+                break;
+            case 10:
+                upgradeTo11(db);
+                break;
             }
             dbv++;
         }
@@ -397,15 +1503,16 @@ UnexpectedExceptionHandler.TrackedModule {
     @Override
     public void
     close() {
+        closeReadDbs();
+        clearUpdateStatements();
         super.close();
-        // Something to do???
     }
 
     @Override
     public void
     onOpen(SQLiteDatabase db) {
         super.onOpen(db);
-        // Something to do???
+        if (DBG) eAssert(verifyItemQueryPlans(db));
     }
 
     /**************************************
@@ -426,13 +1533,241 @@ UnexpectedExceptionHandler.TrackedModule {
     public void
     open() {
         mDb = getWritableDatabase();
+        // NOTE
+        // With write-ahead logging, readers don't wait for writer.
+        // So, UI queries are not blocked while channel is being updated (lots of items are inserted).
+        if (mDb.enableWriteAheadLogging())
+            openReadDbs();
+        else
+            if (DBG) P.w("Write-ahead logging is not available!");
+    }
+
+    private void
+    openReadDbs() {
+        SQLiteDatabase[] dbs = new SQLiteDatabase[READ_POOL_SIZE];
+        try {
+            for (int i = 0; i < dbs.length; i++) {
+                // NOTE
+                // Journal mode(WAL) is persistent at DB file. So, read-only connection uses WAL, too.
+                // (Read-only connection can't change journal mode.)
+                dbs[i] = SQLiteDatabase.openDatabase(mDb.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+            }
+        } catch (SQLException e) {
+            if (DBG) P.w("Fail to open read connection : " + e.getMessage());
+            for (SQLiteDatabase db : dbs) {
+                if (null != db)
+                    db.close();
+            }
+            return;
+        }
+        mReadDbs = dbs;
+    }
+
+    private void
+    closeReadDbs() {
+        SQLiteDatabase[] dbs = mReadDbs;
+        mReadDbs = null;
+        if (null == dbs)
+            return;
+        for (SQLiteDatabase db : dbs)
+            db.close();
+    }
+
+    /**
+     * Get connection to be used for query.
+     * NOTE
+     * Read connection doesn't see uncommitted changes of writer.
+     * So, writer connection is used if current thread is in the middle of write transaction.
+     * @return
+     */
+    private SQLiteDatabase
+    rdb() {
+        SQLiteDatabase[] dbs = mReadDbs;
+        if (null == dbs
+            || mDb.inTransaction())
+            return mDb;
+        return dbs[(mReadDbIdx.getAndIncrement() & Integer.MAX_VALUE) % dbs.length];
+    }
+
+    /**
+     * Copy all changes at write-ahead log to database file.
+     * @param full
+     *   true to wait until all changes are copied.
+     *   (Writers are blocked while copying.)
+     *   false to copy as many as possible without blocking writers and readers.
+     */
+    void
+    checkpoint(boolean full) {
+        if (null == mReadDbs)
+            return; // write-ahead logging is not used.
+        Cursor c = mDb.rawQuery("PRAGMA wal_checkpoint(" + (full? "FULL": "PASSIVE") + ");", null);
+        c.moveToFirst();
+        c.close();
     }
 
     @Override
     public String
     dump(UnexpectedExceptionHandler.DumpLevel lv) {
-        return "[ DB ]";
+        synchronized (mQuerySQLs) {
+            return "[ DB ]\n"
+                   + "  query shapes : " + mQuerySQLs.size() + "\n"
+                   + "  SQL built(prepared) : " + mNrSQLBuilt + "\n"
+                   + "  queries : " + mNrShapeQuery + "\n";
+        }
+    }
+
+    /**************************************
+     * Query shape cache
+     **************************************/
+    /**
+     * Query with SQL cached per query shape.
+     * Values SHOULD be passed as bind arguments. (Otherwise, shape is changed for every query.)
+     * @param table
+     * @param columns
+     * @param where
+     * @param order
+     *   null for default order.
+     * @param limit
+     *   ( <= 0) means "All"
+     * @return
+     */
+    private Cursor
+    queryShape(String table, Column[] columns, SQLWhere where, String order, long limit) {
+        String[] cols = getColumnNames(columns);
+        String lim = (limit > 0)? String.valueOf(limit): null;
+        // NOTE
+        // Projection array is shared per columns (See getColumnNames).
+        // So, comparing array by reference is enough here.
+        List<Object> key = Arrays.<Object>asList(table, cols, where.clause, order, lim);
+        String sql;
+        synchronized (mQuerySQLs) {
+            mNrShapeQuery++;
+            sql = mQuerySQLs.get(key);
+            if (null == sql) {
+                sql = SQLiteQueryBuilder.buildQueryString(false, table, cols,
+                                                          where.isEmpty()? null: where.clause,
+                                                          null, null, order, lim);
+                mNrSQLBuilt++;
+                if (mQuerySQLs.size() >= MAX_SHAPE_CACHE)
+                    mQuerySQLs.clear();
+                mQuerySQLs.put(key, sql);
+            }
+        }
+        return rdb().rawQuery(sql, where.args);
+    }
+    /**************************************
+     * Compiled update statements
+     **************************************/
+    /**
+     * Get compiled statement : "UPDATE 'table' SET 'field' = ? WHERE _id = ?"
+     * Statement is compiled only once and cached.
+     * @param table
+     * @param field
+     * @return
+     */
+    private SQLiteStatement
+    getUpdateStatement(String table, Column field) {
+        String key = updateStatementKey(table, field);
+        synchronized (mUpdateStmts) {
+            SQLiteStatement stmt = mUpdateStmts.get(key);
+            if (null == stmt) {
+                stmt = mDb.compileStatement("UPDATE " + table
+                                            + " SET " + field.getName() + " = ?"
+                                            + " WHERE " + BaseColumns._ID + " = ?");
+                mUpdateStmts.put(key, stmt);
+            }
+            return stmt;
+        }
+    }
+
+    private static String
+    updateStatementKey(String table, Column field) {
+        return table + "." + field.getName();
+    }
+
+    /**
+     * Statement SHOULD be checked with this after it is locked.
+     * (It may be closed by {@link #clearUpdateStatements()} after it is got.)
+     * @return
+     *   false if statement is already removed from cache (and closed or being closed).
+     */
+    private boolean
+    isUpdateStatementValid(String table, Column field, SQLiteStatement stmt) {
+        synchronized (mUpdateStmts) {
+            return stmt == mUpdateStmts.get(updateStatementKey(table, field));
+        }
+    }
+
+    private void
+    clearUpdateStatements() {
+        SQLiteStatement[] stmts;
+        synchronized (mUpdateStmts) {
+            stmts = mUpdateStmts.values().toArray(new SQLiteStatement[0]);
+            mUpdateStmts.clear();
+        }
+        // NOTE
+        // Statement may be being executed by other thread.
+        // So, it is closed after execution is done.
+        // (DO NOT lock statement while holding lock of mUpdateStmts. See isUpdateStatementValid)
+        for (SQLiteStatement stmt : stmts) {
+            synchronized (stmt) {
+                stmt.close();
+            }
+        }
+    }
+
+    // NOTE
+    // Compiled statement SHOULD NOT be shared while binding and executing.
+    // So, statement itself is used as lock object.
+    private int
+    updateColumn(String table, Column field, long id, long v) {
+        while (true) {
+            SQLiteStatement stmt = getUpdateStatement(table, field);
+            synchronized (stmt) {
+                if (!isUpdateStatementValid(table, field, stmt))
+                    continue; // closed by clearUpdateStatements. Get new one.
+                stmt.bindLong(1, v);
+                stmt.bindLong(2, id);
+                return stmt.executeUpdateDelete();
+            }
+        }
+    }
+
+    private int
+    updateColumn(String table, Column field, long id, String v) {
+        while (true) {
+            SQLiteStatement stmt = getUpdateStatement(table, field);
+            synchronized (stmt) {
+                if (!isUpdateStatementValid(table, field, stmt))
+                    continue; // closed by clearUpdateStatements. Get new one.
+                if (null == v)
+                    // Same with ContentValues having null value.
+                    stmt.bindNull(1);
+                else
+                    stmt.bindString(1, v);
+                stmt.bindLong(2, id);
+                return stmt.executeUpdateDelete();
+            }
+        }
+    }
+
+    private int
+    updateColumn(String table, Column field, long id, byte[] v) {
+        while (true) {
+            SQLiteStatement stmt = getUpdateStatement(table, field);
+            synchronized (stmt) {
+                if (!isUpdateStatementValid(table, field, stmt))
+                    continue; // closed by clearUpdateStatements. Get new one.
+                if (null == v)
+                    stmt.bindNull(1);
+                else
+                    stmt.bindBlob(1, v);
+                stmt.bindLong(2, id);
+                return stmt.executeUpdateDelete();
+            }
+        }
     }
+
     /**************************************
      * DB monitoring
      **************************************/
@@ -448,6 +1783,27 @@ UnexpectedExceptionHandler.TrackedModule {
     /**************************************
      * DB operation
      **************************************/
+    /**
+     * Notify that all tables are changed.
+     * NOTE
+     * Table level notification is enough for listeners.
+     * (Listeners of CHANNEL_DATA are listening CHANNEL_TABLE or ITEM_TABLE too.)
+     * So, CHANNEL_DATA is not notified for every channel.
+     */
+    private void
+    notifyAllTablesChanged() {
+        mLm.notifyIndirect(UpdateType.CATEGORY_TABLE);
+        mLm.notifyIndirect(UpdateType.CHANNEL_TABLE);
+        mLm.notifyIndirect(UpdateType.ITEM_TABLE);
+    }
+
+    private void
+    closeDatabase() {
+        closeReadDbs();
+        clearUpdateStatements();
+        mDb.close();
+    }
+
     /**
      * In case that DB file is changed, database should be reloaded.
      *   by using this function.
@@ -455,25 +1811,105 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     void
     reloadDatabase() {
-        mDb.close();
+        closeDatabase();
         open();
-
+        // DB file may be changed outside. Counters may not match with items.
+        repairChannelStats();
         // All DB information is changed now!.
-        mLm.notifyIndirect(UpdateType.CATEGORY_TABLE);
-        mLm.notifyIndirect(UpdateType.CHANNEL_TABLE);
-        mLm.notifyIndirect(UpdateType.ITEM_TABLE);
+        notifyAllTablesChanged();
+    }
 
-        // Mark as all channel is changed
-        Cursor c = mDb.query(TABLE_CHANNEL,
-                             getColumnNames(new ColumnChannel[] { ColumnChannel.ID }),
-                             null, null, null, null, null);
-        if (c.moveToFirst()) {
-            do {
-                mLm.notifyIndirect(UpdateType.CHANNEL_DATA, c.getLong(0));
-            } while (c.moveToNext());
+    /**
+     * Copy consistent snapshot of database to file.
+     * DB can be read and written as usual while copying.
+     * @param outf
+     * @param progress
+     * @return
+     */
+    boolean
+    exportDatabase(File outf, DBSnapshot.OnProgress progress) {
+        SQLiteDatabase src;
+        try {
+            // Snapshot is only read. (See openReadDbs for journal mode.)
+            src = SQLiteDatabase.openDatabase(mDb.getPath(), null, SQLiteDatabase.OPEN_READONLY);
+        } catch (SQLException e) {
+            if (DBG) P.w("Fail to open snapshot connection : " + e.getMessage());
+            return false;
+        }
+
+        try {
+            return DBSnapshot.copy(src, outf, progress);
+        } finally {
+            src.close();
+        }
+    }
+
+    /**
+     * Replace database file with given one.
+     * Candidate SHOULD be verified and SHOULD be at the same file system with DB file.
+     * (File is moved - not copied. So, DB is closed only for short time.)
+     * Current DB is kept if replacing fails.
+     * @param candidate
+     * @return
+     */
+    boolean
+    replaceDatabase(File candidate) {
+        File dbf = new File(mDb.getPath());
+        File oldf = new File(dbf.getAbsolutePath() + "-old");
+        oldf.delete();
+
+        // Changes at write-ahead log SHOULD be in DB file before it is moved.
+        // (Current DB is restored if replacing fails.)
+        checkpoint(true);
+        closeDatabase();
+        // NOTE
+        // Write-ahead log and shared memory files belong to current DB file.
+        // If they are left, they are applied to new DB file at next open, and corrupt it.
+        // (They may remain if other connection - ex. snapshot - is still opened.)
+        new File(dbf.getAbsolutePath() + "-wal").delete();
+        new File(dbf.getAbsolutePath() + "-shm").delete();
+        boolean ret = false;
+        if (dbf.renameTo(oldf)) {
+            ret = candidate.renameTo(dbf);
+            if (!ret)
+                oldf.renameTo(dbf);
+        }
+        open();
+
+        if (ret) {
+            oldf.delete();
+            // Counters of given DB file are not trusted. (ex. file edited or broken outside.)
+            repairChannelStats();
+            notifyAllTablesChanged();
+        }
+        return ret;
+    }
+
+    /**
+     * Check that database file is not corrupted and has same schema with this version.
+     * @param dbf
+     * @return
+     */
+    public static Err
+    verifyDatabaseFile(File dbf) {
+        SQLiteDatabase db;
+        try {
+            db = SQLiteDatabase.openDatabase(dbf.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        } catch (SQLException e) {
+            return Err.DB_UNKNOWN;
         }
-        c.close();
 
+        try {
+            Err err = verifyDB(db);
+            if (Err.NO_ERR != err)
+                return err;
+            String r = DatabaseUtils.stringForQuery(db, "PRAGMA integrity_check(1)", null);
+            return "ok".equalsIgnoreCase(r)? Err.NO_ERR: Err.DB_CRASH;
+        } catch (SQLException e) {
+            return Err.DB_CRASH;
+        } finally {
+            db.close();
+        }
     }
 
     // ====================
@@ -571,15 +2007,10 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     Cursor
     queryCategory(ColumnCategory[] columns, ColumnCategory where, Object value) {
-        String whereStr;
-        if (null == where || null == value)
-            whereStr = null;
-        else
-            whereStr = where.getName() + " = " + DatabaseUtils.sqlEscapeString(value.toString());
-        return mDb.query(TABLE_CATEGORY,
-                         getColumnNames(columns),
-                         whereStr,
-                         null, null, null, null);
+        SQLWhere wh = SQLWhere.EMPTY;
+        if (null != where && null != value)
+            wh = buildSQLWhereArgs(new Column[] { where }, new Object[] { value }, "=", "AND");
+        return queryShape(TABLE_CATEGORY, columns, wh, null, 0);
     }
 
     // ====================
@@ -605,42 +2036,131 @@ UnexpectedExceptionHandler.TrackedModule {
     }
 
     /**
-     * This function doesn't do any sanity check for passing arguments.
-     * So, if there is invalid column name in ContentValues, this function issues exception.
-     * Please be careful when use this function!
+     * This function doesn't do any sanity check for passing arguments.
+     * So, if there is invalid column name in ContentValues, this function issues exception.
+     * Please be careful when use this function!
+     * @param cid
+     * @param values
+     * @return
+     */
+    long
+    updateChannel(long cid, ContentValues values) {
+        int nr = mDb.update(TABLE_CHANNEL,
+                            values,
+                            ColumnChannel.ID.getName() + " = " + cid,
+                            null);
+        if (nr > 0)
+            mLm.notifyIndirect(UpdateType.CHANNEL_DATA, cid);
+        return nr;
+    }
+
+    /**
+     * Update one column of channel with pre-compiled statement.
+     * @param cid
+     * @param field
+     * @param v
+     * @return
+     */
+    long
+    updateChannel(long cid, ColumnChannel field, long v) {
+        int nr = updateColumn(TABLE_CHANNEL, field, cid, v);
+        if (nr > 0)
+            mLm.notifyIndirect(UpdateType.CHANNEL_DATA, cid);
+        return nr;
+    }
+
+    /**
+     * See {@link DB#updateChannel(long, ColumnChannel, long)}
+     */
+    long
+    updateChannel(long cid, ColumnChannel field, String v) {
+        int nr = updateColumn(TABLE_CHANNEL, field, cid, v);
+        if (nr > 0)
+            mLm.notifyIndirect(UpdateType.CHANNEL_DATA, cid);
+        return nr;
+    }
+
+    /**
+     * See {@link DB#updateChannel(long, ColumnChannel, long)}
+     */
+    long
+    updateChannel(long cid, ColumnChannel field, byte[] v) {
+        int nr = updateColumn(TABLE_CHANNEL, field, cid, v);
+        if (nr > 0)
+            mLm.notifyIndirect(UpdateType.CHANNEL_DATA, cid);
+        return nr;
+    }
+
+    /**
+     * Query image of channel.
+     * @param cid
+     * @return
+     *   empty cursor if channel doesn't have image.
+     */
+    Cursor
+    queryChannelImage(long cid) {
+        return queryShape(TABLE_CHANNEL_IMAGE,
+                          new ColumnChannelImage[] { ColumnChannelImage.IMAGEBLOB },
+                          buildSQLWhereArgs(new ColumnChannelImage[] { ColumnChannelImage.ID },
+                                            new Object[] { cid },
+                                            "=", "AND"),
+                          null, 0);
+    }
+
+    /**
+     * Update image of channel.
      * @param cid
-     * @param values
+     * @param image
+     *   empty array to remove image.
      * @return
      */
     long
-    updateChannel(long cid, ContentValues values) {
-        int nr = mDb.update(TABLE_CHANNEL,
-                            values,
-                            ColumnChannel.ID.getName() + " = " + cid,
-                            null);
+    updateChannelImage(long cid, byte[] image) {
+        long nr;
+        if (image.length > 0) {
+            ContentValues cvs = new ContentValues();
+            cvs.put(ColumnChannelImage.ID.getName(), cid);
+            cvs.put(ColumnChannelImage.IMAGEBLOB.getName(), image);
+            nr = (mDb.replace(TABLE_CHANNEL_IMAGE, null, cvs) >= 0)? 1: 0;
+        } else
+            nr = mDb.delete(TABLE_CHANNEL_IMAGE,
+                            ColumnChannelImage.ID.getName() + " = ?",
+                            new String[] { String.valueOf(cid) });
         if (nr > 0)
             mLm.notifyIndirect(UpdateType.CHANNEL_DATA, cid);
         return nr;
     }
 
     /**
-     *
+     * Query item counters of channel.
+     * @param columns
      * @param cid
-     * @param field
-     * @param v
-     *   only String, Long and byte[] are supported.
+     *   '< 0' for all channels.
      * @return
      */
-    long
-    updateChannel(long cid, ColumnChannel field, Object v) {
-        ContentValues cvs = new ContentValues();
+    Cursor
+    queryChannelStat(ColumnChannelStat[] columns, long cid) {
+        SQLWhere wh = SQLWhere.EMPTY;
+        if (cid >= 0)
+            wh = buildSQLWhereArgs(new ColumnChannelStat[] { ColumnChannelStat.ID },
+                                   new Object[] { cid },
+                                   "=", "AND");
+        return queryShape(TABLE_CHANNEL_STAT, columns, wh, null, 0);
+    }
+
+    /**
+     * Recompute item counters of all channels from item table.
+     * Counters are kept by triggers. So, this is required only when counters are broken.
+     */
+    void
+    repairChannelStats() {
+        mDb.beginTransaction();
         try {
-            Method m = cvs.getClass().getMethod("put", String.class, v.getClass());
-            m.invoke(cvs, field.getName(), v);
-        } catch (Exception e) {
-            eAssert(false);
+            rebuildChannelStats(mDb);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
         }
-        return updateChannel(cid, cvs);
     }
 
     /**
@@ -735,14 +2255,9 @@ UnexpectedExceptionHandler.TrackedModule {
         String order = (null == orderColumn)?
                         CHANNEL_QUERY_DEFAULT_ORDER:
                         orderColumn.getName() + (bAsc? " ASC": " DESC");
-        String whereClause = buildSQLWhere(wheres, values, "=", "AND");
-
-        return mDb.query(TABLE_CHANNEL,
-                         getColumnNames(columns),
-                         whereClause.isEmpty()? null: whereClause,
-                         null, null, null,
-                         order,
-                         (limit > 0)? "" + limit: null);
+        return queryShape(TABLE_CHANNEL, columns,
+                          buildSQLWhereArgs(wheres, values, "=", "AND"),
+                          order, limit);
     }
 
     /**
@@ -752,7 +2267,7 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     Cursor
     queryChannelMax(ColumnChannel column) {
-        return mDb.rawQuery("SELECT MAX(" + column.getName() + ") FROM " + TABLE_CHANNEL +"", null);
+        return rdb().rawQuery("SELECT MAX(" + column.getName() + ") FROM " + TABLE_CHANNEL +"", null);
     }
 
     /**
@@ -791,13 +2306,12 @@ UnexpectedExceptionHandler.TrackedModule {
         // That is, cancel between deleting items of channel is ok.
         // This doens't break DB's constraints.
         // So, we don't need to block BD with 'transaction' concept.
-        String chWhereStr = buildSQLWhere(wheres, values, "=", "OR");
+        SQLWhere chWhere = buildSQLWhereArgs(wheres, values, "=", "OR");
 
         // getting channels to delete.
-        Cursor c = mDb.query(TABLE_CHANNEL,
-                             new String[] { ColumnChannel.ID.getName() },
-                             chWhereStr.isEmpty()? null: chWhereStr,
-                             null, null, null, null);
+        Cursor c = queryShape(TABLE_CHANNEL,
+                              new ColumnChannel[] { ColumnChannel.ID },
+                              chWhere, null, 0);
 
         if (!c.moveToFirst()) {
             c.close();
@@ -805,21 +2319,24 @@ UnexpectedExceptionHandler.TrackedModule {
         }
 
         Long[] cids = new Long[c.getCount()];
-        ColumnItem[] cols = new ColumnItem[cids.length];
         int i = 0;
         do {
-            cids[i] = c.getLong(0);
-            cols[i] = ColumnItem.CHANNELID;
-            i++;
+            cids[i++] = c.getLong(0);
         } while (c.moveToNext());
+        c.close();
 
-        String wh = buildSQLWhere(cols, cids, "=", "OR");
+        SQLWhere wh = buildSQLWhereIn(ColumnItem.CHANNELID, cids);
         // delete items first
         long nrItems = mDb.delete(TABLE_ITEM,
-                                  wh.isEmpty()? null: wh,
-                                  null);
+                                  wh.isEmpty()? null: wh.clause,
+                                  wh.args);
+        // delete images of channel.
+        SQLWhere imgwh = buildSQLWhereIn(ColumnChannelImage.ID, cids);
+        mDb.delete(TABLE_CHANNEL_IMAGE, imgwh.clause, imgwh.args);
         // then delete channel.
-        int nr = mDb.delete(TABLE_CHANNEL, chWhereStr, null);
+        int nr = mDb.delete(TABLE_CHANNEL,
+                            chWhere.isEmpty()? null: chWhere.clause,
+                            chWhere.args);
 
         // channel is deleted (NOT updated!)
         // So, notifyUpdated SHOULD NOT be called for deleted channel!
@@ -847,10 +2364,106 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     long
     insertItem(ContentValues values) {
-        long id = mDb.insert(TABLE_ITEM, null, values);
-        if (id > 0)
-            mLm.notifyIndirect(UpdateType.ITEM_TABLE);
-        return id;
+        long[] ids = new long[1];
+        if (!insertItems(new ContentValues[] { values }, 1, ids))
+            return -1;
+        return ids[0];
+    }
+
+    /**
+     * Insert items as one transaction.
+     * INSERT statement is compiled only once, and values of each item are bound to it.
+     * And only one notification is issued for all inserted items.
+     *
+     * BE CAREFUL FOR USING THIS.
+     * This will insert values without any sanity checking.
+     * This function is visible to outside only for PERFORMANCE.
+     * @param values
+     *   All values SHOULD have same set of columns.
+     * @param nr
+     *   number of values to insert. (values[0] ~ values[nr - 1])
+     * @param ids
+     *   [out] ids of inserted items.
+     * @return
+     *   false if fails. In this case, nothing is inserted.
+     */
+    boolean
+    insertItems(ContentValues[] values, int nr, long[] ids) {
+        eAssert(nr <= values.length && nr <= ids.length);
+        if (nr <= 0)
+            return true;
+
+        final String descCol = ColumnItem.DESCRIPTION.getName();
+        final String descZCol = ColumnItem.DESCRIPTION_Z.getName();
+        eAssert(values[0].containsKey(descCol) && !values[0].containsKey(descZCol));
+        String[] cols = values[0].keySet().toArray(new String[0]);
+        StringBuilder sbldr = new StringBuilder();
+        sbldr.append("INSERT INTO " + TABLE_ITEM + " (");
+        for (String col : cols)
+            sbldr.append(col).append(", ");
+        sbldr.append(descZCol).append(") VALUES (");
+        for (int i = 0; i < cols.length; i++)
+            sbldr.append("?, ");
+        sbldr.append("?);");
+
+        // Full text search index keeps its own text of description. (See ItemDescription.indexText)
+        String ftsSql = "INSERT INTO " + TABLE_ITEM_FTS + " (docid";
+        for (ColumnItem col : sItemFTSColumns)
+            ftsSql += ", " + col.getName();
+        ftsSql += ") VALUES (?";
+        for (int i = 0; i < sItemFTSColumns.length; i++)
+            ftsSql += ", ?";
+        ftsSql += ");";
+
+        boolean ret = false;
+        SQLiteStatement stmt = null;
+        SQLiteStatement ftsStmt = null;
+        mDb.beginTransaction();
+        try {
+            stmt = mDb.compileStatement(sbldr.toString());
+            ftsStmt = mDb.compileStatement(ftsSql);
+            for (int i = 0; i < nr; i++) {
+                eAssert(values[i].size() == cols.length);
+                String desc = values[i].getAsString(descCol);
+                byte[] descz = ItemDescription.compress(desc);
+                for (int ci = 0; ci < cols.length; ci++) {
+                    // bind index starts from 1.
+                    if (descCol.equals(cols[ci]) && null != descz)
+                        stmt.bindString(ci + 1, "");
+                    else
+                        DatabaseUtils.bindObjectToProgram(stmt, ci + 1, values[i].get(cols[ci]));
+                }
+                if (null != descz)
+                    stmt.bindBlob(cols.length + 1, descz);
+                else
+                    stmt.bindNull(cols.length + 1);
+                if (0 > (ids[i] = stmt.executeInsert()))
+                    return false;
+
+                ftsStmt.bindLong(1, ids[i]);
+                for (int fi = 0; fi < sItemFTSColumns.length; fi++) {
+                    String v = (ColumnItem.DESCRIPTION == sItemFTSColumns[fi])?
+                               ItemDescription.indexText(desc):
+                               values[i].getAsString(sItemFTSColumns[fi].getName());
+                    ftsStmt.bindString(fi + 2, null == v? "": v);
+                }
+                ftsStmt.executeInsert();
+            }
+            mDb.setTransactionSuccessful();
+            ret = true;
+        } catch (SQLException e) {
+            if (DBG) P.w("Fail to insert items : " + e.getMessage());
+        } finally {
+            if (null != stmt)
+                stmt.close();
+            if (null != ftsStmt)
+                ftsStmt.close();
+            mDb.endTransaction();
+        }
+
+        if (ret)
+            mLm.notifyIndirect(UpdateType.ITEM_TABLE, Boolean.TRUE);
+        return ret;
     }
 
     /**
@@ -869,25 +2482,142 @@ UnexpectedExceptionHandler.TrackedModule {
     }
 
     /**
-     *
+     * Update one column of item with pre-compiled statement.
      * @param id
      * @param field
      * @param v
-     *   only String, Long and byte[] type are allowed
      * @return
      */
     long
-    updateItem(long id, ColumnItem field, Object v) {
-        ContentValues cvs = new ContentValues();
-        if (v instanceof String)
-            cvs.put(field.getName(), (String)v);
-        else if (v instanceof Long)
-            cvs.put(field.getName(), (Long)v);
-        else if (v instanceof byte[])
-            cvs.put(field.getName(), (byte[])v);
-        else
-            eAssert(false);
-        return updateItem(id, cvs);
+    updateItem(long id, ColumnItem field, long v) {
+        return updateColumn(TABLE_ITEM, field, id, v);
+    }
+
+    /**
+     * See {@link DB#updateItem(long, ColumnItem, long)}
+     */
+    long
+    updateItem(long id, ColumnItem field, String v) {
+        return updateColumn(TABLE_ITEM, field, id, v);
+    }
+
+    /**
+     * See {@link DB#updateItem(long, ColumnItem, long)}
+     */
+    long
+    updateItem(long id, ColumnItem field, byte[] v) {
+        return updateColumn(TABLE_ITEM, field, id, v);
+    }
+
+    /**
+     * Set bits of item state with one masked UPDATE statement.
+     *   "state = (state & ~mask) | value"
+     * Items whose state already has given value are not touched at all.
+     * @param wh
+     * @param mask
+     * @param value
+     * @return
+     *   number of items changed.
+     */
+    private int
+    updateItemsStateWhere(SQLWhere wh, long mask, long value) {
+        eAssert(0 == (value & ~mask));
+        final String state = ColumnItem.STATE.getName();
+        wh = wh.and(new SQLWhere("NOT " + buildSQLWhereMask(ColumnItem.STATE, mask, value), null));
+        SQLiteStatement stmt = null;
+        int nr = 0;
+        mDb.beginTransaction();
+        try {
+            stmt = mDb.compileStatement("UPDATE " + TABLE_ITEM
+                                        + " SET " + state + " = ((" + state + " & " + ~mask + ") | " + value + ")"
+                                        + " WHERE " + wh.clause);
+            if (null != wh.args)
+                stmt.bindAllArgsAsStrings(wh.args);
+            nr = stmt.executeUpdateDelete();
+            mDb.setTransactionSuccessful();
+        } finally {
+            if (null != stmt)
+                stmt.close();
+            mDb.endTransaction();
+        }
+
+        // Only one notification for all changed items.
+        if (nr > 0)
+            mLm.notifyIndirect(UpdateType.ITEM_TABLE);
+        return nr;
+    }
+
+    /**
+     * See {@link DB#updateItemsStateWhere(SQLWhere, long, long)}
+     * @param q
+     *   items to change. Search text is not allowed here.
+     * @param mask
+     * @param value
+     * @return
+     */
+    int
+    updateItemsState(ItemPageQuery q, long mask, long value) {
+        return updateItemsStateWhere(buildItemPageWhere(q), mask, value);
+    }
+
+    /**
+     * See {@link DB#updateItemsStateWhere(SQLWhere, long, long)}
+     * @param ids
+     * @param mask
+     * @param value
+     * @return
+     */
+    int
+    updateItemsState(long[] ids, long mask, long value) {
+        if (0 == ids.length)
+            return 0;
+
+        StringBuilder sbldr = new StringBuilder(ColumnItem.ID.getName() + " IN (");
+        for (int i = 0; i < ids.length;) {
+            sbldr.append(ids[i]);
+            if (++i < ids.length)
+                sbldr.append(", ");
+        }
+        sbldr.append(")");
+        return updateItemsStateWhere(new SQLWhere(sbldr.toString(), null), mask, value);
+    }
+
+    /**
+     * Update states of items in one transaction.
+     * All or nothing of given states are written to DB.
+     * Like {@link DB#updateItem(long, ColumnItem, long)}, DB notification is NOT issued.
+     * @param ids
+     * @param states
+     *   state of each item. SHOULD have same length with 'ids'.
+     * @return
+     *   number of items changed.
+     */
+    int
+    updateItemStates(long[] ids, long[] states) {
+        eAssert(ids.length == states.length);
+        while (true) {
+            SQLiteStatement stmt = getUpdateStatement(TABLE_ITEM, ColumnItem.STATE);
+            int nr = 0;
+            // NOTE
+            // Statement lock SHOULD be taken before DB lock(transaction).
+            // See updateColumn - it holds statement lock and then waits DB lock.
+            synchronized (stmt) {
+                if (!isUpdateStatementValid(TABLE_ITEM, ColumnItem.STATE, stmt))
+                    continue; // closed by clearUpdateStatements. Get new one.
+                mDb.beginTransaction();
+                try {
+                    for (int i = 0; i < ids.length; i++) {
+                        stmt.bindLong(1, states[i]);
+                        stmt.bindLong(2, ids[i]);
+                        nr += stmt.executeUpdateDelete();
+                    }
+                    mDb.setTransactionSuccessful();
+                } finally {
+                    mDb.endTransaction();
+                }
+            }
+            return nr;
+        }
     }
 
     /**
@@ -922,13 +2652,57 @@ UnexpectedExceptionHandler.TrackedModule {
     Cursor
     queryItemAND(ColumnItem[] columns, ColumnItem[] wheres, Object[] values, long limit) {
         // recently inserted item is located at top of rows.
-        String wh = buildSQLWhere(wheres, values, "=", "AND");
-        return mDb.query(TABLE_ITEM,
-                         getColumnNames(columns),
-                         wh.isEmpty()? null: wh,
-                         null, null, null,
-                         ITEM_QUERY_DEFAULT_ORDER,
-                         (limit > 0)? "" + limit: null);
+        return queryShape(TABLE_ITEM, columns,
+                          buildSQLWhereArgs(wheres, values, "=", "AND"),
+                          ITEM_QUERY_DEFAULT_ORDER, limit);
+    }
+
+    /**
+     * Query items.
+     * @param columns
+     * @param where
+     *   where clause of item table. (empty one for all items.)
+     * @param search
+     *   search string. Tokens separated by white space are searched from TITLE and DESCRIPTION.
+     *   (See {@link #buildFTSMatch(String, boolean)} and {@link #buildFTSLikeWhere(String)})
+     *   null for not-searching.
+     * @param ranked
+     *   true for ordered by rank of search result, and then by pubtime.
+     *   This is ignored if there is no token searched by full text search index.
+     * @param fromPubtime
+     * @param toPubtime
+     * @param limit
+     *   ( <= 0) means "All"
+     * @param ordered
+     *   true for ordered by pubtime
+     * @return
+     */
+    private Cursor
+    queryItemSearch(ColumnItem[] columns,
+                    SQLWhere where, String search, boolean ranked,
+                    long fromPubtime, long toPubtime,
+                    long limit, boolean ordered) {
+        SQLWhere wh = where.and(buildSQLWherePubtime(fromPubtime, toPubtime));
+
+        String table = TABLE_ITEM;
+        String order = ordered? ITEM_QUERY_DEFAULT_ORDER: null;
+        // NOTE
+        // Search is done on full text search table.
+        // And then result is joined with item table to apply other conditions.
+        String match = buildFTSMatch(search, true);
+        SQLWhere ftswh = buildFTSLikeWhere(search);
+        if (null != match || !ftswh.isEmpty()) {
+            if (null != match)
+                ftswh = new SQLWhere(TABLE_ITEM_FTS + " MATCH ?", new String[] { match }).and(ftswh);
+            // Rank is available only for MATCH expression.
+            ranked = ranked && null != match;
+            table = buildItemFTSJoinTable(ftswh.clause, ranked);
+            // Arguments of full text search table are located before where clause.
+            wh = new SQLWhere(wh.clause, concatArgs(ftswh.args, wh.args));
+            if (ranked)
+                order = FTS_RANK + " DESC, " + ITEM_QUERY_DEFAULT_ORDER;
+        }
+        return queryShape(table, columns, wh, order, limit);
     }
 
     /**
@@ -940,8 +2714,9 @@ UnexpectedExceptionHandler.TrackedModule {
      *   mask value used to masking 'where' value.
      * @param value
      *   value should be same after masking operation.
-     * @param searchFields
-     * @param searchs
+     * @param search
+     *   See {@link #queryItemSearch(ColumnItem[], SQLWhere, String, boolean, long, long, long, boolean)}
+     * @param ranked
      * @param fromPubtime
      * @param toPubtime
      * @param ordered
@@ -951,23 +2726,14 @@ UnexpectedExceptionHandler.TrackedModule {
     Cursor
     queryItemMask(ColumnItem[] columns,
                   ColumnItem where, long mask, long value,
-                  ColumnItem[] searchFields, String[] searchs,
+                  String search, boolean ranked,
                   long fromPubtime, long toPubtime,
                   boolean ordered) {
-        // NOTE
-        // To improve DB query performance, query for search would better to
-        //   be located at later as possible.
-        // (query for search is most expensive operation)
-        String wh = where.getName() + " & " + mask + " = " + value;
-        String search = buildSQLWhere(getColumnNames(searchFields), searchs,
-                                      fromPubtime, toPubtime);
-        if (!search.isEmpty())
-            wh = "(" + wh + ") AND " + search;
-        return mDb.query(TABLE_ITEM,
-                         getColumnNames(columns),
-                         wh,
-                         null, null, null,
-                         ordered? ITEM_QUERY_DEFAULT_ORDER: null);
+        return queryItemSearch(columns,
+                               new SQLWhere(buildSQLWhereMask(where, mask, value), null),
+                               search, ranked,
+                               fromPubtime, toPubtime,
+                               0, ordered);
     }
 
     /**
@@ -980,8 +2746,9 @@ UnexpectedExceptionHandler.TrackedModule {
      *   if (null == values) than this is ignored.
      * @param values
      *   if (null == wheres) than this is ignored.
-     * @param searchFields
-     * @param searchs
+     * @param search
+     *   See {@link #queryItemSearch(ColumnItem[], SQLWhere, String, boolean, long, long, long, boolean)}
+     * @param ranked
      * @param fromPubtime
      * @param toPubtime
      * @param limit
@@ -993,27 +2760,15 @@ UnexpectedExceptionHandler.TrackedModule {
     Cursor
     queryItemOR(ColumnItem[] columns,
                 ColumnItem[] wheres, Object[] values,
-                ColumnItem[] searchFields, String[] searchs,
+                String search, boolean ranked,
                 long fromPubtime, long toPubtime,
                 long limit, boolean ordered) {
-        // NOTE
-        // To improve DB query performance, query for search would better to
-        //   be located at later as possible.
-        // (query for search is most expensive operation)
-        String wh = buildSQLWhere(wheres, values, "=", "OR");
-        String search = buildSQLWhere(getColumnNames(searchFields), searchs,
-                                      fromPubtime, toPubtime);
-        if (wh.isEmpty())
-            wh = search;
-        else if (!search.isEmpty())
-            wh += " AND " + search;
         // recently inserted item is located at top of rows.
-        return mDb.query(TABLE_ITEM,
-                         getColumnNames(columns),
-                         wh.isEmpty()? null: wh,
-                         null, null, null,
-                         ordered? ITEM_QUERY_DEFAULT_ORDER: null,
-                         (limit > 0)? "" + limit: null);
+        return queryItemSearch(columns,
+                               buildSQLWhereArgs(wheres, values, "=", "OR"),
+                               search, ranked,
+                               fromPubtime, toPubtime,
+                               limit, ordered);
     }
 
     /**
@@ -1026,10 +2781,96 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     Cursor
     queryItemCount(ColumnItem column, ColumnItem where, long value) {
-        return mDb.query(TABLE_ITEM,
-                         new String[] { "COUNT(" + column.getName() + ")" },
-                         where.getName() + " = " + value,
-                         null, null, null, null);
+        return rdb().query(TABLE_ITEM,
+                           new String[] { "COUNT(" + column.getName() + ")" },
+                           where.getName() + " = ?",
+                           new String[] { String.valueOf(value) },
+                           null, null, null);
+    }
+
+    private static SQLWhere
+    buildItemPageWhere(ItemPageQuery q) {
+        // Empty channel list means "no item".
+        SQLWhere wh = buildSQLWhereIn(ColumnItem.CHANNELID,
+                                      null == q.cids? null: Utils.convertArraylongToLong(q.cids));
+
+        if (null != q.maskWhere)
+            wh = wh.and(new SQLWhere(buildSQLWhereMask(q.maskWhere, q.mask, q.maskValue), null));
+
+        return wh.and(buildSQLWherePubtime(q.fromPubtime, q.toPubtime));
+    }
+
+    /**
+     * Query one page of items ordered by (pubtime DESC, _id DESC).
+     * @param columns
+     * @param q
+     * @param key
+     *   key of item adjacent to the page. Item of key itself is not included.
+     *   null for first page(older == true) or last page(older == false).
+     * @param older
+     *   true  : page of items older than key. Rows are ordered by (pubtime DESC, _id DESC).
+     *   false : page of items newer than key. Rows are ordered in REVERSED order.
+     *           (That is, item adjacent to key comes first.)
+     * @param limit
+     * @return
+     */
+    Cursor
+    queryItemPage(ColumnItem[] columns, ItemPageQuery q,
+                  ItemPageQuery.Key key, boolean older, long limit) {
+        SQLWhere wh = buildItemPageWhere(q);
+        if (null != key) {
+            // NOTE
+            // "(pubtime, _id) < (key.pubtime, key.id)" is written as below
+            //   to use range of (channelid, pubtime) index.
+            String op = older? "<": ">";
+            String pubtime = String.valueOf(key.pubtime);
+            wh = wh.and(new SQLWhere("(" + ColumnItem.PUBTIME.getName() + " " + op + "= ?"
+                                     + " AND (" + ColumnItem.PUBTIME.getName() + " " + op + " ?"
+                                     + " OR " + ColumnItem.ID.getName() + " " + op + " ?))",
+                                     new String[] { pubtime, pubtime, String.valueOf(key.id) }));
+        }
+        return queryShape(TABLE_ITEM, columns, wh,
+                          older? ITEM_PAGE_ORDER: ITEM_PAGE_ORDER_REVERSED,
+                          limit);
+    }
+
+    /**
+     * Query one page of items by position.
+     * This reads all rows before the page. So, use this only when key of page is unknown.
+     * @param columns
+     * @param q
+     * @param offset
+     * @param limit
+     * @return
+     */
+    Cursor
+    queryItemPage(ColumnItem[] columns, ItemPageQuery q, long offset, long limit) {
+        SQLWhere wh = buildItemPageWhere(q);
+        // NOTE
+        // Offset is different at every query.
+        // So, query shape cache is not used here.
+        return rdb().query(TABLE_ITEM,
+                           getColumnNames(columns),
+                           wh.isEmpty()? null: wh.clause,
+                           wh.args,
+                           null, null,
+                           ITEM_PAGE_ORDER,
+                           offset + "," + limit);
+    }
+
+    /**
+     * @param q
+     * @param limit
+     *   counting stops at this value. ( <= 0) means "no limit"
+     * @return
+     */
+    long
+    queryItemPageCount(ItemPageQuery q, long limit) {
+        SQLWhere wh = buildItemPageWhere(q);
+        String sql = "SELECT 1 FROM " + TABLE_ITEM
+                     + (wh.isEmpty()? "": " WHERE " + wh.clause)
+                     + (limit > 0? " LIMIT " + limit: "");
+        return DatabaseUtils.longForQuery(rdb(), "SELECT COUNT(*) FROM (" + sql + ")", wh.args);
     }
 
     /**
@@ -1054,10 +2895,10 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     long
     deleteItemOR(ColumnItem[] wheres, Object[] values) {
-        String wh = buildSQLWhere(wheres, values, "=", "OR");
+        SQLWhere wh = buildSQLWhereArgs(wheres, values, "=", "OR");
         int nr = mDb.delete(TABLE_ITEM,
-                            wh.isEmpty()? null: wh,
-                            null);
+                            wh.isEmpty()? null: wh.clause,
+                            wh.args);
         if (nr > 0)
             mLm.notifyIndirect(UpdateType.ITEM_TABLE);
         return nr;
@@ -1090,11 +2931,40 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     Cursor
     queryItemIds(long cid, long limit) {
-        return mDb.query(TABLE_ITEM, new String[] {ColumnItem.ID.getName()},
-                         ColumnItem.CHANNELID.getName() + " = " + cid,
-                         null, null, null,
-                         ColumnItem.ID.getName() + " DESC",
-                         (limit > 0)? "" + limit: null);
+        return queryShape(TABLE_ITEM,
+                          new ColumnItem[] { ColumnItem.ID },
+                          buildSQLWhereArgs(new ColumnItem[] { ColumnItem.CHANNELID },
+                                            new Object[] { cid },
+                                            "=", "AND"),
+                          ColumnItem.ID.getName() + " DESC",
+                          limit);
+    }
+
+    /**
+     * Get items of channel that have one of given fingerprints.
+     * NOTE
+     * Why this function is NOT general form?
+     * That is only for performance - to check duplicated items with index.
+     * @param columns
+     * @param cid
+     * @param fingerprints
+     * @return
+     */
+    Cursor
+    queryItemFingerprints(ColumnItem[] columns, long cid, long[] fingerprints) {
+        StringBuilder sbldr = new StringBuilder();
+        sbldr.append(ColumnItem.CHANNELID.getName() + " = " + cid + " AND "
+                     + ColumnItem.FINGERPRINT.getName() + " IN (");
+        for (int i = 0; i < fingerprints.length;) {
+            sbldr.append(fingerprints[i]);
+            if (++i < fingerprints.length)
+                sbldr.append(", ");
+        }
+        sbldr.append(")");
+        return rdb().query(TABLE_ITEM,
+                           getColumnNames(columns),
+                           sbldr.toString(),
+                           null, null, null, null);
     }
 
     /**
@@ -1107,21 +2977,12 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     Cursor
     queryItemMinMax(long[] cids, ColumnItem column, boolean bMax) {
-        String where = "";
-        int i = 0;
-        if (null != cids) {
-            while (i < cids.length) {
-                where += ColumnItem.CHANNELID.getName() + " = " + cids[i];
-                if (++i < cids.length)
-                    where += " OR ";
-            }
-        }
-        if (!where.isEmpty())
-            where = " WHERE " + where;
-
-        return mDb.rawQuery("SELECT " + (bMax? "MAX": "MIN") + "(" + column.getName()
-                            + ") FROM " + TABLE_ITEM
-                            + where, null);
+        SQLWhere wh = buildSQLWhereIn(ColumnItem.CHANNELID,
+                                      null == cids? null: Utils.convertArraylongToLong(cids));
+        return rdb().rawQuery("SELECT " + (bMax? "MAX": "MIN") + "(" + column.getName()
+                              + ") FROM " + TABLE_ITEM
+                              + (wh.isEmpty()? "": " WHERE " + wh.clause),
+                              wh.args);
     }
 
     /**
@@ -1135,61 +2996,110 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     Cursor
     queryItemMinMax(ColumnItem where, long mask, long value, ColumnItem column, boolean bMax) {
-        String wh = where.getName() + " & " + mask + " = " + value;
-        return mDb.rawQuery("SELECT " + (bMax? "MAX": "MIN") + "(" + column.getName()
-                            + ") FROM " + TABLE_ITEM
-                            + " WHERE " + wh, null);
+        String wh = buildSQLWhereMask(where, mask, value);
+        return rdb().rawQuery("SELECT " + (bMax? "MAX": "MIN") + "(" + column.getName()
+                              + ") FROM " + TABLE_ITEM
+                              + " WHERE " + wh, null);
     }
 
     // -----------------------------------------------------------------------
     // To support shrinking DB size
     // -----------------------------------------------------------------------
     /**
-     *
+     * Get publish time of N-th latest item of channel.
+     * @param cid
+     *   '< 0' means 'items of all channels'.
+     * @param n
+     *   '0' means latest one.
+     * @return
+     *   -1 if channel has less than or equal to 'n' items.
+     */
+    long
+    queryItemPubTimeAt(long cid, long n) {
+        String wh = "";
+        String[] args = null;
+        if (cid >= 0) {
+            wh = " WHERE " + ColumnItem.CHANNELID.getName() + " = ?";
+            args = new String[] { String.valueOf(cid) };
+        }
+        Cursor c = rdb().rawQuery("SELECT " + ColumnItem.PUBTIME.getName()
+                                  + " FROM " + TABLE_ITEM
+                                  + wh
+                                  + " ORDER BY " + ColumnItem.PUBTIME.getName() + " DESC"
+                                  + " LIMIT 1 OFFSET " + n,
+                                  args);
+        long r = -1;
+        if (c.moveToFirst())
+            r = c.getLong(0);
+        c.close();
+        return r;
+    }
+
+    /**
+     * Get ids of items that are older than given publish time and are not favorite.
+     * Oldest one comes first.
+     * NOTE
+     * Why this function is NOT general form?
+     * Items are deleted in small chunks to avoid holding write lock for long time.
+     * So, this is called repeatedly and SHOULD use index of (channelid, pubtime).
      * @param cid
-     *   channel id to delete old items.
-     *   '-1' means 'for all channel'.
-     * @param percent
-     *   percent to delete.
+     * @param pubtime
+     *   items whose publish time is less than this value, are selected.
+     * @param keepNew
+     *   true not to select item indicated by OLDLAST_ITEMID of channel and items newer than it.
+     *   (See comments of 'ColumnChannel.OLDLAST_ITEMID')
+     * @param limit
+     * @return
+     */
+    long[]
+    queryOldItemIds(long cid, long pubtime, boolean keepNew, long limit) {
+        String[] args = keepNew? new String[] { String.valueOf(cid),
+                                                String.valueOf(pubtime),
+                                                String.valueOf(cid) }
+                               : new String[] { String.valueOf(cid),
+                                                String.valueOf(pubtime) };
+        Cursor c = rdb().rawQuery("SELECT " + ColumnItem.ID.getName()
+                                  + " FROM " + TABLE_ITEM
+                                  + " WHERE " + ColumnItem.CHANNELID.getName() + " = ?"
+                                  + " AND " + ColumnItem.PUBTIME.getName() + " < ?"
+                                  + " AND " + buildSQLWhereMask(ColumnItem.STATE,
+                                                                Feed.Item.MSTAT_FAV,
+                                                                Feed.Item.FSTAT_FAV_OFF)
+                                  + (keepNew? " AND " + ColumnItem.ID.getName() + " < " + buildOldLastItemIdSQL()
+                                            : "")
+                                  + " ORDER BY " + ColumnItem.PUBTIME.getName()
+                                  + " LIMIT " + limit,
+                                  args);
+        long[] ids = new long[c.getCount()];
+        int i = 0;
+        if (c.moveToFirst()) {
+            do {
+                ids[i++] = c.getLong(0);
+            } while (c.moveToNext());
+        }
+        c.close();
+        return ids;
+    }
+
+    /**
+     * Delete items in one short transaction.
+     * @param ids
      * @return
      *   number of items deleted
      */
     int
-    deleteOldItems(long cid, int percent) {
-        eAssert(0 <= percent && percent <= 100);
-
-        if (0 == percent)
+    deleteItems(long[] ids) {
+        if (0 == ids.length)
             return 0;
 
-        String wh = "";
-        if (100 == percent)
-            // Special where clause value to delete all rows in the table.
-            // See comment of "SQLiteDatabase.delete".
-            wh = "1";
-        else {
-            Cursor c = null;
-
-            // Default is sorted by ID in decrementing order.
-            if (cid >= 0)
-                c = queryItem(new ColumnItem[] { ColumnItem.PUBTIME },
-                              ColumnItem.CHANNELID, cid, 0);
-            else
-                c = queryItem(new ColumnItem[] { ColumnItem.PUBTIME },
-                        null, null, 0);
-
-            // cursor position to delete from.
-            long curCount = c.getCount();
-            int pos = (int)(curCount - curCount * percent / 100);
-            if (!c.moveToPosition(pos))
-                eAssert(false);
-            long putTimeFrom = c.getLong(0);
-            c.close();
-
-            if (cid >= 0)
-                wh = ColumnItem.CHANNELID.getName() + " = " + cid + " AND ";
-            wh += ColumnItem.PUBTIME.getName() + " < " + putTimeFrom;
+        StringBuilder sbldr = new StringBuilder(ColumnItem.ID.getName() + " IN (");
+        for (int i = 0; i < ids.length;) {
+            sbldr.append(ids[i]);
+            if (++i < ids.length)
+                sbldr.append(", ");
         }
-        int nr = mDb.delete(TABLE_ITEM, wh, null);
+        sbldr.append(")");
+        int nr = mDb.delete(TABLE_ITEM, sbldr.toString(), null);
 
         // NOTE
         // Important fact that should be considered here is,
@@ -1203,4 +3113,159 @@ UnexpectedExceptionHandler.TrackedModule {
 
         return nr;
     }
+
+    /**
+     * Compress descriptions of items stored as plain text (ex. items inserted before DB version 9).
+     * Items are processed in id order in one short transaction.
+     * Rows are read and written in the same write transaction.
+     * So, description updated by others in the middle is never overwritten.
+     * Full text search index is not changed. (See buildItemFTSTriggerSQLs)
+     * @param afterId
+     *   only items whose id is larger than this are examined.
+     * @param limit
+     *   max number of items to examine.
+     * @return
+     *   id of last item examined. -1 if there is no more item to examine.
+     */
+    long
+    compressItemDescriptions(long afterId, int limit) {
+        final String id = ColumnItem.ID.getName();
+        final String desc = ColumnItem.DESCRIPTION.getName();
+        final String descz = ColumnItem.DESCRIPTION_Z.getName();
+        long lastId = -1;
+        Cursor c = null;
+        SQLiteStatement stmt = null;
+        mDb.beginTransaction();
+        try {
+            // NOTE
+            // length() of text is number of characters. It's not smaller than number of bytes in UTF-8.
+            c = mDb.rawQuery("SELECT " + id + ", " + desc + " FROM " + TABLE_ITEM
+                             + " WHERE " + id + " > ?"
+                             + " AND IFNULL(length(" + descz + "), 0) = 0"
+                             + " AND length(" + desc + ") * 3 >= " + ItemDescription.MIN_COMPRESS_BYTES
+                             + " ORDER BY " + id + " LIMIT " + limit,
+                             new String[] { String.valueOf(afterId) });
+            stmt = mDb.compileStatement("UPDATE " + TABLE_ITEM
+                                        + " SET " + desc + " = '', " + descz + " = ?"
+                                        + " WHERE " + id + " = ?"
+                                        + " AND IFNULL(length(" + descz + "), 0) = 0;");
+            if (c.moveToFirst()) {
+                do {
+                    lastId = c.getLong(0);
+                    byte[] z = ItemDescription.compress(c.getString(1));
+                    if (null == z)
+                        continue;
+                    stmt.bindBlob(1, z);
+                    stmt.bindLong(2, lastId);
+                    stmt.execute();
+                } while (c.moveToNext());
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            if (null != c)
+                c.close();
+            if (null != stmt)
+                stmt.close();
+            mDb.endTransaction();
+        }
+        // NOTE
+        // Description of item is not changed. So, no notification.
+        return lastId;
+    }
+
+    /**
+     * Get storage size of item descriptions. (Used to check effect of compression.)
+     * @return
+     *   [0] : bytes of descriptions stored as plain text.
+     *   [1] : bytes of compressed descriptions.
+     *   [2] : number of items whose description is compressed.
+     */
+    long[]
+    queryItemDescriptionBytes() {
+        final String desc = ColumnItem.DESCRIPTION.getName();
+        final String descz = ColumnItem.DESCRIPTION_Z.getName();
+        // NOTE
+        // length() of BLOB is number of bytes. Text is casted to BLOB to get bytes in UTF-8.
+        Cursor c = rdb().rawQuery("SELECT"
+                                  + " IFNULL(SUM(length(CAST(" + desc + " AS BLOB))), 0),"
+                                  + " IFNULL(SUM(length(" + descz + ")), 0),"
+                                  + " SUM(IFNULL(length(" + descz + "), 0) > 0)"
+                                  + " FROM " + TABLE_ITEM,
+                                  null);
+        long[] r = new long[3];
+        if (c.moveToFirst()) {
+            r[0] = c.getLong(0);
+            r[1] = c.getLong(1);
+            r[2] = c.getLong(2);
+        }
+        c.close();
+        return r;
+    }
+
+    /**
+     * Get size of unused pages in DB file.
+     * Deleting rows doesn't shrink DB file. Pages are moved to free list.
+     * @return
+     *   bytes
+     */
+    long
+    queryFreePageBytes() {
+        return queryFreePageCount() * queryPageSize();
+    }
+
+    long
+    queryFreePageCount() {
+        return DatabaseUtils.longForQuery(rdb(), "PRAGMA freelist_count", null);
+    }
+
+    long
+    queryPageCount() {
+        return DatabaseUtils.longForQuery(rdb(), "PRAGMA page_count", null);
+    }
+
+    long
+    queryPageSize() {
+        return DatabaseUtils.longForQuery(rdb(), "PRAGMA page_size", null);
+    }
+
+    /**
+     * @return
+     *   true if free pages can be reclaimed by {@link DB#incrementalVacuum(int)}.
+     */
+    boolean
+    isIncrementalVacuum() {
+        // 2 : INCREMENTAL
+        return 2 == DatabaseUtils.longForQuery(rdb(), "PRAGMA auto_vacuum", null);
+    }
+
+    /**
+     * Change auto vacuum mode of existing DB to INCREMENTAL.
+     * Mode of existing DB is changed only by full VACUUM.
+     * This rebuilds whole DB file. So, writers are blocked until it's done.
+     * (Readers are not blocked with write-ahead logging.)
+     * @return
+     */
+    boolean
+    convertToIncrementalVacuum() {
+        try {
+            mDb.execSQL("PRAGMA auto_vacuum = INCREMENTAL;");
+            mDb.execSQL("VACUUM;");
+        } catch (SQLException e) {
+            if (DBG) P.w("Fail to convert to incremental vacuum : " + e.getMessage());
+            return false;
+        }
+        return isIncrementalVacuum();
+    }
+
+    /**
+     * Move free pages to the end of DB file and truncate them.
+     * @param pages
+     *   max number of pages reclaimed.
+     */
+    void
+    incrementalVacuum(int pages) {
+        Cursor c = mDb.rawQuery("PRAGMA incremental_vacuum(" + pages + ");", null);
+        c.moveToFirst();
+        c.close();
+    }
 }
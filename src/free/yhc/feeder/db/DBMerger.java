@@ -0,0 +1,422 @@
+/******************************************************************************
+ * Copyright (C) 2012, 2013, 2014
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of FeedHive
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.feeder.db;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import free.yhc.feeder.model.ContentsManager;
+import free.yhc.feeder.model.Err;
+import free.yhc.feeder.model.Feed;
+import free.yhc.feeder.model.FeederException;
+import free.yhc.feeder.model.Utils;
+
+// Merge channels and items of other Feeder database into current database.
+//
+// Source database is read by its own read-only connection, and is streamed by chunk.
+// So, memory usage doesn't depend on size of source database.
+// And, each chunk of items is inserted as one transaction. (See DB.insertItems)
+// So, DB can be used while merging, and interrupted merge leaves only complete chunks.
+// Merging same database again is harmless because duplicated channels/items are skipped.
+//
+// Duplication is checked by same rules with updating channel.
+//   Channel : same url.
+//   Item    : same rules with DBPolicy.getNewItems.
+//
+// NOTE
+// Attaching source database to writer connection is not used.
+// Reading large source via writer connection makes other writers wait.
+final class DBMerger {
+    private static final boolean DBG = false;
+    private static final Utils.Logger P = new Utils.Logger(DBMerger.class);
+
+    // Number of source items handled at once - read, checked and inserted as one transaction.
+    private static final int ITEMS_PER_STEP = 200;
+
+    // Columns of source item.
+    private static final ColumnItem[] sItemCols = new ColumnItem[] {
+        ColumnItem.ID,
+        ColumnItem.TITLE,
+        ColumnItem.LINK,
+        ColumnItem.DESCRIPTION,
+        ColumnItem.DESCRIPTION_Z,
+        ColumnItem.PUBDATE,
+        ColumnItem.ENCLOSURE_URL,
+        ColumnItem.ENCLOSURE_LENGTH,
+        ColumnItem.ENCLOSURE_TYPE,
+        ColumnItem.STATE,
+        ColumnItem.PUBTIME,
+    };
+
+    private final DB                        mDb = DB.get();
+    private final DBPolicy                  mDbp = DBPolicy.get();
+    private final SQLiteDatabase            mSrc;
+    // Directory having content directories of source. Can be null.
+    private final File                      mSrcContentRoot;
+    private final DBSnapshot.OnProgress     mProgress;
+
+    // Source category id -> category id.
+    private final HashMap<Long, Long>       mCategoryMap = new HashMap<Long, Long>();
+
+    private long    mNrTotalItems = 0;
+    private long    mNrDoneItems = 0;
+    private int     mLastPercent = -1;
+
+    private DBMerger(SQLiteDatabase src, File srcContentRoot, DBSnapshot.OnProgress progress) {
+        mSrc = src;
+        mSrcContentRoot = srcContentRoot;
+        mProgress = progress;
+    }
+
+    private static String
+    buildSelect(DB.Column[] cols, String table) {
+        StringBuilder sbldr = new StringBuilder("SELECT ");
+        for (int i = 0; i < cols.length;) {
+            sbldr.append(cols[i].getName());
+            if (++i < cols.length)
+                sbldr.append(", ");
+        }
+        return sbldr.append(" FROM ").append(table).toString();
+    }
+
+    private static Object
+    getCursorValue(Cursor c, int ci) {
+        switch (c.getType(ci)) {
+        case Cursor.FIELD_TYPE_NULL:    return null;
+        case Cursor.FIELD_TYPE_INTEGER: return c.getLong(ci);
+        case Cursor.FIELD_TYPE_FLOAT:   return c.getDouble(ci);
+        case Cursor.FIELD_TYPE_BLOB:    return c.getBlob(ci);
+        default:                        return c.getString(ci);
+        }
+    }
+
+    private void
+    publishProgress() {
+        if (null == mProgress || mNrTotalItems <= 0)
+            return;
+        int percent = (int)(mNrDoneItems * 100 / mNrTotalItems);
+        if (percent != mLastPercent) {
+            mLastPercent = percent;
+            mProgress.onProgress(percent);
+        }
+    }
+
+    /**
+     * Category is matched by name.
+     * If there is no category having same name, new one is created.
+     * @param srcCatid
+     * @return
+     */
+    private long
+    mapCategory(long srcCatid) {
+        Long catid = mCategoryMap.get(srcCatid);
+        if (null != catid)
+            return catid;
+
+        String name = null;
+        Cursor c = mSrc.rawQuery("SELECT " + ColumnCategory.NAME.getName()
+                                 + " FROM " + DB.TABLE_CATEGORY
+                                 + " WHERE " + ColumnCategory.ID.getName() + " = " + srcCatid,
+                                 null);
+        if (c.moveToFirst())
+            name = c.getString(0);
+        c.close();
+
+        catid = DB.getDefaultCategoryId();
+        if (srcCatid != DB.getDefaultCategoryId()
+            && null != name) {
+            c = mDb.queryCategory(ColumnCategory.ID, ColumnCategory.NAME, name);
+            if (c.moveToFirst())
+                catid = c.getLong(0);
+            else {
+                Feed.Category cat = new Feed.Category();
+                cat.name = name;
+                if (0 == mDbp.insertCategory(cat))
+                    catid = cat.id;
+            }
+            c.close();
+        }
+        mCategoryMap.put(srcCatid, catid);
+        return catid;
+    }
+
+    /**
+     * Find channel having same url or create new channel with values of source channel.
+     * @param c
+     *   cursor of source channel. All columns of ColumnChannel.values() in order.
+     * @return
+     *   channel id. (< 0) if fails.
+     */
+    private long
+    mergeChannel(Cursor c) {
+        final ColumnChannel[] cols = ColumnChannel.values();
+        String url = c.getString(ColumnChannel.URL.ordinal());
+        long cid = mDbp.findChannel(null, url);
+        if (cid >= 0)
+            return cid;
+
+        ContentValues cvs = new ContentValues();
+        for (ColumnChannel col : cols) {
+            switch (col) {
+            case ID:
+            case POSITION:
+            case OLDLAST_ITEMID:
+                break; // these are decided at this DB.
+            case ETAG:
+            case LASTMODIFIED:
+                // Feed SHOULD be fully fetched at first update after merging.
+                cvs.put(col.getName(), "");
+                break;
+            case BODYHASH:
+            case NRNOTMODIFIED:
+                cvs.put(col.getName(), 0);
+                break;
+            case CATEGORYID:
+                cvs.put(col.getName(), mapCategory(c.getLong(col.ordinal())));
+                break;
+            default:
+                Object v = getCursorValue(c, col.ordinal());
+                if (v instanceof Long)
+                    cvs.put(col.getName(), (Long)v);
+                else
+                    cvs.put(col.getName(), (String)v);
+            }
+        }
+        // add to last position in terms of UI.
+        cvs.put(ColumnChannel.POSITION.getName(), mDbp.getChannelInfoMaxLong(ColumnChannel.POSITION) + 1);
+        cvs.put(ColumnChannel.OLDLAST_ITEMID.getName(), 0);
+        cid = mDb.insertChannel(cvs);
+        if (cid < 0)
+            return -1;
+        mDbp.invalidateChannelSnapshot();
+
+        long srcCid = c.getLong(ColumnChannel.ID.ordinal());
+        Cursor ic = mSrc.rawQuery("SELECT " + ColumnChannelImage.IMAGEBLOB.getName()
+                                  + " FROM " + DB.TABLE_CHANNEL_IMAGE
+                                  + " WHERE " + ColumnChannelImage.ID.getName() + " = " + srcCid,
+                                  null);
+        if (ic.moveToFirst())
+            mDbp.updateChannel_image(cid, ic.getBlob(0));
+        ic.close();
+        return cid;
+    }
+
+    /**
+     * Merge items of source channel into given channel chunk by chunk.
+     * @param srcCid
+     * @param srcTitle
+     * @param cid
+     * @throws FeederException
+     */
+    private void
+    mergeItems(long srcCid, String srcTitle, long cid) throws FeederException {
+        // Item data files of source channel. Only file names are kept in memory.
+        HashMap<Long, File> srcFiles = (null == mSrcContentRoot)?
+                                       new HashMap<Long, File>():
+                                       ContentsManager.get().getItemContentFiles(mSrcContentRoot,
+                                                                                 srcTitle,
+                                                                                 srcCid);
+        if (!srcFiles.isEmpty())
+            ContentsManager.get().makeChannelDir(cid, false);
+
+        // Merged items SHOULD NOT be regarded as newly updated ones, if user already checked
+        //   all items of this channel.
+        long maxIdBefore = mDbp.getItemInfoMaxId(cid);
+        boolean keepOldLast = mDbp.getChannelInfoLong(cid, ColumnChannel.OLDLAST_ITEMID) < maxIdBefore;
+
+        final String sql = buildSelect(sItemCols, DB.TABLE_ITEM)
+                           + " WHERE " + ColumnItem.CHANNELID.getName() + " = " + srcCid
+                           + " AND " + ColumnItem.ID.getName() + " > ?"
+                           + " ORDER BY " + ColumnItem.ID.getName()
+                           + " LIMIT " + ITEMS_PER_STEP;
+        Feed.Item.ParD[] items = new Feed.Item.ParD[ITEMS_PER_STEP];
+        long[] srcIds = new long[ITEMS_PER_STEP];
+        long[] states = new long[ITEMS_PER_STEP];
+        long[] pubtimes = new long[ITEMS_PER_STEP];
+        ContentValues[] cvs = new ContentValues[ITEMS_PER_STEP];
+        long[] ids = new long[ITEMS_PER_STEP];
+        Feed.Item.DbD dbD = new Feed.Item.DbD();
+        dbD.cid = cid;
+        long lastSrcId = -1;
+        int nrMerged = 0;
+        int nr;
+        do {
+            nr = 0;
+            Cursor c = mSrc.rawQuery(sql, new String[] { String.valueOf(lastSrcId) });
+            try {
+                if (c.moveToFirst()) {
+                    do {
+                        Feed.Item.ParD item = new Feed.Item.ParD();
+                        item.title = c.getString(1);
+                        item.link = c.getString(2);
+                        item.description = ItemDescription.get(c);
+                        item.pubDate = c.getString(5);
+                        item.enclosureUrl = c.getString(6);
+                        item.enclosureLength = c.getString(7);
+                        item.enclosureType = c.getString(8);
+                        srcIds[nr] = c.getLong(0);
+                        states[nr] = c.getLong(9);
+                        pubtimes[nr] = c.getLong(10);
+                        items[nr++] = item;
+                    } while (c.moveToNext());
+                }
+            } finally {
+                c.close();
+            }
+            if (0 == nr)
+                break;
+            lastSrcId = srcIds[nr - 1];
+
+            Feed.Item.ParD[] chunk = (nr < items.length)? Arrays.copyOf(items, nr): items;
+            LinkedList<Feed.Item.ParD> newItems = new LinkedList<Feed.Item.ParD>();
+            // Local items SHOULD NOT be changed by (maybe stale) values of source.
+            // Contents downloaded are tied to link and enclosure url of local item.
+            Err err = mDbp.getNewItems(cid, chunk, newItems, false);
+            if (Err.NO_ERR != err)
+                throw new FeederException(err);
+
+            // Items are inserted in the order of source.
+            // So, order of item ids is kept.
+            IdentityHashMap<Feed.Item.ParD, Boolean> newSet
+                = new IdentityHashMap<Feed.Item.ParD, Boolean>(newItems.size() * 2);
+            for (Feed.Item.ParD item : newItems)
+                newSet.put(item, Boolean.TRUE);
+            int nrNew = 0;
+            int[] srcIndex = new int[nr];
+            for (int i = 0; i < nr; i++) {
+                if (null == newSet.get(chunk[i]))
+                    continue;
+                cvs[nrNew] = mDbp.buildNewItemContentValues(chunk[i], dbD);
+                // Keep state(opened, favorite etc) and time of source item.
+                cvs[nrNew].put(ColumnItem.STATE.getName(), states[i]);
+                cvs[nrNew].put(ColumnItem.PUBTIME.getName(), pubtimes[i]);
+                srcIndex[nrNew++] = i;
+            }
+
+            if (nrNew > 0) {
+                if (!mDb.insertItems(cvs, nrNew, ids))
+                    throw new FeederException(Err.DB_UNKNOWN);
+                for (int i = 0; i < nrNew; i++) {
+                    File f = srcFiles.remove(srcIds[srcIndex[i]]);
+                    if (null != f)
+                        ContentsManager.get().addItemContent(f, ids[i]);
+                }
+                nrMerged += nrNew;
+            }
+            if (DBG) P.v("Merge items of channel " + cid + " : " + nrNew + "/" + nr);
+
+            mNrDoneItems += nr;
+            publishProgress();
+            mDbp.checkInterrupted();
+        } while (nr == ITEMS_PER_STEP);
+
+        if (!keepOldLast)
+            mDbp.updateChannel(cid, ColumnChannel.OLDLAST_ITEMID, mDbp.getItemInfoMaxId(cid));
+        // One notification per channel. (Not per chunk.)
+        if (nrMerged > 0)
+            mDbp.notifyNewItemsUpdated(cid, nrMerged);
+    }
+
+    private Err
+    merge() {
+        Cursor c = mSrc.rawQuery("SELECT COUNT(*) FROM " + DB.TABLE_ITEM, null);
+        if (c.moveToFirst())
+            mNrTotalItems = c.getLong(0);
+        c.close();
+        publishProgress();
+
+        // Channels are read one by one. (Channel row may be large - ex. description.)
+        final String sql = buildSelect(ColumnChannel.values(), DB.TABLE_CHANNEL)
+                           + " WHERE " + ColumnChannel.ID.getName() + " > ?"
+                           + " ORDER BY " + ColumnChannel.ID.getName()
+                           + " LIMIT 1";
+        long lastSrcCid = -1;
+        try {
+            while (true) {
+                c = mSrc.rawQuery(sql, new String[] { String.valueOf(lastSrcCid) });
+                try {
+                    if (!c.moveToFirst())
+                        break;
+                    lastSrcCid = c.getLong(ColumnChannel.ID.ordinal());
+                    long cid = mergeChannel(c);
+                    if (cid < 0)
+                        return Err.DB_UNKNOWN;
+                    mergeItems(lastSrcCid, c.getString(ColumnChannel.TITLE.ordinal()), cid);
+                } finally {
+                    c.close();
+                }
+            }
+        } catch (FeederException e) {
+            return e.getError();
+        }
+        return Err.NO_ERR;
+    }
+
+    /**
+     * Merge given database into current database.
+     * Source SHOULD be verified by {@link DB#verifyDatabaseFile(File)} in advance.
+     * @param srcf
+     * @param srcContentRoot
+     *   directory having channel content directories of source. null if there is no contents.
+     * @param progress
+     *   can be null.
+     * @return
+     */
+    static Err
+    merge(File srcf, File srcContentRoot, DBSnapshot.OnProgress progress) {
+        SQLiteDatabase src;
+        try {
+            src = SQLiteDatabase.openDatabase(srcf.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
+        } catch (SQLiteException e) {
+            if (DBG) P.w("Fail to open merge source : " + e.getMessage());
+            return Err.IO_FILE;
+        }
+
+        try {
+            return new DBMerger(src, srcContentRoot, progress).merge();
+        } finally {
+            src.close();
+        }
+    }
+}
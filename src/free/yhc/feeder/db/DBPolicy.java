@@ -39,10 +39,12 @@ package free.yhc.feeder.db;
 import static free.yhc.feeder.model.Utils.eAssert;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import android.content.ContentValues;
@@ -85,20 +87,59 @@ UnexpectedExceptionHandler.TrackedModule {
     private static final long FLAG_LAST_ITEM_ID = 0x10;
     private static final long FLAG_ALL          = FLAG_NEW_ITEMS | FLAG_LAST_ITEM_ID;
 
-    // Checking duplication inside whole DB is very very inefficient.
-    // It requires extremely frequent and heavy DB access.
-    // So, instead of comparing with whole DB, just compare with enough large number of
-    //   previous items of the channel is better.
-    // Then how many items should be used to check duplication?
-    // To do that, below factor is used.
-    // At most, recent items by amount of "<current # items> * DUP_CHECK_SCOPE_FACTOR" is used
-    //   for comparison to check duplication.
-    private static final int   DUP_SCOPE_FACTOR       = 2;
-    // At least, <DUP_SCOPE_MIN> items SHOULD be used to compare duplication.
-    private static final int   DUP_SCOPE_MIN          = 200;
-    // unexpectedly large number of scope.
-    // Warning log will be shown.
-    private static final int   DUP_SCOPE_WARNING      = 3000;
+    // Duplication is checked by using fingerprint of item. (See 'DB.getItemFingerprint')
+    // Items having same fingerprint are read from DB by chunk.
+    // Number of fingerprints used at one DB query.
+    private static final int   DUP_QUERY_CHUNK        = 200;
+
+    // Maximum number of new items inserted as one transaction at channel update.
+    // Too large batch blocks other DB access too long.
+    private static final int   ITEM_INSERT_BATCH_SIZE = 100;
+
+    // Write-ahead log is checkpointed when DB is not changed during this time.
+    private static final long  CHECKPOINT_IDLE_DELAY  = 5 * 1000; // 5 sec.
+
+    // Plain descriptions of existing items are compressed at background by chunk.
+    // (See DB.compressItemDescriptions)
+    private static final int   DESC_COMPRESS_CHUNK    = 100;
+    private static final long  DESC_COMPRESS_DELAY    = 30 * 1000; // 30 sec. after DB is open.
+    private static final long  DESC_COMPRESS_INTERVAL = 500; // 0.5 sec. between chunks.
+
+    // Free pages of DB file are reclaimed when DB is not changed during this time.
+    private static final long  VACUUM_IDLE_DELAY      = 60 * 1000; // 1 min.
+    // Pages reclaimed at one step. Writers wait at most one step.
+    private static final int   VACUUM_STEP_PAGES      = 64;
+    private static final long  VACUUM_STEP_INTERVAL   = 100; // 0.1 sec.
+    // Max pages reclaimed at one idle time.
+    private static final int   VACUUM_PAGE_BUDGET     = 4096;
+    // Small number of free pages are kept. They will be reused soon.
+    private static final long  VACUUM_MIN_FREE_PAGES  = 32;
+
+    // Item states changed by UI are written to DB lazily by batch. (write-behind)
+    // States changed during this time before process is killed may be lost.
+    private static final long  STATE_FLUSH_DELAY      = 2 * 1000; // 2 sec.
+    // Pending states are flushed immediately if there are more than this.
+    private static final int   STATE_FLUSH_SIZE       = 64;
+
+    // Columns cached by item row cache.
+    // Columns those are frequently read per-row by UI are selected.
+    // (Large columns like description SHOULD NOT be here.)
+    private static final ColumnItem[] sItemRowCacheCols = new ColumnItem[] {
+        ColumnItem.CHANNELID,
+        ColumnItem.TITLE,
+        ColumnItem.LINK,
+        ColumnItem.ENCLOSURE_URL,
+        ColumnItem.ENCLOSURE_TYPE,
+        ColumnItem.STATE,
+    };
+
+    // Order SHOULD match with 'buildChannelStat'
+    private static final ColumnChannelStat[] sChannelStatCols = new ColumnChannelStat[] {
+        ColumnChannelStat.ID,
+        ColumnChannelStat.NRITEMS,
+        ColumnChannelStat.NRUNREAD,
+        ColumnChannelStat.MAXITEMID,
+    };
 
     private static DBPolicy sInstance = null;
 
@@ -110,15 +151,163 @@ UnexpectedExceptionHandler.TrackedModule {
     private final DB        mDb     = DB.get();
     private final Handler   mAsyncHandler;
 
-    // Getting max item id of channel takes longer time than expected.
-    // So, let's caching it.
-    // It is used at very few places.
-    // Therefore, it is easy to caching and easy to avoid cache-synchronization issue.
-    private final HashMap<Long, Long> mMaxIdCache = new HashMap<Long, Long>(); // special cache for max Id.
-
     // channel thumbnail cache.
     private final LruChannBitmapCache mChannImgCache;
 
+    // NOTE
+    // Channel/Item caches below SHOULD be updated whenever cached row is changed.
+    // All writes are done via DBPolicy. So, caches are updated directly at each write.
+    // And DB update notification is used to update caches, too.
+    // (Notification is enough to catch DB change that is not done via DBPolicy - ex. reloading DB.)
+
+    // Snapshot of channel table used by getChannelInfoXXX / getChannelIds.
+    // Snapshot is immutable. So, it can be read at any thread without lock.
+    // Changing channel table replaces snapshot with new one (copy-on-write).
+    // 'null' means 'snapshot should be reloaded from DB'.
+    // NOTE
+    // DB SHOULD NOT be accessed while holding mChannSnapshotLock.
+    // Snapshot is refreshed at DB listener (writer's context). So, reader holding the lock and
+    //   waiting DB, and writer waiting the lock may be deadlocked.
+    private volatile ChannelSnapshot mChannSnapshot = null;
+    private final Object            mChannSnapshotLock = new Object();
+    // Increased whenever channel table is changed. Guarded by mChannSnapshotLock.
+    // Snapshot read from DB before the change SHOULD NOT be used as current one.
+    private long                    mChannSnapshotGen = 0;
+
+    // Row cache used by getItemInfoXXX.
+    private final LruRowCache       mItemRowCache;
+
+    private final Runnable mCheckpointRunnable = new Runnable() {
+        @Override
+        public void
+        run() {
+            mDb.checkpoint(false);
+        }
+    };
+
+    // Id of item examined lastly by mDescCompressRunnable.
+    // This is accessed only at async thread.
+    private long mDescCompressLastId = -1;
+
+    // Compress one chunk of item descriptions and schedule next chunk.
+    private final Runnable mDescCompressRunnable = new Runnable() {
+        @Override
+        public void
+        run() {
+            mDescCompressLastId = mDb.compressItemDescriptions(mDescCompressLastId, DESC_COMPRESS_CHUNK);
+            if (mDescCompressLastId >= 0)
+                mAsyncHandler.postDelayed(this, DESC_COMPRESS_INTERVAL);
+            else if (DBG) {
+                long[] bytes = mDb.queryItemDescriptionBytes();
+                P.v("Compressing descriptions is done : plain(" + bytes[0] + " bytes) compressed("
+                    + bytes[1] + " bytes, " + bytes[2] + " items)");
+            }
+        }
+    };
+
+    // Restart compressing from the first item.
+    private final Runnable mDescCompressRestartRunnable = new Runnable() {
+        @Override
+        public void
+        run() {
+            mAsyncHandler.removeCallbacks(mDescCompressRunnable);
+            mDescCompressLastId = -1;
+            mAsyncHandler.postDelayed(mDescCompressRunnable, DESC_COMPRESS_DELAY);
+        }
+    };
+
+    // Item states not written to DB yet - item id -> state.
+    // Changing state of same item several times is coalesced into one DB write.
+    // Reading state (getItemInfoXXX) sees pending value first.
+    private final HashMap<Long, Long> mPendingStates = new HashMap<Long, Long>();
+    // Flushes SHOULD be serialized. Otherwise older state may overwrite newer one.
+    private final Object              mStateFlushLock = new Object();
+
+    private final Runnable mStateFlushRunnable = new Runnable() {
+        @Override
+        public void
+        run() {
+            flushItemStates();
+        }
+    };
+
+    // Statistics of vacuum - for instrumentation.
+    private volatile long   mVacuumReclaimedBytes = 0;
+    private volatile long   mVacuumNrSteps = 0;
+    private volatile long   mVacuumMaxStepTime = 0; // ms.
+    private volatile boolean mVacuumConvertTried = false;
+    // Pages that can be reclaimed at current idle time.
+    private volatile int    mVacuumBudget = 0;
+
+    // Reclaim free pages step by step while DB is idle.
+    // Any DB change cancels it. (See scheduleIdleVacuum)
+    private final Runnable mVacuumRunnable = new Runnable() {
+        @Override
+        public void
+        run() {
+            if (!mDb.isIncrementalVacuum()) {
+                // Existing DB is converted only once.
+                if (mVacuumConvertTried)
+                    return;
+                mVacuumConvertTried = true;
+                long before = mDb.queryPageCount();
+                long t = System.currentTimeMillis();
+                if (!mDb.convertToIncrementalVacuum())
+                    return;
+                t = System.currentTimeMillis() - t;
+                mVacuumReclaimedBytes += (before - mDb.queryPageCount()) * mDb.queryPageSize();
+                if (DBG) P.v("DB is converted to incremental vacuum : " + t + " ms");
+            }
+
+            long nrFree = mDb.queryFreePageCount();
+            if (mVacuumBudget <= 0
+                || nrFree <= VACUUM_MIN_FREE_PAGES) {
+                // Truncated pages are removed from DB file at checkpoint.
+                scheduleIdleCheckpoint();
+                return;
+            }
+
+            int pages = (int)Math.min(VACUUM_STEP_PAGES, nrFree - VACUUM_MIN_FREE_PAGES);
+            pages = Math.min(pages, mVacuumBudget);
+            long t = System.currentTimeMillis();
+            mDb.incrementalVacuum(pages);
+            t = System.currentTimeMillis() - t;
+            mVacuumBudget -= pages;
+            mVacuumReclaimedBytes += (nrFree - mDb.queryFreePageCount()) * mDb.queryPageSize();
+            mVacuumNrSteps++;
+            if (t > mVacuumMaxStepTime)
+                mVacuumMaxStepTime = t;
+            mAsyncHandler.postDelayed(this, VACUUM_STEP_INTERVAL);
+        }
+    };
+
+    private final ListenerManager.Listener mDbUpdatedListener = new ListenerManager.Listener() {
+        @Override
+        public void
+        onNotify(Object user, ListenerManager.Type type, Object arg0, Object arg1) {
+            scheduleIdleCheckpoint();
+            scheduleIdleVacuum();
+            switch ((DB.UpdateType)type) {
+            case CHANNEL_TABLE:
+                invalidateChannelSnapshot();
+                break;
+
+            case CHANNEL_DATA:
+                refreshChannelSnapshot((Long)arg0);
+                break;
+
+            case ITEM_TABLE:
+                // Inserting new items doesn't change cached rows.
+                if (!Boolean.TRUE.equals(arg0))
+                    mItemRowCache.invalidateAll();
+                break;
+
+            default:
+                break;
+            }
+        }
+    };
+
     // NOTE
     // This is a kind of dirty-HACK!
     // When user try to access item tables at DB during updating channels(adding new items),
@@ -161,6 +350,53 @@ UnexpectedExceptionHandler.TrackedModule {
         File   getFile(Feed.Item.ParD parD) throws FeederException;
     }
 
+    /**
+     * Space usage of DB file.
+     */
+    public static class SpaceStat {
+        public final long pageSize;
+        public final long nrPages;
+        // Pages that are not used. (ex. pages freed by deleting rows.)
+        public final long nrFreePages;
+        // false if DB is not converted to incremental vacuum yet.
+        public final boolean incrementalVacuum;
+        // Followings are values since application is started.
+        public final long reclaimedBytes;
+        public final long nrVacuumSteps;
+        // Longest time(ms) of one vacuum step. Writers may wait this long.
+        public final long maxVacuumStepTime;
+
+        SpaceStat(long aPageSize, long aNrPages, long aNrFreePages, boolean aIncrementalVacuum,
+                  long aReclaimedBytes, long aNrVacuumSteps, long aMaxVacuumStepTime) {
+            pageSize = aPageSize;
+            nrPages = aNrPages;
+            nrFreePages = aNrFreePages;
+            incrementalVacuum = aIncrementalVacuum;
+            reclaimedBytes = aReclaimedBytes;
+            nrVacuumSteps = aNrVacuumSteps;
+            maxVacuumStepTime = aMaxVacuumStepTime;
+        }
+    }
+
+    /**
+     * Item counters of channel.
+     */
+    public static class ChannelStat {
+        public final long cid;
+        public final long nrItems;
+        // number of items not opened yet.
+        public final long nrUnread;
+        // 0 if there is no item.
+        public final long maxItemId;
+
+        ChannelStat(long aCid, long aNrItems, long aNrUnread, long aMaxItemId) {
+            cid = aCid;
+            nrItems = aNrItems;
+            nrUnread = aNrUnread;
+            maxItemId = aMaxItemId;
+        }
+    }
+
     private class DBAsyncThread extends HandlerThread {
         DBAsyncThread() {
             super("DBAsyncThread");
@@ -171,10 +407,113 @@ UnexpectedExceptionHandler.TrackedModule {
         final long    id;
         final String  link;
         final String  enclosure;
-        ItemUrls(long aId, String aLink, String aEnclosure) {
+        // keys used to check duplication.
+        final String  mainKey;
+        final String  subKey;
+        ItemUrls(long aId, String aLink, String aEnclosure, String aMainKey, String aSubKey) {
             id = aId;
             link = aLink;
             enclosure = aEnclosure;
+            mainKey = aMainKey;
+            subKey = aSubKey;
+        }
+
+        boolean
+        isSameKey(String aMainKey, String aSubKey) {
+            return mainKey.equals(aMainKey) && subKey.equals(aSubKey);
+        }
+    }
+
+    /**
+     * Immutable snapshot of channel table.
+     * All columns are included. (Image of channel is stored at separated table.)
+     */
+    private static final class ChannelSnapshot {
+        // Values of a row are stored in order of ColumnChannel ordinal.
+        static final ColumnChannel[] sCols = ColumnChannel.values();
+
+        // Same order with default channel query - ordered by position.
+        final long[]                    cids;
+        final HashMap<Long, Object[]>   rows;
+
+        ChannelSnapshot(long[] aCids, HashMap<Long, Object[]> aRows) {
+            cids = aCids;
+            rows = aRows;
+        }
+
+        Object
+        get(long cid, ColumnChannel col) {
+            Object[] row = rows.get(cid);
+            return null == row? null: row[col.ordinal()];
+        }
+    }
+
+    /**
+     * Cache of row values of given columns. (Key is row id.)
+     * Values of a row are stored in the same order with columns.
+     */
+    private static class LruRowCache extends LruCache<Long, Object[]> {
+        private final String                        _mName;
+        private final HashMap<DB.Column, Integer>   _mColIndex = new HashMap<DB.Column, Integer>();
+        // This is increased whenever cache is invalidated.
+        // Row read from DB before invalidation SHOULD NOT be put into the cache.
+        // Otherwise, stale value may be cached.
+        private long                                _mGeneration = 0;
+
+        public LruRowCache(String name, DB.Column[] cols, int maxSize) {
+            super(maxSize);
+            _mName = name;
+            for (int i = 0; i < cols.length; i++)
+                _mColIndex.put(cols[i], i);
+        }
+
+        /**
+         * @param col
+         * @return
+         *   -1 if given column is not cached.
+         */
+        int
+        indexOf(DB.Column col) {
+            Integer i = _mColIndex.get(col);
+            return null == i? -1: i;
+        }
+
+        boolean
+        isCached(DB.Column[] cols) {
+            for (DB.Column col : cols) {
+                if (indexOf(col) < 0)
+                    return false;
+            }
+            return true;
+        }
+
+        synchronized long
+        generation() {
+            return _mGeneration;
+        }
+
+        synchronized void
+        put(long generation, long id, Object[] row) {
+            if (generation == _mGeneration)
+                put(id, row);
+        }
+
+        synchronized void
+        invalidate(long id) {
+            _mGeneration++;
+            remove(id);
+        }
+
+        synchronized void
+        invalidateAll() {
+            _mGeneration++;
+            evictAll();
+        }
+
+        String
+        dump() {
+            return "  " + _mName + " cache : hit(" + hitCount() + ") miss(" + missCount()
+                   + ") size(" + size() + "/" + maxSize() + ")\n";
         }
     }
 
@@ -224,10 +563,51 @@ UnexpectedExceptionHandler.TrackedModule {
         }
 
         mChannImgCache = new LruChannBitmapCache(chnnCacheSize);
+
+        int itemRowCacheSize;
+        switch (Utils.getPrefMemConsumptionLevel()) {
+        case LOW:
+            itemRowCacheSize = 256;
+            break;
+        case HIGH:
+            itemRowCacheSize = 1024;
+            break;
+        case MEDIUM:
+        default:
+            itemRowCacheSize = 512;
+        }
+        mItemRowCache = new LruRowCache("Item row", sItemRowCacheCols, itemRowCacheSize);
+        mDb.registerUpdatedListener(mDbUpdatedListener,
+                                    DB.UpdateType.CATEGORY_TABLE.flag()
+                                    | DB.UpdateType.CHANNEL_TABLE.flag()
+                                    | DB.UpdateType.CHANNEL_DATA.flag()
+                                    | DB.UpdateType.ITEM_TABLE.flag());
         DBAsyncThread async = new DBAsyncThread();
         async.start();
         mAsyncHandler = new Handler(async.getLooper());
+        mAsyncHandler.postDelayed(mDescCompressRunnable, DESC_COMPRESS_DELAY);
+        scheduleIdleVacuum();
+    }
 
+    /**
+     * Checkpoint of write-ahead log is delayed until DB is not changed for a while.
+     * Checkpoint while DB is changed continuously (ex. updating channels) is just waste.
+     */
+    private void
+    scheduleIdleCheckpoint() {
+        mAsyncHandler.removeCallbacks(mCheckpointRunnable);
+        mAsyncHandler.postDelayed(mCheckpointRunnable, CHECKPOINT_IDLE_DELAY);
+    }
+
+    /**
+     * Free pages are reclaimed only when DB is not changed for a while.
+     * Reclaimed pages may be allocated again soon while DB is changed continuously.
+     */
+    private void
+    scheduleIdleVacuum() {
+        mAsyncHandler.removeCallbacks(mVacuumRunnable);
+        mVacuumBudget = VACUUM_PAGE_BUDGET;
+        mAsyncHandler.postDelayed(mVacuumRunnable, VACUUM_IDLE_DELAY);
     }
 
     /**
@@ -235,7 +615,7 @@ UnexpectedExceptionHandler.TrackedModule {
      * If it is interrupted, FeederException is thrown.
      * @throws FeederException
      */
-    private void
+    void
     checkInterrupted() throws FeederException {
         if (Thread.currentThread().isInterrupted())
             throw new FeederException(Err.INTERRUPTED);
@@ -248,7 +628,7 @@ UnexpectedExceptionHandler.TrackedModule {
      * @param dbD
      * @return
      */
-    private ContentValues
+    ContentValues
     buildNewItemContentValues(Feed.Item.ParD parD, Feed.Item.DbD dbD) {
         ContentValues values = new ContentValues();
 
@@ -262,6 +642,8 @@ UnexpectedExceptionHandler.TrackedModule {
         values.put(ColumnItem.ENCLOSURE_LENGTH.getName(),    parD.enclosureLength);
         values.put(ColumnItem.ENCLOSURE_TYPE.getName(),      parD.enclosureType);
         values.put(ColumnItem.STATE.getName(),               Feed.Item.FSTAT_DEFAULT);
+        values.put(ColumnItem.FINGERPRINT.getName(),
+                   DB.getItemFingerprint(parD.title, parD.pubDate, parD.link, parD.enclosureUrl));
 
         // If success to parse pubdate than pubdate is used, if not, current time is used.
         long time = Utils.dateStringToTime(parD.pubDate);
@@ -295,12 +677,16 @@ UnexpectedExceptionHandler.TrackedModule {
         values.put(ColumnChannel.TITLE.getName(),            parD.title);
         values.put(ColumnChannel.DESCRIPTION.getName(),      parD.description);
 
-        values.put(ColumnChannel.IMAGEBLOB.getName(),        new byte[0]);
         // Fill reserved values as default
         // This need to match ChannelSettingActivity's setting value.
         values.put(ColumnChannel.SCHEDUPDATETIME.getName(),  Feed.Channel.DEFAULT_SCHEDUPDATE_TIME); // default (03 o'clock)
         values.put(ColumnChannel.OLDLAST_ITEMID.getName(),   0);
         values.put(ColumnChannel.NRITEMS_SOFTMAX.getName(),  999999);
+        // Feed is fully fetched at first update.
+        values.put(ColumnChannel.ETAG.getName(),             "");
+        values.put(ColumnChannel.LASTMODIFIED.getName(),     "");
+        values.put(ColumnChannel.BODYHASH.getName(),         0);
+        values.put(ColumnChannel.NRNOTMODIFIED.getName(),    0);
         // add to last position in terms of UI.
         values.put(ColumnChannel.POSITION.getName(),         getChannelInfoMaxLong(ColumnChannel.POSITION) + 1);
         return values;
@@ -330,6 +716,32 @@ UnexpectedExceptionHandler.TrackedModule {
         return null;
     }
 
+    private Object[]
+    getCursorValues(Cursor c) {
+        Object[] vs = new Object[c.getColumnCount()];
+        for (int i = 0; i < vs.length; i++)
+            vs[i] = getCursorValue(c, i);
+        return vs;
+    }
+
+    /**
+     * Get string values of given columns from cached row.
+     * (Same with 'Cursor.getString' - number is converted to string.)
+     * @param cache
+     * @param row
+     * @param columns
+     * @return
+     */
+    private static String[]
+    getRowStrings(LruRowCache cache, Object[] row, DB.Column[] columns) {
+        String[] v = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Object o = row[cache.indexOf(columns[i])];
+            v[i] = null == o? null: o.toString();
+        }
+        return v;
+    }
+
     private Cursor
     getEmptyCursor() {
         // empty cids... So, return empty cursor
@@ -346,7 +758,7 @@ UnexpectedExceptionHandler.TrackedModule {
      * @return
      *   -1 (fail to find) / channel id (success)
      */
-    private long
+    long
     findChannel(long[] state, String url) {
         long ret = -1;
         Cursor c = mDb.queryChannel(new ColumnChannel[] { ColumnChannel.ID,
@@ -393,6 +805,9 @@ UnexpectedExceptionHandler.TrackedModule {
     public String
     dump(UnexpectedExceptionHandler.DumpLevel lv) {
         StringBuilder bldr = new StringBuilder("[ DBPolicy ]\n");
+        ChannelSnapshot snap = mChannSnapshot;
+        bldr.append("  Channel snapshot : " + (null == snap? "not loaded": snap.cids.length + " channels") + "\n")
+            .append(mItemRowCache.dump());
         return bldr.toString();
     }
 
@@ -404,9 +819,85 @@ UnexpectedExceptionHandler.TrackedModule {
         return sInstance;
     }
 
+    /**
+     * Make DB file have all changes.
+     * This SHOULD be called before accessing DB file directly. (ex. copying DB file)
+     */
+    public void
+    flushDatabase() {
+        flushItemStates();
+        mDb.checkpoint(true);
+    }
+
     public void
     reloadDatabase() {
+        flushItemStates();
         mDb.reloadDatabase();
+        invalidateChannelSnapshot();
+        mItemRowCache.invalidateAll();
+        restartDescCompress();
+    }
+
+    /**
+     * Copy consistent snapshot of database to file.
+     * Unlike copying DB file, exclusive access to DB is NOT required.
+     * @param outf
+     * @param progress
+     *   can be null.
+     * @return
+     */
+    public boolean
+    exportDatabase(File outf, DBSnapshot.OnProgress progress) {
+        flushItemStates();
+        return mDb.exportDatabase(outf, progress);
+    }
+
+    /**
+     * Merge channels and items of given database into current database.
+     * Channels having same url and duplicated items are skipped. (See {@link DBMerger})
+     * Source SHOULD be verified by {@link DB#verifyDatabaseFile(File)} in advance.
+     * @param srcf
+     * @param srcContentRoot
+     *   directory having content directories of source channels. null if there is none.
+     * @param progress
+     *   can be null.
+     * @return
+     */
+    public Err
+    mergeDatabase(File srcf, File srcContentRoot, DBSnapshot.OnProgress progress) {
+        // Pending states SHOULD be in DB before checking duplicated items.
+        flushItemStates();
+        Err r = DBMerger.merge(srcf, srcContentRoot, progress);
+        // Merged items may have uncompressed descriptions.
+        restartDescCompress();
+        return r;
+    }
+
+    /**
+     * Replace database with given file.
+     * Candidate SHOULD be verified by {@link DB#verifyDatabaseFile(File)} in advance.
+     * And it SHOULD be at the same directory with DB file.
+     * @param candidate
+     * @return
+     */
+    public boolean
+    replaceDatabase(File candidate) {
+        // Pending states belong to current DB.
+        flushItemStates();
+        boolean r = mDb.replaceDatabase(candidate);
+        invalidateChannelSnapshot();
+        mItemRowCache.invalidateAll();
+        restartDescCompress();
+        return r;
+    }
+
+    /**
+     * Compress descriptions of all items again at background.
+     * This SHOULD be called when items are brought from outside. (ex. importing or merging DB)
+     */
+    private void
+    restartDescCompress() {
+        mAsyncHandler.post(mDescCompressRestartRunnable);
     }
 
     // ======================================================
@@ -455,7 +946,7 @@ UnexpectedExceptionHandler.TrackedModule {
         mLm.unregisterListenerByKey(key);
     }
 
-    private void
+    void
     notifyNewItemsUpdated(long cid, int nrNewItems) {
         mLm.notifyDirect(UpdateType.NEW_ITEMS, cid, nrNewItems);
     }
@@ -641,11 +1132,14 @@ UnexpectedExceptionHandler.TrackedModule {
         dbD.lastupdate = new Date().getTime();
         Feed.Channel.ParD parD = new Feed.Channel.ParD();
         cid = mDb.insertChannel(buildNewChannelContentValues(profD, parD, dbD));
+        invalidateChannelSnapshot();
         return cid;
     }
 
     /**
      * Filtering items that are not in DB from given item array.
+     * Link and enclosure url of existing item are updated if they are changed.
+     * (See {@link DBPolicy#getNewItems(long, Feed.Item.ParD[], LinkedList, boolean)})
      * @param items
      * @param newItems
      *   new item's are added to the last of this linked list.
@@ -653,16 +1147,51 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     public Err
     getNewItems(long cid, Feed.Item.ParD[] items, LinkedList<Feed.Item.ParD> newItems) {
+        return getNewItems(cid, items, newItems, true);
+    }
+
+    /**
+     * Filtering items that are not in DB from given item array.
+     * @param items
+     * @param newItems
+     *   new item's are added to the last of this linked list.
+     * @param updateExisting
+     *   true to update link and enclosure url of existing item with the value of given item.
+     *   false to leave items in DB untouched. (ex. items from other DB may have stale values.)
+     * @return
+     */
+    public Err
+    getNewItems(long cid, Feed.Item.ParD[] items, LinkedList<Feed.Item.ParD> newItems,
+                boolean updateExisting) {
         eAssert(null != items);
         if (DBG) P.v("UpdateChannel DB Section Start : cid[" + cid + "]");
 
         if (0 == items.length)
             return Err.NO_ERR;
 
-        boolean pubDateAvail = Utils.isValidValue(items[0].pubDate);
-        HashMap<String, HashMap<String, ItemUrls>> mainMap
-            = new HashMap<String, HashMap<String, ItemUrls>>();
-        HashMap<String, ItemUrls> subMap;
+        // Keys of each item. Unverified items are ignored (null).
+        String[] mainKeys = new String[items.length];
+        String[] subKeys  = new String[items.length];
+        long[]   fps      = new long[items.length];
+        int      nrValid  = 0;
+        for (int i = 0; i < items.length; i++) {
+            Feed.Item.ParD item = items[i];
+            if (!FeedPolicy.verifyConstraints(item))
+                continue;
+            // -----------------------------------------------------------------------
+            // NOTE
+            // main/sub key SHOULD MATCH keys used by 'DB.getItemFingerprint'!
+            // -----------------------------------------------------------------------
+            if (DB.isItemPubDateKey(item.pubDate)) {
+                mainKeys[i] = item.title;
+                subKeys[i] = item.pubDate;
+            } else {
+                mainKeys[i] = item.link;
+                subKeys[i] = item.enclosureUrl;
+            }
+            fps[i] = DB.getItemFingerprint(item.title, item.pubDate, item.link, item.enclosureUrl);
+            nrValid++;
+        }
 
         // -----------------------------------------------------------------------
         // check whether there is duplicated item in DB or not.
@@ -685,13 +1214,6 @@ UnexpectedExceptionHandler.TrackedModule {
         //   But at this moment, I think this is over-engineering.
         //   So, below simple algorithm is used.
 
-        // TODO
-        //   Lots of items for WHERE clause may lead to...
-        //     Pros : increase correctness.
-        //     Cons : drop performance.
-        //   So, I need to tune it.
-        //   At this moment, correctness is more important than performance.
-
         // NOTE
         //   In case of some RSS sites(ex. iblug), link/enclosure url is continuously changed
         //     without any modification.
@@ -699,6 +1221,7 @@ UnexpectedExceptionHandler.TrackedModule {
         //   So, to avoid this, algorithm is changed to less-strict-way to tell whether
         //     this item is new or not.
         //   New algorithm is, (Note that 'pubdate' is optional element of RSS.)
+        //   ('pubdate' availability is decided per item. See 'DB.isItemPubDateKey'.)
         //     if [ 'pubdate' is available ]
         //         if [ 'pubdate' and 'title' is same ]
         //             this is same item
@@ -713,106 +1236,101 @@ UnexpectedExceptionHandler.TrackedModule {
         //             this is new item.
 
         // -----------------------------------------------------------------------
-        // Build hash tree with items from DB to check duplication.
-        //
-        // NOTE
-        // main/sub key SHOULD MATCH DB query's where clause, below!
+        // Read items having same fingerprint with items of feed, from DB.
+        // Only items matching with feed items are kept in memory.
+        // So, memory usage doesn't depend on number of items in DB.
         // -----------------------------------------------------------------------
-        Cursor c = null;
-        int    nrscope = items.length * DUP_SCOPE_FACTOR;
-        nrscope = (nrscope < DUP_SCOPE_MIN)? DUP_SCOPE_MIN: nrscope;
-
-        if (nrscope > DUP_SCOPE_WARNING)
-            if (DBG) P.w("DB Update : Number of scope to check duplication is unexpectedly big! : " + nrscope + "\n" +
-                         "    OOM is concerned!!");
-
+        // Key : fingerprint
+        HashMap<Long, ItemUrls> fpMap = new HashMap<Long, ItemUrls>(nrValid * 2);
+        final ColumnItem[] cols = new ColumnItem[] { ColumnItem.ID,
+                                                     ColumnItem.LINK,
+                                                     ColumnItem.ENCLOSURE_URL,
+                                                     ColumnItem.TITLE,
+                                                     ColumnItem.PUBDATE,
+                                                     ColumnItem.FINGERPRINT };
         final int idI        = 0;
         final int linkI      = 1;
         final int enclosureI = 2;
-        int       mainKeyI;
-        int       subKeyI;
-        String    mainKey;
-        String    subKey;
-        ItemUrls  iurls;
-        if (pubDateAvail) {
-            c = mDb.queryItemAND(new ColumnItem[] { ColumnItem.ID,           // SHOULD BE index 0
-                                                    ColumnItem.LINK,         // SHOULD BE index 1
-                                                    ColumnItem.ENCLOSURE_URL,// SHOULD BE index 2
-                                                    ColumnItem.TITLE,
-                                                    ColumnItem.PUBDATE },
-                                 new ColumnItem[] { ColumnItem.CHANNELID },
-                                 new String[] { "" + cid },
-                                 0);
-            mainKeyI = 3; // title
-            subKeyI = 4;  // pubdate
-        } else {
-            c = mDb.queryItemAND(new ColumnItem[] { ColumnItem.ID,           // SHOULD BE index 0
-                                                    ColumnItem.LINK,         // SHOULD BE index 1
-                                                    ColumnItem.ENCLOSURE_URL },// SHOULD BE index 2
-                                 new ColumnItem[] { ColumnItem.CHANNELID },
-                                 new String[] { "" + cid },
-                                 0);
-            mainKeyI = 1; // link
-            subKeyI = 2;  // enclosure url
-        }
-
-        // Create hash map of candidates items to check duplication.
+        final int titleI     = 3;
+        final int pubDateI   = 4;
+        final int fpI        = 5;
+        long[] chunk = new long[DUP_QUERY_CHUNK];
+        int    nrChunk = 0;
+        String mainKey;
+        String subKey;
+        ItemUrls iurls;
         try {
-            if (c.moveToFirst() && nrscope > 0) {
-                do {
-                    mainKey = c.getString(mainKeyI);
-                    subKey = c.getString(subKeyI);
-                    subMap = mainMap.get(mainKey);
-                    if (null == subMap) {
-                        subMap = new HashMap<String, ItemUrls>();
-                        mainMap.put(mainKey, subMap);
-                    }
-                    iurls = subMap.get(subKey);
-                    if (null == iurls) {
-                        subMap.put(subKey,
-                                   new ItemUrls(c.getLong(idI),
-                                                c.getString(linkI),
-                                                c.getString(enclosureI)));
-                    } else {
-                        if (DBG) P.w("Duplicated Item in DB - This is unexpected but not harmful.\n" +
-                                     "    main key : " + mainKey + "\n" +
-                                     "    sub key  : " + subKey + "\n");
+            for (int i = 0; i < items.length; i++) {
+                if (null != mainKeys[i])
+                    chunk[nrChunk++] = fps[i];
+
+                if (nrChunk < chunk.length
+                    && i < items.length - 1)
+                    continue;
+
+                if (nrChunk <= 0)
+                    break;
+
+                Cursor c = mDb.queryItemFingerprints(cols, cid,
+                                                     (nrChunk < chunk.length)?
+                                                         Arrays.copyOf(chunk, nrChunk):
+                                                         chunk);
+                nrChunk = 0;
+                try {
+                    if (c.moveToFirst()) {
+                        do {
+                            String pubDate = c.getString(pubDateI);
+                            if (DB.isItemPubDateKey(pubDate)) {
+                                mainKey = c.getString(titleI);
+                                subKey = pubDate;
+                            } else {
+                                mainKey = c.getString(linkI);
+                                subKey = c.getString(enclosureI);
+                            }
+                            if (null == fpMap.get(c.getLong(fpI))) {
+                                fpMap.put(c.getLong(fpI),
+                                          new ItemUrls(c.getLong(idI),
+                                                       c.getString(linkI),
+                                                       c.getString(enclosureI),
+                                                       mainKey,
+                                                       subKey));
+                            } else {
+                                if (DBG) P.w("Duplicated Item in DB - This is unexpected but not harmful.\n" +
+                                             "    main key : " + mainKey + "\n" +
+                                             "    sub key  : " + subKey + "\n");
+                            }
+                        } while (c.moveToNext());
                     }
-                    checkDelayedChannelUpdate();
-                    checkInterrupted();
-                } while(--nrscope > 0 && c.moveToNext());
+                } finally {
+                    c.close();
+                }
+                checkDelayedChannelUpdate();
+                checkInterrupted();
             }
         } catch (FeederException e) {
             return e.getError();
-        } finally {
-            c.close();
         }
 
         try {
-            for (Feed.Item.ParD item : items) {
+            for (int i = 0; i < items.length; i++) {
+                Feed.Item.ParD item = items[i];
                 // ignore not-verified item
-                if (!FeedPolicy.verifyConstraints(item))
+                if (null == mainKeys[i])
                     continue;
 
-                // -----------------------------------------------------------------------
-                // NOTE
-                // main/sub key SHOULD MATCH DB query's where clause, below!
-                // -----------------------------------------------------------------------
-                if (pubDateAvail) {
-                    mainKey = item.title;  // should match mainKeyI
-                    subKey = item.pubDate; // should match subKeyI
-                } else {
-                    mainKey = item.link;        // should match mainKeyI
-                    subKey = item.enclosureUrl; // should match subKeyI
-                }
-
-                subMap = mainMap.get(mainKey);
-                if (null == subMap) {
-                    subMap = new HashMap<String, ItemUrls>();
-                    mainMap.put(mainKey, subMap);
+                mainKey = mainKeys[i];
+                subKey = subKeys[i];
+                iurls = fpMap.get(fps[i]);
+                if (null != iurls
+                    && !iurls.isSameKey(mainKey, subKey)) {
+                    // Fingerprint is same but keys are different. (hash collision)
+                    // This is new item.
+                    if (DBG) P.w("Fingerprint collision!\n" +
+                                 "    main key : " + mainKey + "\n" +
+                                 "    sub key  : " + subKey + "\n");
+                    iurls = null;
                 }
 
-                iurls = subMap.get(subKey);
                 if (null == iurls) {
                     // New Item.
                     // NOTE
@@ -821,7 +1339,7 @@ UnexpectedExceptionHandler.TrackedModule {
                     //   So, to make bottom item have smaller ID, 'addFirst' is used.
                     newItems.addFirst(item);
                     // This is new item.
-                    subMap.put(subKey, new ItemUrls(-1, mainKey, subKey));
+                    fpMap.put(fps[i], new ItemUrls(-1, item.link, item.enclosureUrl, mainKey, subKey));
                 } else {
                     // This is duplicated item.
                     // But, it is still needed to be checked whether item information is updated or not.
@@ -830,7 +1348,8 @@ UnexpectedExceptionHandler.TrackedModule {
                     // And usually, multimedia RSS includes all items in the RSS syndication.
                     // So, I don't need to check whole database.
                     // Checking hashed item in memory is enough.
-                    if (pubDateAvail &&
+                    if (updateExisting &&
+                        DB.isItemPubDateKey(item.pubDate) &&
                         !(item.link.equals(iurls.link)
                             && item.enclosureUrl.equals(iurls.enclosure))) {
                         if (iurls.id < 0) {
@@ -844,6 +1363,7 @@ UnexpectedExceptionHandler.TrackedModule {
                             cvs.put(ColumnItem.LINK.getName(), item.link);
                             cvs.put(ColumnItem.ENCLOSURE_URL.getName(), item.enclosureUrl);
                             mDb.updateItem(iurls.id, cvs);
+                            mItemRowCache.invalidate(iurls.id);
                         }
                     }
                 }
@@ -859,7 +1379,7 @@ UnexpectedExceptionHandler.TrackedModule {
 
     /**
      * Update channel.
-     * ColumnChannel.LASTUPDATE value is set only at this function.
+     * ColumnChannel.LASTUPDATE value is set only at this function and updateChannel_notModified.
      * @param cid
      * @param ch
      * @param newItems
@@ -884,42 +1404,72 @@ UnexpectedExceptionHandler.TrackedModule {
             channelUpdateValues.put(ColumnChannel.TITLE.getName(),       ch.title);
             channelUpdateValues.put(ColumnChannel.DESCRIPTION.getName(), ch.description);
             mDb.updateChannel(cid, channelUpdateValues);
+            refreshChannelSnapshot(cid);
         }
 
+        // NOTE
+        // In case of getting item data (ex. downloading), it takes long time for each item.
+        // So, items are inserted one by one to let user see new item as soon as possible.
+        int batchSize = (null == idop)? ITEM_INSERT_BATCH_SIZE: 1;
         Iterator<Feed.Item.ParD> iter = newItems.iterator();
+        ContentValues[] cvs = new ContentValues[batchSize];
+        File[] files = new File[batchSize];
+        long[] ids = new long[batchSize];
+        Feed.Item.DbD itemDbD = new Feed.Item.DbD();
+        itemDbD.cid = cid;
 
-        while (iter.hasNext()) {
-            Feed.Item.ParD itemParD = iter.next();
-            Feed.Item.DbD  itemDbD = new Feed.Item.DbD();
-            itemDbD.cid = cid;
-
-
-            // NOTE
-            // Order is very important
-            // Order SHOULD be "get item data" => "insert to db"
-            // Why?
-            // If "insert to db" is done before "get item data", user can see item at UI.
-            // So, user may try to get item data by UI action.
-            // Then what happens?
-            // Two operations for getting same item data are running concurrently!
-            // This is not what I expected.
-            //
-            // Yes! I know.
-            // In case of 'file download operation', there can be race-condition even if
-            //   operation order is 'get' -> 'insert'.
-            //   (User request DB items at the moment between
-            //      "file download is done, and item is inserted" and
-            //      "renaming file to final name based on item id".)
-            // In this case, user may try to download again even if download is done, and second
-            //   downloaded file will be overwritten to previous one.
-            // This is not normal and my expectation.
-            // But it's NOT harmful and it's very RARE case!
-            // So, I don't use any synchronization to prevent this race condition.
-            // Now we know item id here.
-            try {
-                File f = null;
-                if (null != idop)
-                    f = idop.getFile(itemParD);
+        // NOTE
+        // Listeners of new items (ex. notification) are notified once per channel update.
+        // Items already inserted are notified even if update fails in the middle.
+        int nrInserted = 0;
+        try {
+            while (iter.hasNext()) {
+                int nr = 0;
+                try {
+                    while (nr < batchSize && iter.hasNext()) {
+                        Feed.Item.ParD itemParD = iter.next();
+                        // NOTE
+                        // Order is very important
+                        // Order SHOULD be "get item data" => "insert to db"
+                        // Why?
+                        // If "insert to db" is done before "get item data", user can see item at UI.
+                        // So, user may try to get item data by UI action.
+                        // Then what happens?
+                        // Two operations for getting same item data are running concurrently!
+                        // This is not what I expected.
+                        //
+                        // Yes! I know.
+                        // In case of 'file download operation', there can be race-condition even if
+                        //   operation order is 'get' -> 'insert'.
+                        //   (User request DB items at the moment between
+                        //      "file download is done, and item is inserted" and
+                        //      "renaming file to final name based on item id".)
+                        // In this case, user may try to download again even if download is done, and second
+                        //   downloaded file will be overwritten to previous one.
+                        // This is not normal and my expectation.
+                        // But it's NOT harmful and it's very RARE case!
+                        // So, I don't use any synchronization to prevent this race condition.
+                        files[nr] = null;
+                        if (null != idop) {
+                            try {
+                                files[nr] = idop.getFile(itemParD);
+                            } catch (FeederException e) {
+                                ; // if feeder fails to get item data, just ignore it!
+                            }
+                        }
+                        cvs[nr] = buildNewItemContentValues(itemParD, itemDbD);
+                        nr++;
+                        checkDelayedChannelUpdate();
+                        checkInterrupted();
+                    }
+                } catch (FeederException e) {
+                    // Items of this batch are not inserted yet.
+                    for (int i = 0; i < nr; i++) {
+                        if (null != files[i])
+                            files[i].delete();
+                    }
+                    throw e;
+                }
 
                 // FIXME
                 // NOTE
@@ -929,34 +1479,32 @@ UnexpectedExceptionHandler.TrackedModule {
                 // So, user may think like "During handling user-request, DB may updated."
                 // At this moment, let's ignore this race-condition.
                 // If issued case is found, let's consider it at the moment.
-                if (0 > (itemDbD.id = mDb.insertItem(buildNewItemContentValues(itemParD, itemDbD))))
+                if (!mDb.insertItems(cvs, nr, ids)) {
+                    for (int i = 0; i < nr; i++) {
+                        if (null != files[i])
+                            files[i].delete();
+                    }
                     throw new FeederException(Err.DB_UNKNOWN);
-                // Invalidate cached value.
-                synchronized (mMaxIdCache) {
-                    mMaxIdCache.put(cid, itemDbD.id);
                 }
-
-                if (null != idop && null != f) {
-                    // NOTE
-                    // At this moment, race-condition can be issued.
-                    // But, as I mentioned above, it's not harmful and very rare case.
-                    if (!ContentsManager.get().addItemContent(f, itemDbD.id))
-                        f.delete();
+                // Now we know item id here.
+                for (int i = 0; i < nr; i++) {
+                    if (null != files[i]) {
+                        // NOTE
+                        // At this moment, race-condition can be issued.
+                        // But, as I mentioned above, it's not harmful and very rare case.
+                        if (!ContentsManager.get().addItemContent(files[i], ids[i]))
+                            files[i].delete();
+                    }
                 }
-            } catch (FeederException e) {
-                if (Err.DB_UNKNOWN == e.getError())
-                    throw e;
-                ; // if feeder fails to get item data, just ignore it!
+                nrInserted += nr;
             }
-            checkDelayedChannelUpdate();
-            checkInterrupted();
+        } finally {
+            if (nrInserted > 0)
+                notifyNewItemsUpdated(cid, nrInserted);
         }
         if (DBG) P.v("DBPolicy : new " + newItems.size() + " items are inserted");
         mDb.updateChannel(cid, ColumnChannel.LASTUPDATE, new Date().getTime());
 
-        if (newItems.size() > 0)
-            notifyNewItemsUpdated(cid, newItems.size());
-
         if (DBG) P.v("UpdateChannel DB Section End");
         return 0;
     }
@@ -978,15 +1526,61 @@ UnexpectedExceptionHandler.TrackedModule {
                 || ColumnChannel.POSITION == column
                 || ColumnChannel.STATE == column
                 || ColumnChannel.NRITEMS_SOFTMAX == column);
-        return mDb.updateChannel(cid, column, value);
+        long r = mDb.updateChannel(cid, column, value);
+        refreshChannelSnapshot(cid);
+        return r;
     }
 
+    /**
+     * Save validators of feed that is fetched and applied to DB successfully.
+     * They are used for conditional GET at next update.
+     * @param cid
+     * @param etag
+     *   empty string if server doesn't give it.
+     * @param lastModified
+     *   empty string if server doesn't give it.
+     * @param bodyHash
+     * @return
+     */
     public long
-    updateChannel(long cid, ColumnChannel column, byte[] data) {
-        // Fields those are allowed to be updated.
-        eAssert(ColumnChannel.IMAGEBLOB == column);
+    updateChannel_validators(long cid, String etag, String lastModified, long bodyHash) {
+        ContentValues cvs = new ContentValues();
+        cvs.put(ColumnChannel.ETAG.getName(),         etag);
+        cvs.put(ColumnChannel.LASTMODIFIED.getName(), lastModified);
+        cvs.put(ColumnChannel.BODYHASH.getName(),     bodyHash);
+        long r = mDb.updateChannel(cid, cvs);
+        refreshChannelSnapshot(cid);
+        return r;
+    }
+
+    /**
+     * Feed is not changed since last update. So, update is skipped.
+     * Channel is regarded as updated at this moment.
+     * @param cid
+     * @return
+     */
+    public long
+    updateChannel_notModified(long cid) {
+        ContentValues cvs = new ContentValues();
+        cvs.put(ColumnChannel.LASTUPDATE.getName(),    new Date().getTime());
+        cvs.put(ColumnChannel.NRNOTMODIFIED.getName(),
+                getChannelInfoLong(cid, ColumnChannel.NRNOTMODIFIED) + 1);
+        long r = mDb.updateChannel(cid, cvs);
+        refreshChannelSnapshot(cid);
+        return r;
+    }
+
+    /**
+     * Update image of channel.
+     * @param cid
+     * @param data
+     *   compressed image data. (empty array to remove image.)
+     * @return
+     */
+    public long
+    updateChannel_image(long cid, byte[] data) {
         mChannImgCache.remove(cid);
-        return mDb.updateChannel(cid, ColumnChannel.IMAGEBLOB, data);
+        return mDb.updateChannelImage(cid, data);
     }
 
     /**
@@ -1003,6 +1597,8 @@ UnexpectedExceptionHandler.TrackedModule {
             return 0;
         mDb.updateChannel(cid0, ColumnChannel.POSITION, pos1);
         mDb.updateChannel(cid1, ColumnChannel.POSITION, pos0);
+        refreshChannelSnapshot(cid0);
+        refreshChannelSnapshot(cid1);
         return 2;
     }
 
@@ -1030,7 +1626,9 @@ UnexpectedExceptionHandler.TrackedModule {
         // verify values SECONDS_OF_DAY
         for (long s : secs)
             eAssert(0 <= s && s <= Utils.DAY_IN_SEC);
-        return mDb.updateChannel(cid, ColumnChannel.SCHEDUPDATETIME, Utils.nrsToNString(secs));
+        long r = mDb.updateChannel(cid, ColumnChannel.SCHEDUPDATETIME, Utils.nrsToNString(secs));
+        refreshChannelSnapshot(cid);
+        return r;
     }
 
     /**
@@ -1050,22 +1648,24 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     public void
     updateChannel_lastItemIds(long[] cids) {
+        HashMap<Long, ChannelStat> stats = getChannelStats();
         Long[] whereValues = Utils.convertArraylongToLong(cids);
         Long[] targetValues = new Long[cids.length];
-        for (int i = 0; i < whereValues.length; i++)
-            targetValues[i] = getItemInfoMaxId(whereValues[i]);
+        for (int i = 0; i < whereValues.length; i++) {
+            ChannelStat stat = stats.get(whereValues[i]);
+            targetValues[i] = (null == stat)? 0: stat.maxItemId;
+        }
 
         mDb.updateChannelSet(ColumnChannel.OLDLAST_ITEMID, targetValues,
                              ColumnChannel.ID, whereValues);
+        for (long cid : cids)
+            refreshChannelSnapshot(cid);
         notifyLastItemIdUpdated(cids);
     }
 
     public int
     getChannelCount() {
-        Cursor c = queryChannel(ColumnChannel.ID);
-        int cnt = c.getCount();
-        c.close();
-        return cnt;
+        return getChannelSnapshot().cids.length;
     }
 
     /**
@@ -1142,7 +1742,10 @@ UnexpectedExceptionHandler.TrackedModule {
             cols[i] = ColumnChannel.ID;
         for (long cid : cids)
             ContentsManager.get().removeChannelDir(cid);
-        return mDb.deleteChannelOR(cols, Utils.convertArraylongToLong(cids));
+        long r = mDb.deleteChannelOR(cols, Utils.convertArraylongToLong(cids));
+        invalidateChannelSnapshot();
+        mItemRowCache.invalidateAll();
+        return r;
     }
 
     /**
@@ -1151,16 +1754,8 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     public long[]
     getChannelIds() {
-        Cursor c = queryChannel(ColumnChannel.ID);
-        long[] cids = new long[c.getCount()];
-        if (c.moveToFirst()) {
-            int i = 0;
-            do {
-                cids[i++] = c.getLong(0);
-            } while (c.moveToNext());
-        }
-        c.close();
-        return cids;
+        // snapshot SHOULD NOT be modified.
+        return getChannelSnapshot().cids.clone();
     }
 
     /**
@@ -1170,31 +1765,132 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     public long[]
     getChannelIds(long categoryid) {
-        Cursor c = mDb.queryChannel(new ColumnChannel[] { ColumnChannel.ID },
-                                    ColumnChannel.CATEGORYID, categoryid,
+        ChannelSnapshot snap = getChannelSnapshot();
+        int nr = 0;
+        long[] cids = new long[snap.cids.length];
+        for (long cid : snap.cids) {
+            Long catid = (Long)snap.get(cid, ColumnChannel.CATEGORYID);
+            if (null != catid && categoryid == catid)
+                cids[nr++] = cid;
+        }
+        return Arrays.copyOf(cids, nr);
+    }
+
+    private byte[]
+    getChannelImageblob(long cid) {
+        byte[] blob = new byte[0];
+        Cursor c = mDb.queryChannelImage(cid);
+        if (c.moveToFirst())
+            blob = c.getBlob(0);
+        c.close();
+        return blob;
+    }
+
+    /**
+     * Load snapshot of whole channel table from DB.
+     * @return
+     */
+    private ChannelSnapshot
+    loadChannelSnapshot() {
+        Cursor c = mDb.queryChannel(ChannelSnapshot.sCols,
+                                    (ColumnChannel[])null, null,
                                     null, false, 0);
+        final int idI = ColumnChannel.ID.ordinal();
         long[] cids = new long[c.getCount()];
+        HashMap<Long, Object[]> rows = new HashMap<Long, Object[]>(cids.length * 2);
         if (c.moveToFirst()) {
             int i = 0;
             do {
-                cids[i++] = c.getLong(0);
+                cids[i] = c.getLong(idI);
+                rows.put(cids[i], getCursorValues(c));
+                i++;
             } while (c.moveToNext());
         }
         c.close();
+        return new ChannelSnapshot(cids, rows);
+    }
 
-        return cids;
+    /**
+     * Get current channel snapshot.
+     * Snapshot is loaded from DB if needed.
+     * @return
+     */
+    private ChannelSnapshot
+    getChannelSnapshot() {
+        ChannelSnapshot snap = mChannSnapshot;
+        if (null != snap)
+            return snap;
+
+        long gen;
+        synchronized (mChannSnapshotLock) {
+            gen = mChannSnapshotGen;
+        }
+        // Loaded outside lock. (See comment of mChannSnapshotLock)
+        snap = loadChannelSnapshot();
+        synchronized (mChannSnapshotLock) {
+            // If channel table is changed while loading, loaded one may be stale.
+            // It is still valid for this caller. But it SHOULD NOT be kept.
+            if (gen == mChannSnapshotGen
+                && null == mChannSnapshot)
+                mChannSnapshot = snap;
+        }
+        return snap;
     }
 
-    private byte[]
-    getChannelImageblob(long cid) {
-        byte[] blob = new byte[0];
-        Cursor c = mDb.queryChannel(new ColumnChannel[] { ColumnChannel.IMAGEBLOB },
+    /**
+     * Snapshot will be reloaded at next access.
+     */
+    void
+    invalidateChannelSnapshot() {
+        synchronized (mChannSnapshotLock) {
+            mChannSnapshotGen++;
+            mChannSnapshot = null;
+        }
+    }
+
+    /**
+     * Replace snapshot with new one in which given channel row is re-read from DB.
+     * @param cid
+     */
+    private void
+    refreshChannelSnapshot(long cid) {
+        ChannelSnapshot snap;
+        synchronized (mChannSnapshotLock) {
+            mChannSnapshotGen++;
+            snap = mChannSnapshot;
+        }
+        if (null == snap)
+            return; // will be reloaded at next access.
+
+        // Row is read outside lock. (See comment of mChannSnapshotLock)
+        Cursor c = mDb.queryChannel(ChannelSnapshot.sCols,
                                     ColumnChannel.ID, cid,
                                     null, false, 0);
-        if (c.moveToFirst())
-            blob = c.getBlob(0);
+        Object[] row = c.moveToFirst()? getCursorValues(c): null;
         c.close();
-        return blob;
+
+        synchronized (mChannSnapshotLock) {
+            if (snap != mChannSnapshot) {
+                // Snapshot is changed while reading row.
+                // Row read here may be older than one at current snapshot.
+                mChannSnapshot = null;
+                return;
+            }
+
+            Object[] oldRow = snap.rows.get(cid);
+            final int posI = ColumnChannel.POSITION.ordinal();
+            if (null == oldRow
+                || null == row
+                || !oldRow[posI].equals(row[posI])) {
+                // channel is added/removed or order of channels is changed.
+                mChannSnapshot = null;
+                return;
+            }
+
+            HashMap<Long, Object[]> rows = new HashMap<Long, Object[]>(snap.rows);
+            rows.put(cid, row);
+            mChannSnapshot = new ChannelSnapshot(snap.cids, rows);
+        }
     }
 
     /**
@@ -1205,14 +1901,7 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     private Object
     getChannelInfoObject(long cid, ColumnChannel column) {
-        Cursor c = mDb.queryChannel(new ColumnChannel[] { column },
-                                    ColumnChannel.ID, cid,
-                                    null, false, 0);
-        Object ret = null;
-        if (c.moveToFirst())
-            ret = getCursorValue(c, 0);
-        c.close();
-        return ret;
+        return getChannelSnapshot().get(cid, column);
     }
 
     public Long
@@ -1236,19 +1925,15 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     public String[]
     getChannelInfoStrings(long cid, ColumnChannel[] columns) {
-        Cursor c = mDb.queryChannel(columns,
-                                    ColumnChannel.ID, cid,
-                                    null, false, 0);
-        if (!c.moveToFirst()) {
-            c.close();
+        ChannelSnapshot snap = getChannelSnapshot();
+        if (null == snap.rows.get(cid))
             return null;
-        }
-        eAssert(c.getColumnCount() == columns.length);
-        String[] v = new String[columns.length];
-        for (int i = 0; i < c.getColumnCount(); i++)
-            v[i] = c.getString(i);
 
-        c.close();
+        String[] v = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            Object o = snap.get(cid, columns[i]);
+            v[i] = null == o? null: o.toString();
+        }
         return v;
     }
 
@@ -1261,14 +1946,16 @@ UnexpectedExceptionHandler.TrackedModule {
     public long
     getChannelInfoMaxLong(ColumnChannel column) {
         eAssert(column.getType().equals("integer"));
-        Cursor c = mDb.queryChannelMax(column);
-        if (!c.moveToFirst()) {
-            c.close();
-            return 0;
+        ChannelSnapshot snap = getChannelSnapshot();
+        long max = 0;
+        boolean first = true;
+        for (long cid : snap.cids) {
+            Long v = (Long)snap.get(cid, column);
+            if (null != v && (first || v > max)) {
+                max = v;
+                first = false;
+            }
         }
-
-        long max = c.getLong(0);
-        c.close();
         return max;
     }
 
@@ -1284,6 +1971,83 @@ UnexpectedExceptionHandler.TrackedModule {
         return mChannImgCache.get(cid);
     }
 
+    /**
+     * Load images of given channels into cache in advance at background.
+     * Images are loaded in order of given channels.
+     * Prefetching is stopped when total decoded size of loaded images reaches half of cache size.
+     * (Prefetching SHOULD NOT evict images that are already used by others.)
+     * @param cids
+     *   usually, channels in the visible channel list.
+     */
+    public void
+    prefetchChannelImagesAsync(final long[] cids) {
+        mAsyncHandler.post(new Runnable() {
+            @Override
+            public void
+            run() {
+                int budget = mChannImgCache.maxSize() / 2;
+                int loaded = 0;
+                for (long cid : cids) {
+                    Bitmap bm = mChannImgCache.get(cid);
+                    if (null != bm)
+                        loaded += bm.getByteCount();
+                    if (loaded >= budget
+                        || Thread.currentThread().isInterrupted())
+                        break;
+                }
+                if (DBG) P.v("Channel image prefetched : " + loaded + " bytes");
+            }
+        });
+    }
+
+    private static ChannelStat
+    buildChannelStat(Cursor c) {
+        return new ChannelStat(c.getLong(0), c.getLong(1), c.getLong(2), c.getLong(3));
+    }
+
+    /**
+     * Get item counters of all channels at once.
+     * @return
+     *   Key : channel id
+     */
+    public HashMap<Long, ChannelStat>
+    getChannelStats() {
+        Cursor c = mDb.queryChannelStat(sChannelStatCols, -1);
+        HashMap<Long, ChannelStat> stats = new HashMap<Long, ChannelStat>();
+        if (c.moveToFirst()) {
+            do {
+                ChannelStat stat = buildChannelStat(c);
+                stats.put(stat.cid, stat);
+            } while (c.moveToNext());
+        }
+        c.close();
+        return stats;
+    }
+
+    /**
+     * Get item counters of channel.
+     * @param cid
+     * @return
+     *   null if there is no channel.
+     */
+    public ChannelStat
+    getChannelStat(long cid) {
+        Cursor c = mDb.queryChannelStat(sChannelStatCols, cid);
+        ChannelStat stat = null;
+        if (c.moveToFirst())
+            stat = buildChannelStat(c);
+        c.close();
+        return stat;
+    }
+
+    /**
+     * Recompute item counters of all channels from item table.
+     */
+    public void
+    repairChannelStats() {
+        mDb.repairChannelStats();
+    }
+
     /**
      * Get number items belonging to the given channel.
      * @param cid
@@ -1291,45 +2055,20 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     public int
     getChannelInfoNrItems(long cid) {
-        Cursor c = mDb.queryItemCount(ColumnItem.ID,
-                                      ColumnItem.CHANNELID, cid);
-        if (!c.moveToFirst())
-            eAssert(false);
-
-        int ret = c.getInt(0);
-        c.close();
-        return ret;
+        ChannelStat stat = getChannelStat(cid);
+        return (null == stat)? 0: (int)stat.nrItems;
     }
 
-    // NOTE
-    // This function takes much longer time than expected.
-    // So, cache should be used to improve it!
     /**
      * Get maximum value of item id of given channel.
      * @param cid
      * @return
+     *   0 if there is no item.
      */
     public long
     getItemInfoMaxId(long cid) {
-        synchronized (mMaxIdCache) {
-            Long v = mMaxIdCache.get(cid);
-            if (null != v)
-                return v;
-        }
-
-        Cursor c = mDb.queryItemIds(cid, 1);
-        if (!c.moveToFirst())
-            return 0; // there is no item!
-        // Why?
-        // Order of result generated by this query is 'descending order by ID'.
-        // So, this one is last item id.
-        long lastId = c.getLong(0);
-        c.close();
-
-        synchronized (mMaxIdCache) {
-            mMaxIdCache.put(cid, lastId);
-        }
-        return lastId;
+        ChannelStat stat = getChannelStat(cid);
+        return (null == stat)? 0: stat.maxItemId;
     }
 
     /**
@@ -1378,6 +2117,7 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     public long
     getItemMinPubtime(ColumnItem where, long mask, long value) {
+        flushItemStatesIfQueried(where);
         long v = -1;
         Cursor c = mDb.queryItemMinMax(where, mask, value, ColumnItem.PUBTIME, false);
         if (c.moveToFirst())
@@ -1386,8 +2126,59 @@ UnexpectedExceptionHandler.TrackedModule {
         return v;
     }
 
+    /**
+     * Read cached columns of item.
+     * @param id
+     * @return
+     *   null if there is no item.
+     */
+    private Object[]
+    getItemRow(long id) {
+        Object[] row = mItemRowCache.get(id);
+        if (null != row)
+            return row;
+
+        long gen = mItemRowCache.generation();
+        Cursor c = mDb.queryItemAND(sItemRowCacheCols,
+                                    new ColumnItem[] { ColumnItem.ID },
+                                    new Object[] { id },
+                                    0);
+        if (c.moveToFirst()) {
+            row = getCursorValues(c);
+            mItemRowCache.put(gen, id, row);
+        }
+        c.close();
+        return row;
+    }
+
+    /**
+     * Every read of item state SHOULD check pending states first.
+     * Otherwise, stale state is read until pending states are flushed.
+     * @param id
+     * @return
+     *   null if state of item is not pending.
+     */
+    private Long
+    getPendingState(long id) {
+        synchronized (mPendingStates) {
+            return mPendingStates.get(id);
+        }
+    }
+
     private Object
     getItemInfoObject(long id, ColumnItem column) {
+        if (ColumnItem.STATE == column) {
+            Long state = getPendingState(id);
+            if (null != state)
+                return state;
+        }
+
+        int i = mItemRowCache.indexOf(column);
+        if (i >= 0) {
+            Object[] row = getItemRow(id);
+            return null == row? null: row[i];
+        }
+
         Cursor c = mDb.queryItemAND(new ColumnItem[] { column },
                                     new ColumnItem[] { ColumnItem.ID },
                                     new Object[] { id },
@@ -1419,20 +2210,36 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     public String[]
     getItemInfoStrings(long id, ColumnItem[] columns) {
-        Cursor c = mDb.queryItemAND(columns,
-                                    new ColumnItem[] { ColumnItem.ID },
-                                    new Object[] { id },
-                                    0);
-        if (!c.moveToFirst()) {
+        String[] v;
+        if (mItemRowCache.isCached(columns)) {
+            Object[] row = getItemRow(id);
+            if (null == row)
+                return null;
+            v = getRowStrings(mItemRowCache, row, columns);
+        } else {
+            Cursor c = mDb.queryItemAND(columns,
+                                        new ColumnItem[] { ColumnItem.ID },
+                                        new Object[] { id },
+                                        0);
+            if (!c.moveToFirst()) {
+                c.close();
+                return null;
+            }
+            eAssert(c.getColumnCount() == columns.length);
+            v = new String[columns.length];
+            for (int i = 0; i < c.getColumnCount(); i++)
+                v[i] = c.getString(i);
+
             c.close();
-            return null;
         }
-        eAssert(c.getColumnCount() == columns.length);
-        String[] v = new String[columns.length];
-        for (int i = 0; i < c.getColumnCount(); i++)
-            v[i] = c.getString(i);
 
-        c.close();
+        for (int i = 0; i < columns.length; i++) {
+            if (ColumnItem.STATE == columns[i]) {
+                Long state = getPendingState(id);
+                if (null != state)
+                    v[i] = state.toString();
+            }
+        }
         return v;
     }
 
@@ -1488,6 +2295,7 @@ UnexpectedExceptionHandler.TrackedModule {
 
     /**
      * Query item information belonging to given channels.
+     * In case of searching, result is ordered by rank of search result.
      * @param cids
      * @param columns
      * @param search
@@ -1510,8 +2318,7 @@ UnexpectedExceptionHandler.TrackedModule {
         return mDb.queryItemOR(columns,
                                cols,
                                null != cids? Utils.convertArraylongToLong(cids): null,
-                               new ColumnItem[] { ColumnItem.TITLE, ColumnItem.DESCRIPTION },
-                               null == search? null: new String[] { search, search },
+                               search, true,
                                fromPubtime, toPubtime,
                                0, true);
     }
@@ -1544,12 +2351,60 @@ UnexpectedExceptionHandler.TrackedModule {
     queryItemMask(ColumnItem[] columns,
                   ColumnItem where, long mask, long value,
                   String search, long fromPubtime, long toPubtime) {
+        flushItemStatesIfQueried(where);
         return mDb.queryItemMask(columns, where, mask, value,
-                                 new ColumnItem[] { ColumnItem.TITLE, ColumnItem.DESCRIPTION },
-                                 new String[] { search, search },
+                                 search, true,
                                  fromPubtime, toPubtime, true);
     }
 
+    /**
+     * Query one page of items. See {@link ItemPageQuery}.
+     * @param q
+     * @param columns
+     *   SHOULD include ColumnItem.ID and ColumnItem.PUBTIME to get key of page.
+     * @param key
+     *   key of item adjacent to the page. (Not included in the page)
+     *   null for first page(older == true) or last page(older == false).
+     * @param older
+     *   true : items older than key. false : items newer than key (in reversed order).
+     * @param limit
+     * @return
+     */
+    public Cursor
+    queryItemPage(ItemPageQuery q, ColumnItem[] columns,
+                  ItemPageQuery.Key key, boolean older, int limit) {
+        flushItemStatesIfQueried(q.maskWhere);
+        return mDb.queryItemPage(columns, q, key, older, limit);
+    }
+
+    /**
+     * Query one page of items at given position.
+     * This is slow at large offset. So, use this only when key of page is unknown.
+     * @param q
+     * @param columns
+     * @param offset
+     * @param limit
+     * @return
+     */
+    public Cursor
+    queryItemPage(ItemPageQuery q, ColumnItem[] columns, int offset, int limit) {
+        flushItemStatesIfQueried(q.maskWhere);
+        return mDb.queryItemPage(columns, q, offset, limit);
+    }
+
+    /**
+     * Get number of items matching with page query.
+     * @param q
+     * @param limit
+     *   counting stops at this value - approximate count. ( <= 0) means "exact count".
+     * @return
+     */
+    public int
+    getItemPageCount(ItemPageQuery q, int limit) {
+        flushItemStatesIfQueried(q.maskWhere);
+        return (int)mDb.queryItemPageCount(q, limit);
+    }
+
 
     /**
      * Update state value of item.
@@ -1560,24 +2415,199 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     public long
     updateItem_state(long id, long state) {
-        // Update item during 'updating channel' is not expected!!
-        return mDb.updateItem(id, ColumnItem.STATE, state);
+        // NOTE
+        // State is written via pending states to keep order with pending change of same item.
+        synchronized (mPendingStates) {
+            mPendingStates.put(id, state);
+        }
+        return flushItemStates();
     }
 
     /**
-     * See {@link DBPolicy#updateItem_state(long, long)}
+     * Change state of item lazily. (write-behind)
+     * New state is visible via getItemInfoXXX immediately.
+     * But, it is written to DB later together with other state changes, in one transaction.
+     * (See {@link DBPolicy#flushItemStates()})
      * @param id
      * @param state
+     */
+    public void
+    updateItemAsync_state(long id, long state) {
+        Long old = getItemInfoLong(id, ColumnItem.STATE);
+        if (null != old && old == state)
+            return;
+
+        int nr;
+        synchronized (mPendingStates) {
+            mPendingStates.put(id, state);
+            nr = mPendingStates.size();
+        }
+
+        if (nr >= STATE_FLUSH_SIZE) {
+            mAsyncHandler.removeCallbacks(mStateFlushRunnable);
+            mAsyncHandler.post(mStateFlushRunnable);
+        } else if (1 == nr)
+            // Flush is scheduled by the first pending state.
+            // So, state is written in STATE_FLUSH_DELAY even if states are changed continuously.
+            mAsyncHandler.postDelayed(mStateFlushRunnable, STATE_FLUSH_DELAY);
+    }
+
+    /**
+     * Write all pending item states to DB in one transaction.
+     * This SHOULD be called when process may be killed soon. (ex. low memory, going to background)
+     * NOTE
+     * In case of process kill(or crash), pending states are lost.
+     * But, DB always has all or nothing of each flush. (Never some of them.)
      * @return
+     *   number of items changed.
+     */
+    public int
+    flushItemStates() {
+        synchronized (mStateFlushLock) {
+            long[] ids;
+            long[] states;
+            synchronized (mPendingStates) {
+                if (mPendingStates.isEmpty())
+                    return 0;
+                ids = new long[mPendingStates.size()];
+                states = new long[ids.length];
+                int i = 0;
+                for (Map.Entry<Long, Long> e : mPendingStates.entrySet()) {
+                    ids[i] = e.getKey();
+                    states[i] = e.getValue();
+                    i++;
+                }
+            }
+
+            // Update item during 'updating channel' is not expected!!
+            int r = mDb.updateItemStates(ids, states);
+            boolean leftover;
+            synchronized (mPendingStates) {
+                for (int i = 0; i < ids.length; i++) {
+                    // Cache SHOULD be invalidated before pending state is removed.
+                    // Otherwise, stale cached state may be read.
+                    mItemRowCache.invalidate(ids[i]);
+                    // State may be changed again while flushing.
+                    Long state = mPendingStates.get(ids[i]);
+                    if (null != state && state == states[i])
+                        mPendingStates.remove(ids[i]);
+                }
+                leftover = !mPendingStates.isEmpty();
+            }
+            if (leftover) {
+                // States changed while flushing are not scheduled by updateItemAsync_state.
+                // (Flush is scheduled only by the first pending state.)
+                mAsyncHandler.removeCallbacks(mStateFlushRunnable);
+                mAsyncHandler.postDelayed(mStateFlushRunnable, STATE_FLUSH_DELAY);
+            }
+            // Updating item doesn't issue DB notification.
+            scheduleIdleCheckpoint();
+            if (DBG) P.v("Item states flushed : " + ids.length);
+            return r;
+        }
+    }
+
+    /**
+     * Flush pending item states at background.
+     * This SHOULD be used instead of {@link #flushItemStates()} at UI thread.
+     * (Flush may wait for other DB transaction.)
      */
     public void
-    updateItemAsync_state(final long id, final long state) {
+    flushItemStatesAsync() {
+        mAsyncHandler.removeCallbacks(mStateFlushRunnable);
+        mAsyncHandler.post(mStateFlushRunnable);
+    }
+
+    /**
+     * Items queried by state SHOULD reflect pending states.
+     * @param where
+     *   column used as mask query. null if it's not mask query.
+     */
+    private void
+    flushItemStatesIfQueried(ColumnItem where) {
+        if (ColumnItem.STATE == where)
+            flushItemStates();
+    }
+
+    /**
+     * Set bits of state of all items matching with query.
+     * Items are changed by one UPDATE statement in one transaction,
+     *   and only one DB notification(ITEM_TABLE) is issued.
+     * @param q
+     * @param mask
+     *   see Feed.Item.MSTATxxx values
+     * @param value
+     *   see Feed.Item.FSTATxxx values
+     * @return
+     *   number of items changed.
+     */
+    public int
+    updateItems_state(ItemPageQuery q, long mask, long value) {
+        // Pending states are older than this change.
+        flushItemStates();
+        int r = mDb.updateItemsState(q, mask, value);
+        mItemRowCache.invalidateAll();
+        return r;
+    }
+
+    /**
+     * See {@link DBPolicy#updateItems_state(ItemPageQuery, long, long)}
+     * @param ids
+     * @param mask
+     * @param value
+     * @return
+     */
+    public int
+    updateItems_state(long[] ids, long mask, long value) {
+        flushItemStates();
+        int r = mDb.updateItemsState(ids, mask, value);
+        mItemRowCache.invalidateAll();
+        return r;
+    }
+
+    /**
+     * Mark items of channels as opened.
+     * @param cids
+     *   null for all channels.
+     * @param beforePubtime
+     *   only items published before this time are marked. (< 0) means all items.
+     * @return
+     *   number of items changed.
+     */
+    public int
+    markItems_opened(long[] cids, long beforePubtime) {
+        ItemPageQuery q = (beforePubtime < 0)? ItemPageQuery.channels(cids, -1, -1)
+                                             : ItemPageQuery.channels(cids, 0, beforePubtime - 1);
+        return updateItems_state(q, Feed.Item.MSTAT_OPEN, Feed.Item.FSTAT_OPEN_OPENED);
+    }
+
+    /**
+     * See {@link DBPolicy#markItems_opened(long[], long)}
+     * @param cids
+     * @param beforePubtime
+     */
+    public void
+    markItemsAsync_opened(final long[] cids, final long beforePubtime) {
         mAsyncHandler.post(new Runnable() {
             @Override
             public void run() {
-                long old = getItemInfoLong(id, ColumnItem.STATE);
-                if (old != state)
-                    updateItem_state(id, state);
+                markItems_opened(cids, beforePubtime);
+            }
+        });
+    }
+
+    /**
+     * See {@link DBPolicy#updateItems_state(long[], long, long)}
+     * @param ids
+     * @param mask
+     * @param value
+     */
+    public void
+    updateItemsAsync_state(final long[] ids, final long mask, final long value) {
+        mAsyncHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                updateItems_state(ids, mask, value);
             }
         });
     }
@@ -1591,12 +2621,16 @@ UnexpectedExceptionHandler.TrackedModule {
      */
     public long
     deleteItem(ColumnItem where, Object value) {
-        return mDb.deleteItem(where, value);
+        long r = mDb.deleteItem(where, value);
+        mItemRowCache.invalidateAll();
+        return r;
     }
 
     public long
     deleteItemOR(ColumnItem[] wheres, Object[] values) {
-        return mDb.deleteItemOR(wheres, values);
+        long r = mDb.deleteItemOR(wheres, values);
+        mItemRowCache.invalidateAll();
+        return r;
     }
 
     // ===============================================
@@ -1605,18 +2639,76 @@ UnexpectedExceptionHandler.TrackedModule {
     //
     // ===============================================
     /**
-     *
+     * Get publish time of N-th latest item of channel.
      * @param cid
-     *   channel id to delete old items.
-     *   '-1' means 'for all channel'.
-     * @param percent
-     *   percent to delete.
+     *   '< 0' means 'items of all channels'.
+     * @param n
+     *   '0' means latest one.
+     * @return
+     *   -1 if channel has less than or equal to 'n' items.
+     */
+    public long
+    getItemInfoPubTimeAt(long cid, long n) {
+        return mDb.queryItemPubTimeAt(cid, n);
+    }
+
+    /**
+     * Get ids of non-favorite items whose publish time is older than given time.
+     * Oldest one comes first.
+     * @param cid
+     * @param pubtime
+     * @param keepNew
+     *   true to exclude items not recognized by user yet. (See ColumnChannel.OLDLAST_ITEMID)
+     * @param limit
+     * @return
+     */
+    public long[]
+    getOldItemIds(long cid, long pubtime, boolean keepNew, int limit) {
+        // Favorite state may be in pending states.
+        flushItemStates();
+        return mDb.queryOldItemIds(cid, pubtime, keepNew, limit);
+    }
+
+    /**
+     * Items are deleted in one DB transaction.
+     * So, caller SHOULD keep number of ids small to avoid blocking other DB access.
+     * @param ids
      * @return
      *   number of items deleted
      */
     public int
-    deleteOldItems(long cid, int percent) {
-        return mDb.deleteOldItems(cid, percent);
+    deleteItems(long[] ids) {
+        // Item may become favorite after ids are selected.
+        // And pending state of deleted item SHOULD NOT be written.
+        flushItemStates();
+        int r = mDb.deleteItems(ids);
+        for (long id : ids)
+            mItemRowCache.invalidate(id);
+        return r;
+    }
+
+    /**
+     * Get bytes of DB file that is not used. (Usually, pages freed by deleting rows.)
+     * @return
+     */
+    public long
+    getFreePageBytes() {
+        return mDb.queryFreePageBytes();
+    }
+
+    /**
+     * Get space usage of DB file and statistics of reclaiming free pages.
+     * @return
+     */
+    public SpaceStat
+    getSpaceStat() {
+        return new SpaceStat(mDb.queryPageSize(),
+                             mDb.queryPageCount(),
+                             mDb.queryFreePageCount(),
+                             mDb.isIncrementalVacuum(),
+                             mVacuumReclaimedBytes,
+                             mVacuumNrSteps,
+                             mVacuumMaxStepTime);
     }
 
     // ===============================================
@@ -0,0 +1,288 @@
+/******************************************************************************
+ * Copyright (C) 2012, 2013, 2014
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of FeedHive
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.feeder.db;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import free.yhc.feeder.model.Utils;
+
+// Copy consistent snapshot of live database to another database file.
+// Source connection holds one read transaction while copying.
+// With write-ahead logging, writers are not blocked by this read transaction.
+// So, DB can be used as usual while snapshot is being copied.
+//
+// NOTE
+// SQLite backup API and 'VACUUM INTO' are not available at SQLite of this platform.
+// So, rows are copied table by table (with rowid) instead of pages.
+// Result is same with the source at the moment the read transaction is started.
+public final class DBSnapshot {
+    private static final boolean DBG = false;
+    private static final Utils.Logger P = new Utils.Logger(DBSnapshot.class);
+
+    // Number of rows read at once.
+    private static final int ROWS_PER_STEP = 256;
+
+    public interface OnProgress {
+        /**
+         * @param percent
+         *   0 - 100
+         */
+        void onProgress(int percent);
+    }
+
+    private DBSnapshot() { }
+
+    private static HashSet<String>
+    getTableNames(SQLiteDatabase db) {
+        HashSet<String> names = new HashSet<String>();
+        Cursor c = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'", null);
+        if (c.moveToFirst()) {
+            do {
+                names.add(c.getString(0));
+            } while (c.moveToNext());
+        }
+        c.close();
+        return names;
+    }
+
+    private static String[]
+    getColumnNames(SQLiteDatabase db, String table) {
+        Cursor c = db.rawQuery("SELECT * FROM " + table + " LIMIT 0", null);
+        String[] cols = c.getColumnNames();
+        c.close();
+        return cols;
+    }
+
+    private static void
+    bindColumn(SQLiteStatement stmt, int index, Cursor c, int ci) {
+        switch (c.getType(ci)) {
+        case Cursor.FIELD_TYPE_NULL:    stmt.bindNull(index);                   break;
+        case Cursor.FIELD_TYPE_INTEGER: stmt.bindLong(index, c.getLong(ci));    break;
+        case Cursor.FIELD_TYPE_FLOAT:   stmt.bindDouble(index, c.getDouble(ci)); break;
+        case Cursor.FIELD_TYPE_BLOB:    stmt.bindBlob(index, c.getBlob(ci));    break;
+        default:                        stmt.bindString(index, c.getString(ci));
+        }
+    }
+
+    /**
+     * Copy rows of table in rowid order.
+     * @return
+     *   number of rows copied.
+     */
+    private static long
+    copyTable(SQLiteDatabase src, SQLiteDatabase dst, String table,
+              long nrDone, long nrTotal, OnProgress progress) {
+        String[] cols = getColumnNames(src, table);
+        StringBuilder sbldr = new StringBuilder("INSERT INTO " + table + " (rowid");
+        for (String col : cols)
+            sbldr.append(", ").append(col);
+        sbldr.append(") VALUES (?");
+        for (int i = 0; i < cols.length; i++)
+            sbldr.append(", ?");
+        sbldr.append(")");
+
+        SQLiteStatement stmt = dst.compileStatement(sbldr.toString());
+        long nr = 0;
+        try {
+            long lastRowid = Long.MIN_VALUE;
+            int nrRows;
+            do {
+                Cursor c = src.rawQuery("SELECT rowid, * FROM " + table
+                                        + " WHERE rowid > ? ORDER BY rowid LIMIT " + ROWS_PER_STEP,
+                                        new String[] { String.valueOf(lastRowid) });
+                nrRows = c.getCount();
+                if (c.moveToFirst()) {
+                    do {
+                        stmt.clearBindings();
+                        for (int ci = 0; ci <= cols.length; ci++)
+                            bindColumn(stmt, ci + 1, c, ci);
+                        stmt.executeInsert();
+                        lastRowid = c.getLong(0);
+                    } while (c.moveToNext());
+                }
+                c.close();
+                nr += nrRows;
+                if (null != progress && nrTotal > 0)
+                    progress.onProgress((int)((nrDone + nr) * 100 / nrTotal));
+            } while (ROWS_PER_STEP == nrRows);
+        } finally {
+            stmt.close();
+        }
+        return nr;
+    }
+
+    private static void
+    copyAll(SQLiteDatabase src, SQLiteDatabase dst, OnProgress progress) {
+        // Tables created when database is opened. (ex. android_metadata)
+        HashSet<String> preset = getTableNames(dst);
+
+        ArrayList<String> tables = new ArrayList<String>();
+        ArrayList<String> postSQLs = new ArrayList<String>();
+        Cursor c = src.rawQuery("SELECT type, name, sql FROM sqlite_master"
+                                + " WHERE sql NOT NULL AND name NOT LIKE 'sqlite_%'"
+                                + " ORDER BY rowid",
+                                null);
+        if (c.moveToFirst()) {
+            do {
+                String type = c.getString(0);
+                String name = c.getString(1);
+                String sql = c.getString(2);
+                if (!"table".equals(type)) {
+                    // Indexes and triggers are created after copying rows.
+                    // (Triggers SHOULD NOT be fired by copying rows.)
+                    postSQLs.add(sql);
+                    continue;
+                }
+
+                if (preset.contains(name))
+                    continue;
+
+                // NOTE
+                // Creating virtual table creates its shadow tables too.
+                // And shadow tables come after virtual table at 'sqlite_master'.
+                if (!getTableNames(dst).contains(name))
+                    dst.execSQL(sql);
+
+                // Rows of virtual table are copied via its shadow tables.
+                if (!sql.toUpperCase().startsWith("CREATE VIRTUAL"))
+                    tables.add(name);
+            } while (c.moveToNext());
+        }
+        c.close();
+
+        long nrTotal = 0;
+        for (String table : tables)
+            nrTotal += DatabaseUtils.longForQuery(src, "SELECT COUNT(*) FROM " + table, null);
+
+        long nrDone = 0;
+        for (String table : tables) {
+            nrDone += copyTable(src, dst, table, nrDone, nrTotal, progress);
+            if (DBG) P.v("Table copied : " + table + " : " + nrDone + "/" + nrTotal);
+        }
+
+        // Keep AUTOINCREMENT values. Otherwise ids of deleted items may be reused.
+        if (getTableNames(src).contains("sqlite_sequence")) {
+            dst.execSQL("DELETE FROM sqlite_sequence");
+            copyTable(src, dst, "sqlite_sequence", 0, 0, null);
+        }
+
+        for (String sql : postSQLs)
+            dst.execSQL(sql);
+
+        dst.setVersion(src.getVersion());
+    }
+
+    /**
+     * Start deferred transaction. It becomes read transaction by first read, and never blocks writers.
+     * NOTE
+     * SQLiteDatabase.beginTransaction() and beginTransactionNonExclusive() start
+     *   'BEGIN EXCLUSIVE' and 'BEGIN IMMEDIATE'. Both block other writers, and fail at read-only connection.
+     * And from API 16, raw 'BEGIN' given to execSQL() is changed to 'BEGIN EXCLUSIVE' by framework.
+     * So, SAVEPOINT - starts deferred transaction if there is no transaction - is used at API 16+.
+     * @param src
+     */
+    private static void
+    beginReadTransaction(SQLiteDatabase src) {
+        // 16 : Build.VERSION_CODES.JELLY_BEAN (Not available at target SDK of this project.)
+        if (Build.VERSION.SDK_INT < 16)
+            src.execSQL("BEGIN DEFERRED;");
+        else
+            src.execSQL("SAVEPOINT snapshot;");
+    }
+
+    private static void
+    endReadTransaction(SQLiteDatabase src) {
+        if (Build.VERSION.SDK_INT < 16)
+            src.execSQL("END;");
+        else
+            src.execSQL("RELEASE snapshot;");
+    }
+
+    /**
+     * Copy snapshot of database to file.
+     * File is replaced only when whole snapshot is copied successfully.
+     * @param src
+     *   read-only connection used only for this copy. Read transaction is started at this connection.
+     * @param outf
+     * @param progress
+     *   called at background (caller's) context. Can be null.
+     * @return
+     */
+    static boolean
+    copy(SQLiteDatabase src, File outf, OnProgress progress) {
+        File tmpf = new File(outf.getAbsolutePath() + "-snapshot");
+        tmpf.delete();
+
+        SQLiteDatabase dst = null;
+        boolean ret = false;
+        beginReadTransaction(src);
+        try {
+            dst = SQLiteDatabase.openOrCreateDatabase(tmpf, null);
+            dst.beginTransaction();
+            try {
+                copyAll(src, dst, progress);
+                dst.setTransactionSuccessful();
+            } finally {
+                dst.endTransaction();
+            }
+            ret = true;
+        } catch (SQLiteException e) {
+            if (DBG) P.w("Fail to copy snapshot : " + e.getMessage());
+        } finally {
+            endReadTransaction(src);
+            if (null != dst)
+                dst.close();
+        }
+
+        if (ret) {
+            outf.delete();
+            ret = tmpf.renameTo(outf);
+        }
+
+        if (!ret)
+            tmpf.delete();
+        return ret;
+    }
+}
@@ -0,0 +1,188 @@
+/******************************************************************************
+ * Copyright (C) 2012, 2013, 2014
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of FeedHive
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.feeder.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import android.database.Cursor;
+import free.yhc.feeder.model.Utils;
+
+// Compressed representation of item description.
+// Description(usually HTML) is the largest column of item table.
+// So, long description is stored as zlib stream at ColumnItem.DESCRIPTION_Z
+//   and ColumnItem.DESCRIPTION is left empty.
+// Empty(or NULL) DESCRIPTION_Z means "description is not compressed".
+//
+// NOTE
+// Full text search index keeps its own text of description. (See indexText)
+// So, search doesn't need decompressing description.
+// But, copy of whole description at index would take most of space saved by compressing.
+// So, only leading part of text - without HTML tags - is indexed.
+public final class ItemDescription {
+    private static final boolean DBG = false;
+    private static final Utils.Logger P = new Utils.Logger(ItemDescription.class);
+
+    private static final String CHARSET = "UTF-8";
+    // Gain of compressing short description is too small.
+    static final int MIN_COMPRESS_BYTES = 128;
+    // Maximum number of characters of description indexed by full text search.
+    // Leading part of description usually has summary of item.
+    static final int MAX_INDEX_CHARS = 512;
+
+    private static final Pattern sTagPattern    = Pattern.compile("<[^>]*>");
+    private static final Pattern sEntityPattern = Pattern.compile("&#?[a-zA-Z0-9]+;");
+    private static final Pattern sSpacePattern  = Pattern.compile("\\s+");
+
+    private ItemDescription() { }
+
+    public static boolean
+    isCompressed(byte[] z) {
+        return null != z && z.length > 0;
+    }
+
+    /**
+     * @param desc
+     * @return
+     *   null if description is not worth compressing.
+     */
+    static byte[]
+    compress(String desc) {
+        if (null == desc)
+            return null;
+
+        byte[] in;
+        try {
+            in = desc.getBytes(CHARSET);
+        } catch (UnsupportedEncodingException e) {
+            return null;
+        }
+
+        if (in.length < MIN_COMPRESS_BYTES)
+            return null;
+
+        Deflater def = new Deflater();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(in.length / 2);
+        byte[] buf = new byte[4096];
+        try {
+            def.setInput(in);
+            def.finish();
+            while (!def.finished()) {
+                int n = def.deflate(buf);
+                bos.write(buf, 0, n);
+            }
+        } finally {
+            def.end();
+        }
+
+        // Keep plain text if compressed one is not smaller enough. (less than 90%)
+        if (bos.size() * 10 >= in.length * 9)
+            return null;
+        return bos.toByteArray();
+    }
+
+    /**
+     * @param z
+     *   compressed description.
+     * @return
+     *   empty string if fails.
+     */
+    public static String
+    decompress(byte[] z) {
+        Inflater inf = new Inflater();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(z.length * 3);
+        byte[] buf = new byte[4096];
+        try {
+            inf.setInput(z);
+            while (!inf.finished()) {
+                int n = inf.inflate(buf);
+                if (0 == n && (inf.needsInput() || inf.needsDictionary()))
+                    break; // Broken stream.
+                bos.write(buf, 0, n);
+            }
+            return bos.toString(CHARSET);
+        } catch (DataFormatException e) {
+            if (DBG) P.w("Broken description : " + e.getMessage());
+        } catch (UnsupportedEncodingException e) {
+            if (DBG) P.w("Unexpected : " + e.getMessage());
+        } finally {
+            inf.end();
+        }
+        return "";
+    }
+
+    /**
+     * Get text of description indexed by full text search.
+     * HTML tags and entities are removed, and text is cut at {@link #MAX_INDEX_CHARS}.
+     * @param desc
+     * @return
+     */
+    static String
+    indexText(String desc) {
+        if (null == desc)
+            return "";
+        String text = sTagPattern.matcher(desc).replaceAll(" ");
+        text = sEntityPattern.matcher(text).replaceAll(" ");
+        text = sSpacePattern.matcher(text).replaceAll(" ").trim();
+        if (text.length() > MAX_INDEX_CHARS) {
+            int end = MAX_INDEX_CHARS;
+            // Don't break surrogate pair.
+            if (Character.isHighSurrogate(text.charAt(end - 1)))
+                end--;
+            text = text.substring(0, end);
+        }
+        return text;
+    }
+
+    /**
+     * Get description of item at current cursor position.
+     * Cursor SHOULD have both ColumnItem.DESCRIPTION and ColumnItem.DESCRIPTION_Z.
+     * @param c
+     * @return
+     */
+    public static String
+    get(Cursor c) {
+        byte[] z = c.getBlob(c.getColumnIndex(ColumnItem.DESCRIPTION_Z.getName()));
+        if (isCompressed(z))
+            return decompress(z);
+        return c.getString(c.getColumnIndex(ColumnItem.DESCRIPTION.getName()));
+    }
+}
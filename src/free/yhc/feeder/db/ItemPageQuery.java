@@ -0,0 +1,122 @@
+/******************************************************************************
+ * Copyright (C) 2012, 2013, 2014
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of FeedHive
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.feeder.db;
+
+// Condition of item query used for keyset paging.
+// Items are ordered by (pubtime DESC, _id DESC).
+// And page is located by key - (pubtime, _id) - of item adjacent to the page.
+// So, rows before the page are not read at all.
+// (Unlike moving cursor position, that makes SQLite read all rows before the position.)
+public final class ItemPageQuery {
+    // null if items are not filtered by channel.
+    final long[]        cids;
+    // null if items are not filtered by mask.
+    final ColumnItem    maskWhere;
+    final long          mask;
+    final long          maskValue;
+    // See DB.buildSQLWherePubtime
+    final long          fromPubtime;
+    final long          toPubtime;
+
+    // Key of item in page order.
+    public static final class Key {
+        public final long pubtime;
+        public final long id;
+
+        public Key(long aPubtime, long aId) {
+            pubtime = aPubtime;
+            id = aId;
+        }
+
+        @Override
+        public boolean
+        equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key)o;
+            return pubtime == k.pubtime && id == k.id;
+        }
+
+        @Override
+        public int
+        hashCode() {
+            return (int)(id ^ (id >>> 32));
+        }
+    }
+
+    private ItemPageQuery(long[] aCids,
+                          ColumnItem aMaskWhere, long aMask, long aMaskValue,
+                          long aFromPubtime, long aToPubtime) {
+        cids = aCids;
+        maskWhere = aMaskWhere;
+        mask = aMask;
+        maskValue = aMaskValue;
+        fromPubtime = aFromPubtime;
+        toPubtime = aToPubtime;
+    }
+
+    /**
+     * Items belonging to given channels.
+     * @param cids
+     *   null for all items.
+     * @param fromPubtime
+     * @param toPubtime
+     * @return
+     */
+    public static ItemPageQuery
+    channels(long[] cids, long fromPubtime, long toPubtime) {
+        return new ItemPageQuery(null == cids? null: cids.clone(),
+                                 null, 0, 0,
+                                 fromPubtime, toPubtime);
+    }
+
+    /**
+     * Items whose (where & mask) is same with value.
+     * @param where
+     * @param mask
+     * @param value
+     * @param fromPubtime
+     * @param toPubtime
+     * @return
+     */
+    public static ItemPageQuery
+    mask(ColumnItem where, long mask, long value, long fromPubtime, long toPubtime) {
+        return new ItemPageQuery(null,
+                                 where, mask, value,
+                                 fromPubtime, toPubtime);
+    }
+}
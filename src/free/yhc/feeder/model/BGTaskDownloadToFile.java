@@ -50,7 +50,7 @@ public class BGTaskDownloadToFile extends BGTask<BGTaskDownloadToFile.Arg, Objec
     public static class Arg {
         final String url;
         final File   toFile;
-        final File   tempFile;
+        final File   tempFile; // null if download is resumable.
 
         public Arg(String aUrl, File aToFile, File aTempFile) {
             eAssert(null != aUrl && null != aToFile && null != aTempFile);
@@ -58,6 +58,17 @@ public class BGTaskDownloadToFile extends BGTask<BGTaskDownloadToFile.Arg, Objec
             toFile = aToFile;
             tempFile = aTempFile;
         }
+
+        /**
+         * Resumable download.
+         * See {@link NetLoader#downloadToFileResumable(String, File, NetLoader.OnProgress)}
+         */
+        public Arg(String aUrl, File aToFile) {
+            eAssert(null != aUrl && null != aToFile);
+            url = aUrl;
+            toFile = aToFile;
+            tempFile = null;
+        }
     }
 
     private boolean
@@ -85,18 +96,20 @@ public class BGTaskDownloadToFile extends BGTask<BGTaskDownloadToFile.Arg, Objec
         mLoader = new NetLoader();
 
         Err result = Err.NO_ERR;
+        // Progress of resumed download starts from resumed position.
+        NetLoader.OnProgress progress = new NetLoader.OnProgress() {
+            @Override
+            public void
+            onProgress(NetLoader loader, long prog) {
+                mProgress = (int)prog;
+                publishProgress(mProgress);
+            }
+        };
         try {
-            mLoader.downloadToFile(arg.url,
-                                   arg.tempFile,
-                                   arg.toFile,
-                                   new NetLoader.OnProgress() {
-                @Override
-                public void
-                onProgress(NetLoader loader, long prog) {
-                    mProgress = (int)prog;
-                    publishProgress(mProgress);
-                }
-            });
+            if (null == arg.tempFile)
+                mLoader.downloadToFileResumable(arg.url, arg.toFile, progress);
+            else
+                mLoader.downloadToFile(arg.url, arg.tempFile, arg.toFile, progress);
         } catch (FeederException e) {
             result = e.getError();
         }
@@ -42,8 +42,7 @@ public class BGTaskDownloadToItemContent extends BGTaskDownloadToFile {
     private long mId;
     public BGTaskDownloadToItemContent(String url, long id) {
         super(new Arg(url,
-                      ContentsManager.get().getItemInfoDataFile(id),
-                      Utils.getNewTempFile()));
+                      ContentsManager.get().getItemInfoDataFile(id)));
         mId = id;
     }
 
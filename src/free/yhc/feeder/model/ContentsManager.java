@@ -39,6 +39,7 @@ package free.yhc.feeder.model;
 import static free.yhc.feeder.model.Utils.eAssert;
 
 import java.io.File;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -217,8 +218,12 @@ UnexpectedExceptionHandler.TrackedModule {
         String title = dbp.getChannelInfoString(cid, ColumnChannel.TITLE);
         if (!Utils.isValidValue(title))
             return null;
-        String fname = Utils.convertToFilename(title) + "_" + cid;
-        return Environ.get().getAppRootDirectoryPath() + fname + "/";
+        return Environ.get().getAppRootDirectoryPath() + getChannelDirName(title, cid) + "/";
+    }
+
+    private static String
+    getChannelDirName(String title, long cid) {
+        return Utils.convertToFilename(title) + "_" + cid;
     }
 
     private static File
@@ -424,6 +429,34 @@ UnexpectedExceptionHandler.TrackedModule {
         }
     }
 
+    /**
+     * Get item data files in channel directory under given root directory.
+     * This is used to find contents of other database. (ex. merging database of other device.)
+     * @param root
+     *   directory having channel directories. (Usually, app root directory of other device.)
+     * @param title
+     *   channel title at other database.
+     * @param cid
+     *   channel id at other database.
+     * @return
+     *   key : item id at other database. Empty if there is no channel directory.
+     */
+    public HashMap<Long, File>
+    getItemContentFiles(File root, String title, long cid) {
+        HashMap<Long, File> m = new HashMap<Long, File>();
+        if (!Utils.isValidValue(title))
+            return m;
+        File[] fs = new File(root, getChannelDirName(title, cid)).listFiles();
+        if (null == fs)
+            return m;
+        for (File f : fs) {
+            long id = getIdFromContentFileName(f.getName());
+            if (f.isFile() && id >= 0)
+                m.put(id, f);
+        }
+        return m;
+    }
+
     public boolean
     addItemContent(File f, long id) {
         File itemContentFile = ContentsManager.get().getItemInfoDataFile(id);
@@ -453,6 +486,32 @@ UnexpectedExceptionHandler.TrackedModule {
         return failcnt;
     }
 
+    /**
+     * Delete data files of given items if exist.
+     * Unlike {@link #deleteItemContents(long[])}, items that don't have data file are ignored.
+     * @param ids
+     * @return
+     *   bytes of deleted files.
+     */
+    public long
+    deleteItemContentsIfExist(long ids[]) {
+        long bytes = 0;
+        LinkedList<Long> l = new LinkedList<Long>();
+        for (long id : ids) {
+            File f = getItemInfoDataFile(id);
+            if (null == f || !f.exists())
+                continue;
+            long len = f.length();
+            if (f.delete()) {
+                bytes += len;
+                l.add(id);
+            }
+        }
+        if (!l.isEmpty())
+            notifyUpdated(UpdateType.ITEM_DATA, Utils.convertArrayLongTolong(l.toArray(new Long[0])));
+        return bytes;
+    }
+
     public boolean
     deleteItemContent(long id) {
         // NOTE
@@ -70,6 +70,7 @@ UnexpectedExceptionHandler.TrackedModule {
 
     private String mAppRootDir;
     private File   mAppTempDirFile;
+    private File   mAppPartialDirFile;
     private File   mAppLogDirFile;
     private File   mAppErrLogFile;
     private File   mAppUsageLogFile;
@@ -125,6 +126,7 @@ UnexpectedExceptionHandler.TrackedModule {
         return "[ Environ ]"
                + "App root dir  : " + mAppRootDir + "\n"
                + "App temp dir  : " + mAppTempDirFile.getAbsolutePath() + "\n"
+               + "App part dir  : " + mAppPartialDirFile.getAbsolutePath() + "\n"
                + "App log dir   : " + mAppLogDirFile.getAbsolutePath() + "\n"
                + "App err file  : " + mAppErrLogFile.getAbsolutePath() + "\n"
                + "App usage file: " + mAppUsageLogFile.getAbsolutePath() + "\n";
@@ -153,6 +155,10 @@ UnexpectedExceptionHandler.TrackedModule {
 
         mAppTempDirFile = new File(mAppRootDir + "temp/");
         mAppTempDirFile.mkdirs();
+        // Partial files of download are kept across process restarts.
+        // So, they SHOULD NOT be in temp directory.
+        mAppPartialDirFile = new File(mAppRootDir + "partial/");
+        mAppPartialDirFile.mkdirs();
         mAppLogDirFile = new File(mAppRootDir + "log/");
         mAppLogDirFile.mkdirs();
         mAppErrLogFile = new File(mAppLogDirFile.getAbsoluteFile() + "/last_error");
@@ -173,6 +179,11 @@ UnexpectedExceptionHandler.TrackedModule {
         return mAppTempDirFile;
     }
 
+    public File
+    getPartialDirFile() {
+        return mAppPartialDirFile;
+    }
+
     public File
     getErrLogFile() {
         return mAppErrLogFile;
@@ -65,6 +65,11 @@ public class Feed {
 
         public static final long FSTAT_DEFAULT = FSTAT_OPEN_DEFAULT | FSTAT_FAV_DEFAULT;
 
+        // All bits used as state flag.
+        // NOTE
+        // New state flag SHOULD be added here too! (DB query depends on this.)
+        public static final long MSTAT_ALL     = MSTAT_OPEN | MSTAT_FAV;
+
         public static final boolean
         isStateOpenNew(long flag) {
             return bitIsSet(flag, FSTAT_OPEN_NEW, MSTAT_OPEN);
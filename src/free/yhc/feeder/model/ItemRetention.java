@@ -0,0 +1,295 @@
+/******************************************************************************
+ * Copyright (C) 2012, 2013, 2014
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of FeedHive
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.feeder.model;
+
+import static free.yhc.feeder.model.Utils.eAssert;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import free.yhc.feeder.db.ColumnChannel;
+import free.yhc.feeder.db.DB;
+import free.yhc.feeder.db.DBPolicy;
+
+//
+// Item retention
+//
+// Old items are deleted to keep DB small.
+// - Number of items of channel is limited to ColumnChannel.NRITEMS_SOFTMAX.
+// - Items older than max age (preference) are deleted.
+// - Favorite items are never deleted.
+// Items are deleted by small chunk to avoid holding DB write lock for long time.
+//
+public class ItemRetention implements
+UnexpectedExceptionHandler.TrackedModule {
+    private static final boolean DBG = false;
+    private static final Utils.Logger P = new Utils.Logger(ItemRetention.class);
+
+    // Retention runs when new item is not inserted during this time.
+    private static final long   IDLE_DELAY          = 60 * 1000; // 1 min.
+    // Number of items deleted in one DB transaction.
+    private static final int    DELETE_CHUNK        = 50;
+    // Maximum number of items deleted at one (automatic) run.
+    // Remaining items are deleted at next run.
+    private static final int    MAX_ITEMS_PER_RUN   = 1000;
+
+    private static final long   DAY_IN_MS           = 24L * 60 * 60 * 1000;
+
+    private static ItemRetention sInstance = null;
+
+    private final DBPolicy          mDbp = DBPolicy.get();
+    private final ContentsManager   mCm  = ContentsManager.get();
+    private final Handler           mHandler;
+
+    // Set when new items are inserted while retention is running.
+    // Running retention stops at next chunk and is scheduled again.
+    private volatile boolean        mInterrupted = false;
+    // Only for dumping.
+    private volatile Report         mLastReport = null;
+
+    private final Runnable mRunnable = new Runnable() {
+        @Override
+        public void
+        run() {
+            mInterrupted = false;
+            Report r = retain(mDbp.getChannelIds(), -1, false, MAX_ITEMS_PER_RUN, true);
+            if (DBG) P.v("Retention : " + r.toString());
+        }
+    };
+
+    private final ListenerManager.Listener mDbUpdatedListener = new ListenerManager.Listener() {
+        @Override
+        public void
+        onNotify(Object user, ListenerManager.Type type, Object arg0, Object arg1) {
+            // Only inserting new items can make channel exceed it's limit.
+            if (DB.UpdateType.ITEM_TABLE == type
+                && Boolean.TRUE.equals(arg0))
+                schedule();
+        }
+    };
+
+    /**
+     * Result of one retention run.
+     */
+    public static class Report {
+        // number of items deleted.
+        public int  nrItems     = 0;
+        // bytes of item data files deleted.
+        public long fileBytes   = 0;
+        // bytes of DB pages freed.
+        public long dbBytes     = 0;
+        public long time        = 0; // ms.
+        public boolean interrupted = false;
+
+        @Override
+        public String
+        toString() {
+            return "items(" + nrItems + ") files(" + fileBytes + " bytes) db(" + dbBytes + " bytes) "
+                   + "time(" + time + " ms)" + (interrupted? " interrupted": "");
+        }
+    }
+
+    private ItemRetention() {
+        UnexpectedExceptionHandler.get().registerModule(this);
+        HandlerThread hThread = new HandlerThread("ItemRetention", Process.THREAD_PRIORITY_BACKGROUND);
+        hThread.start();
+        mHandler = new Handler(hThread.getLooper());
+        mDbp.registerUpdatedListener(mDbUpdatedListener, DB.UpdateType.ITEM_TABLE.flag());
+        // Items may be over the limit. (ex. limit is changed at preference.)
+        schedule();
+    }
+
+    public static ItemRetention
+    get() {
+        if (null == sInstance)
+            sInstance = new ItemRetention();
+        return sInstance;
+    }
+
+    @Override
+    public String
+    dump(UnexpectedExceptionHandler.DumpLevel lv) {
+        Report r = mLastReport;
+        return "[ ItemRetention ]\n"
+               + "  Last run : " + (null == r? "none": r.toString()) + "\n";
+    }
+
+    private void
+    schedule() {
+        mInterrupted = true;
+        mHandler.removeCallbacks(mRunnable);
+        mHandler.postDelayed(mRunnable, IDLE_DELAY);
+    }
+
+    /**
+     * Delete non-favorite items of channel whose publish time is older than given time.
+     * @param cid
+     * @param pubtime
+     * @param keepNew
+     *   true to keep items not recognized by user yet. (See ColumnChannel.OLDLAST_ITEMID)
+     * @param budget
+     *   maximum number of items to delete.
+     * @param stoppable
+     *   true if deleting can be stopped by inserting new items.
+     * @param r
+     *   result is accumulated here.
+     * @return
+     *   number of items deleted.
+     */
+    private int
+    deleteOldItems(long cid, long pubtime, boolean keepNew, int budget, boolean stoppable, Report r) {
+        int nr = 0;
+        while (nr < budget) {
+            if (stoppable && mInterrupted) {
+                r.interrupted = true;
+                break;
+            }
+
+            long[] ids = mDbp.getOldItemIds(cid, pubtime, keepNew, Math.min(DELETE_CHUNK, budget - nr));
+            if (0 == ids.length)
+                break;
+
+            // Data file path is decided by item information at DB.
+            // So, files SHOULD be deleted before deleting items from DB.
+            r.fileBytes += mCm.deleteItemContentsIfExist(ids);
+            int deleted = mDbp.deleteItems(ids);
+            nr += deleted;
+            if (deleted < ids.length)
+                // Someone else deletes items at the same time. Stop here to avoid infinite loop.
+                break;
+        }
+        r.nrItems += nr;
+        return nr;
+    }
+
+    /**
+     *
+     * @param cids
+     * @param cutoff
+     *   '< 0' means 'use retention policy - NRITEMS_SOFTMAX and max age'.
+     *   Otherwise, items whose publish time is older than this are deleted.
+     * @param keepNew
+     *   true to keep items not recognized by user yet.
+     *   NOTE
+     *   Retention policy SHOULD NOT keep them. Channel never opened by user doesn't have
+     *     recognized items at all. So, it would grow without limit.
+     * @param budget
+     *   maximum number of items to delete at this run.
+     * @param stoppable
+     * @return
+     */
+    private Report
+    retain(long[] cids, long cutoff, boolean keepNew, int budget, boolean stoppable) {
+        Report r = new Report();
+        long startTime = System.currentTimeMillis();
+        long freeBytes = mDbp.getFreePageBytes();
+
+        long ageLimit = -1;
+        int maxAge = Utils.getPrefItemMaxAge();
+        if (cutoff < 0 && maxAge > 0)
+            ageLimit = startTime - maxAge * DAY_IN_MS;
+
+        for (long cid : cids) {
+            if (r.nrItems >= budget
+                || r.interrupted)
+                break;
+
+            // Items older than this, are deleted.
+            long pubtime = cutoff;
+            if (cutoff < 0) {
+                Long softmax = mDbp.getChannelInfoLong(cid, ColumnChannel.NRITEMS_SOFTMAX);
+                if (null == softmax)
+                    continue; // channel is already deleted.
+                pubtime = Math.max(mDbp.getItemInfoPubTimeAt(cid, softmax), ageLimit);
+            }
+
+            if (pubtime < 0)
+                continue;
+
+            deleteOldItems(cid, pubtime, keepNew, budget - r.nrItems, stoppable, r);
+        }
+
+        r.dbBytes = mDbp.getFreePageBytes() - freeBytes;
+        if (r.dbBytes < 0)
+            // Free pages may be reused by other DB writes at the same time.
+            r.dbBytes = 0;
+        r.time = System.currentTimeMillis() - startTime;
+        mLastReport = r;
+
+        // If run is interrupted, next run is already scheduled by item insertion.
+        // If budget is exhausted, remaining items are handled at next run.
+        if (r.nrItems >= budget)
+            schedule();
+        return r;
+    }
+
+    /**
+     * Delete old items by percent.
+     * Like previous versions, percent is of items of given channel, or of whole DB if 'cid < 0'.
+     * Items older than publish time of item at that position are deleted.
+     * (So, in case of whole DB, channel having older items loses more items.)
+     * NOTE
+     * Unlike previous versions, favorite items and items user hasn't recognized yet
+     *   (See ColumnChannel.OLDLAST_ITEMID) are NOT deleted. Even if percent is 100.
+     * This is synchronous and takes long time. So, DO NOT call at UI thread.
+     * @param cid
+     *   '< 0' means 'for all channels'.
+     * @param percent
+     *   percent of items to delete. (0 ~ 100)
+     * @return
+     */
+    public Report
+    shrink(long cid, int percent) {
+        eAssert(0 <= percent && percent <= 100);
+        if (0 == percent)
+            return new Report();
+
+        long pubtime = Long.MAX_VALUE;
+        if (percent < 100) {
+            long nrItems = 0;
+            if (cid < 0) {
+                for (DBPolicy.ChannelStat stat : mDbp.getChannelStats().values())
+                    nrItems += stat.nrItems;
+            } else
+                nrItems = mDbp.getChannelInfoNrItems(cid);
+            pubtime = mDbp.getItemInfoPubTimeAt(cid, nrItems - nrItems * percent / 100);
+            if (pubtime < 0)
+                return new Report();
+        }
+        long[] cids = cid < 0? mDbp.getChannelIds(): new long[] { cid };
+        return retain(cids, pubtime, true, Integer.MAX_VALUE, false);
+    }
+}
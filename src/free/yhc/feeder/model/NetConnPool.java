@@ -0,0 +1,272 @@
+/******************************************************************************
+ * Copyright (C) 2012, 2013, 2014
+ * Younghyung Cho. <yhcting77@gmail.com>
+ * All rights reserved.
+ *
+ * This file is part of FeedHive
+ *
+ * This program is licensed under the FreeBSD license
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are
+ * met:
+ *
+ * 1. Redistributions of source code must retain the above copyright
+ *    notice, this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright
+ *    notice, this list of conditions and the following disclaimer in the
+ *    documentation and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * OWNER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation
+ * are those of the authors and should not be interpreted as representing
+ * official policies, either expressed or implied, of the FreeBSD Project.
+ *****************************************************************************/
+
+package free.yhc.feeder.model;
+
+import java.io.IOException;
+import java.net.URLConnection;
+import java.util.HashMap;
+
+//
+// Process-wide HTTP connection management.
+//
+// Platform HTTP client (HttpURLConnection) already has process-wide keep-alive connection pool.
+// Connection is returned to the pool when response body is read to the end and stream is closed.
+// (NOT 'disconnect()'. It may close socket.)
+// This module
+// - configures platform connection pool.
+// - limits number of concurrent connections to one host.
+// - collects statistics about connecting time.
+//
+// NOTE
+// DNS lookups are NOT cached by this module.
+// Android's InetAddress keeps its own short-lived cache, and ignores 'networkaddress.cache.ttl'.
+// And HttpURLConnection doesn't allow connecting with address resolved in advance.
+// (Replacing host of URL with address breaks 'Host' header and certificate check of HTTPS.)
+// Reusing keep-alive connection skips DNS lookup anyway.
+//
+public class NetConnPool implements
+UnexpectedExceptionHandler.TrackedModule {
+    private static final boolean DBG = false;
+    private static final Utils.Logger P = new Utils.Logger(NetConnPool.class);
+
+    // Maximum number of idle connections kept at pool for one host.
+    // More connections than maximum concurrent connections to one host are useless.
+    private static final int    MAX_IDLE_CONNS_PER_HOST = 4;
+    // Idle connection is evicted from the pool after this time.
+    // (Platform pool doesn't evict idle connections by time at some old versions.
+    //  In this case, stale connection is detected and dropped when it is reused.)
+    private static final long   KEEP_ALIVE_DURATION = 60 * 1000; // ms
+    // 'connect()' done in this time is counted as 'fast connect'.
+    // NOTE
+    // This is just heuristic hint of reused connection - platform doesn't tell whether connection is reused.
+    // Handshake at fast LAN may be counted, and reusing at busy device may not be counted.
+    private static final long   FAST_CONNECT_THRESHOLD = 3; // ms
+
+    private static NetConnPool sInstance = null;
+
+    // Number of connections being used, per host.
+    // Entry is removed when there is no connection being used. So, map doesn't grow.
+    // Guarded by 'mHosts'
+    private final HashMap<String, Integer> mHosts = new HashMap<String, Integer>();
+
+    // Statistics. Guarded by 'this'
+    private long    mNrConnects         = 0;
+    private long    mNrFastConnects     = 0;
+    private long    mSlowConnectTime    = 0; // sum of time of connects not fast (ms)
+    private long    mSlowConnectTimeMax = 0; // ms
+    private long    mNrWaits            = 0; // number of waits due to per-host limit.
+    private long    mWaitTime           = 0; // ms
+
+    /**
+     * Snapshot of statistics.
+     */
+    public static class Stats {
+        public long nrConnects;
+        // Connects done in FAST_CONNECT_THRESHOLD. (Heuristic. NOT exact number of reused connections.)
+        public long nrFastConnects;
+        public long slowConnectTime;    // ms. Sum of time of connects not fast.
+        public long slowConnectTimeMax; // ms
+        public long nrWaits;
+        public long waitTime;           // ms
+
+        /**
+         * @return
+         *   ratio of fast connects (0 - 1)
+         */
+        public float
+        fastConnectRatio() {
+            return (0 == nrConnects)? 0: (float)nrFastConnects / nrConnects;
+        }
+
+        /**
+         * @return
+         *   average time of connects not fast. (ms)
+         */
+        public long
+        avgSlowConnectTime() {
+            long nrSlow = nrConnects - nrFastConnects;
+            return (0 == nrSlow)? 0: slowConnectTime / nrSlow;
+        }
+
+        @Override
+        public String
+        toString() {
+            return "connects(" + nrConnects + ") "
+                   + "fast(< " + FAST_CONNECT_THRESHOLD + " ms)(" + nrFastConnects + ", "
+                   + (int)(fastConnectRatio() * 100) + "%) "
+                   + "slow(avg " + avgSlowConnectTime() + " ms, max " + slowConnectTimeMax + " ms) "
+                   + "waits(" + nrWaits + ", " + waitTime + " ms)";
+        }
+    }
+
+    private NetConnPool() {
+        UnexpectedExceptionHandler.get().registerModule(this);
+        // NOTE
+        // Platform HTTP client reads these properties when it is used at first.
+        // So, this module SHOULD be initialized before any network access.
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(MAX_IDLE_CONNS_PER_HOST));
+        System.setProperty("http.keepAliveDuration", String.valueOf(KEEP_ALIVE_DURATION));
+    }
+
+    public static NetConnPool
+    get() {
+        if (null == sInstance)
+            sInstance = new NetConnPool();
+        return sInstance;
+    }
+
+    @Override
+    public String
+    dump(UnexpectedExceptionHandler.DumpLevel lv) {
+        String hosts;
+        synchronized (mHosts) {
+            hosts = mHosts.toString();
+        }
+        return "[ NetConnPool ]\n"
+               + "  " + getStats().toString() + "\n"
+               + "  Hosts in use : " + hosts + "\n";
+    }
+
+    /**
+     * Get slot to connect to host.
+     * If number of connections being used for the host reaches limit, caller waits until one is released.
+     * @param host
+     * @param timeout
+     *   maximum time to wait (ms).
+     * @return
+     *   false if slot is not available in given time.
+     * @throws InterruptedException
+     */
+    boolean
+    acquire(String host, long timeout) throws InterruptedException {
+        host = host.toLowerCase();
+        long start = System.currentTimeMillis();
+        boolean ret = false;
+        boolean waited = false;
+        synchronized (mHosts) {
+            while (true) {
+                Integer nr = mHosts.get(host);
+                // Limit is read every time. So, changing preference is applied immediately.
+                if (null == nr
+                    || nr < Utils.getPrefMaxNrConnPerHost()) {
+                    mHosts.put(host, (null == nr)? 1: nr + 1);
+                    ret = true;
+                    break;
+                }
+
+                long remain = timeout - (System.currentTimeMillis() - start);
+                if (remain <= 0)
+                    break;
+                waited = true;
+                mHosts.wait(remain);
+            }
+        }
+
+        if (waited) {
+            synchronized (this) {
+                mNrWaits++;
+                mWaitTime += System.currentTimeMillis() - start;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Release slot got by {@link #acquire(String, long)}
+     * @param host
+     */
+    void
+    release(String host) {
+        host = host.toLowerCase();
+        synchronized (mHosts) {
+            Integer nr = mHosts.get(host);
+            if (null == nr) {
+                if (DBG) P.w("Release unacquired host : " + host);
+                return;
+            }
+            if (nr <= 1)
+                mHosts.remove(host);
+            else
+                mHosts.put(host, nr - 1);
+            mHosts.notifyAll();
+        }
+    }
+
+    /**
+     * Connect. (See {@link URLConnection#connect()})
+     * Time taken to connect is recorded to statistics.
+     * @param conn
+     * @throws IOException
+     */
+    void
+    connect(URLConnection conn) throws IOException {
+        long start = System.currentTimeMillis();
+        conn.connect();
+        long time = System.currentTimeMillis() - start;
+        boolean fast = time < FAST_CONNECT_THRESHOLD;
+        synchronized (this) {
+            mNrConnects++;
+            if (fast)
+                mNrFastConnects++;
+            else {
+                mSlowConnectTime += time;
+                if (time > mSlowConnectTimeMax)
+                    mSlowConnectTimeMax = time;
+            }
+        }
+        if (DBG) P.v("Connect : " + time + " ms" + (fast? " (fast) : ": " : ") + conn.getURL().getHost());
+    }
+
+    /**
+     * @return
+     *   snapshot of statistics since process is started.
+     */
+    public Stats
+    getStats() {
+        Stats s = new Stats();
+        synchronized (this) {
+            s.nrConnects = mNrConnects;
+            s.nrFastConnects = mNrFastConnects;
+            s.slowConnectTime = mSlowConnectTime;
+            s.slowConnectTimeMax = mSlowConnectTimeMax;
+            s.nrWaits = mNrWaits;
+            s.waitTime = mWaitTime;
+        }
+        return s;
+    }
+}
@@ -39,18 +39,26 @@ package free.yhc.feeder.model;
 import static free.yhc.feeder.model.Utils.eAssert;
 
 import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -69,13 +77,41 @@ public class NetLoader {
 
     private static final int NET_RETRY = 3;
     private static final int NET_CONN_TIMEOUT = 5000;
+    // Buffer size of decompressing stream.
+    private static final int DECODE_BUFSZ = 16 * 1024;
+    // Interval to check cancel while waiting connection slot of host.
+    private static final int CONN_SLOT_POLL = 500; // ms
+    // Maximum bytes read to reach end of content not consumed by parser.
+    // Connection can be reused only if content is read to the end.
+    private static final int DRAIN_MAX = 64 * 1024;
+    // Not defined at HttpURLConnection.
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+    // Meta file of partial content is '<partial file><suffix>'
+    private static final String PARTIAL_META_SUFFIX = ".meta";
+    private static final String META_URL        = "url";
+    private static final String META_VALIDATOR = "validator";
 
-    private final DBPolicy  mDbp = DBPolicy.get();
+    // URLs whose partial files are being written.
+    // Guarded by itself.
+    private static final HashSet<String> sPartialInUse = new HashSet<String>();
+
+    private final DBPolicy      mDbp = DBPolicy.get();
+    private final NetConnPool   mPool = NetConnPool.get();
 
     private volatile boolean        mCancelled = false;
     private volatile InputStream    mIstream = null; // Multi-thread access
     private volatile OutputStream   mOstream = null;
+    // Raw stream from network. (Under decompressing stream.)
+    private volatile CountingInputStream mWireIn = null;
     private volatile File           mTmpFile = null;
+    // Host whose connection slot is held by this loader. Guarded by 'this'.
+    private String                  mConnHost = null;
+
+    // Statistics of last fetch.
+    // Bytes received from network. (Compressed size if content is compressed.)
+    private volatile long           mWireBytes = 0;
+    // Bytes of content. (Uncompressed size.)
+    private volatile long           mContentBytes = 0;
 
     interface OnProgress {
         // "progress < 0" means "Unknown progress"
@@ -83,6 +119,197 @@ public class NetLoader {
         void onProgress(NetLoader loader, long progress);
     }
 
+    // Validators of feed used for conditional GET.
+    // Request is sent with these values, and values of new response are stored back to it.
+    static class Validators {
+        String etag;         // empty if unknown.
+        String lastModified; // empty if unknown.
+        // Hash of body. This is used when server doesn't support validators. (0 if unknown)
+        long   bodyHash;
+        Validators(String aEtag, String aLastModified, long aBodyHash) {
+            etag = (null == aEtag)? "": aEtag;
+            lastModified = (null == aLastModified)? "": aLastModified;
+            bodyHash = aBodyHash;
+        }
+    }
+
+    // Range request to resume download.
+    private static class Resume {
+        // [in] bytes already downloaded. Range request is sent if it's > 0.
+        // [out] offset of content given by response. 0 if whole content is given.
+        long    offset;
+        // [in] validator(ETag or Last-Modified) of partial content. Sent as 'If-Range'.
+        // [out] validator of response. Empty if server doesn't give strong validator.
+        //   (Content without validator can't be resumed safely.)
+        String  validator;
+        Resume(long aOffset, String aValidator) {
+            offset = aOffset;
+            validator = (null == aValidator)? "": aValidator;
+        }
+    }
+
+    // Count bytes read from underlying stream.
+    private static class CountingInputStream extends FilterInputStream {
+        private long _mCount = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        long
+        count() {
+            return _mCount;
+        }
+
+        @Override
+        public int
+        read() throws IOException {
+            int b = super.read();
+            if (b >= 0)
+                _mCount++;
+            return b;
+        }
+
+        @Override
+        public int
+        read(byte[] buf, int off, int len) throws IOException {
+            int n = super.read(buf, off, len);
+            if (n > 0)
+                _mCount += n;
+            return n;
+        }
+
+        @Override
+        public long
+        skip(long n) throws IOException {
+            long r = super.skip(n);
+            _mCount += r;
+            return r;
+        }
+
+        @Override
+        public boolean
+        markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * Wrap stream with decompressing stream matching with content encoding.
+     * @param in
+     *   SHOULD support 'mark'.
+     * @param encoding
+     *   value of 'Content-Encoding' header. (can be null.)
+     * @return
+     * @throws IOException
+     */
+    private static InputStream
+    decodeContent(InputStream in, String encoding) throws IOException {
+        if (null == encoding)
+            return in;
+
+        encoding = encoding.trim().toLowerCase();
+        if ("gzip".equals(encoding)
+            || "x-gzip".equals(encoding))
+            return new GZIPInputStream(in, DECODE_BUFSZ);
+
+        if ("deflate".equals(encoding)) {
+            // 'deflate' SHOULD be zlib format(RFC 1950).
+            // But, some servers send raw deflate data(RFC 1951) without zlib header.
+            in.mark(2);
+            int b0 = in.read();
+            int b1 = in.read();
+            in.reset();
+            boolean zlib = b0 >= 0 && b1 >= 0
+                           && 8 == (b0 & 0x0f)
+                           && 0 == ((b0 << 8) | b1) % 31;
+            final Inflater inf = new Inflater(!zlib);
+            return new InflaterInputStream(in, inf, DECODE_BUFSZ) {
+                @Override
+                public void
+                close() throws IOException {
+                    super.close();
+                    // Inflater given to stream is not released by stream itself.
+                    inf.end();
+                }
+            };
+        }
+        return in;
+    }
+
+    // Stream of feed content given to parser.
+    // It counts and hashes bytes read by parser, and checks network state while reading.
+    private static class FeedInputStream extends FilterInputStream {
+        // Network state is checked whenever this amount of bytes are read.
+        // (Same with buffer size used by download.)
+        private static final int NETCHECK_BYTES = 256 * 1024;
+
+        private long _mCount = 0;
+        private long _mNextCheck = NETCHECK_BYTES;
+        // 64-bit FNV-1a hash of bytes read.
+        private long _mHash = 0xcbf29ce484222325L;
+
+        FeedInputStream(InputStream in) {
+            super(in);
+        }
+
+        long
+        count() {
+            return _mCount;
+        }
+
+        long
+        hash() {
+            return _mHash;
+        }
+
+        private void
+        consumed(byte[] buf, int off, int n) throws IOException {
+            long h = _mHash;
+            for (int i = off; i < off + n; i++)
+                h = (h ^ (buf[i] & 0xff)) * 0x100000001b3L;
+            _mHash = h;
+            _mCount += n;
+            if (_mCount >= _mNextCheck) {
+                _mNextCheck = _mCount + NETCHECK_BYTES;
+                // Check network state to confirm that network what user want to use is available.
+                if (!Utils.isNetworkAvailable())
+                    throw new IOException("Network is not available");
+            }
+        }
+
+        @Override
+        public int
+        read() throws IOException {
+            byte[] b = new byte[1];
+            return (-1 == read(b, 0, 1))? -1: (b[0] & 0xff);
+        }
+
+        @Override
+        public int
+        read(byte[] buf, int off, int len) throws IOException {
+            int n = super.read(buf, off, len);
+            if (n > 0)
+                consumed(buf, off, n);
+            return n;
+        }
+
+        @Override
+        public long
+        skip(long n) throws IOException {
+            // Skipped bytes SHOULD be hashed, too.
+            byte[] buf = new byte[(int)Math.min(n, 4096)];
+            int r = read(buf, 0, buf.length);
+            return (r < 0)? 0: r;
+        }
+
+        @Override
+        public boolean
+        markSupported() {
+            return false;
+        }
+    }
+
     /**
      * Close network input stream of this loader - mIstream.
      * @throws FeederException
@@ -96,9 +323,65 @@ public class NetLoader {
             }
         } catch (IOException e) {
             throw new FeederException (Err.IO_NET);
+        } finally {
+            releaseConnSlot();
         }
     }
 
+    /**
+     * Read remaining content to make connection be reused.
+     * (Ex. parser may not read white spaces at the end of content.)
+     * Content larger than DRAIN_MAX is not read. Closing stream drops connection in this case.
+     */
+    private void
+    drainIstream() {
+        try {
+            byte[] buf = new byte[4096];
+            int total = 0;
+            int n;
+            while (total < DRAIN_MAX
+                   && -1 != (n = mIstream.read(buf)))
+                total += n;
+        } catch (IOException ignored) { }
+    }
+
+    /**
+     * Get connection slot of host from NetConnPool.
+     * FeederException : Err.UserCancelled / Err.Interrupted
+     * @param host
+     * @throws FeederException
+     */
+    private void
+    acquireConnSlot(String host) throws FeederException {
+        try {
+            while (!mPool.acquire(host, CONN_SLOT_POLL))
+                checkInterrupted();
+        } catch (InterruptedException e) {
+            if (mCancelled)
+                throw new FeederException(Err.USER_CANCELLED);
+            throw new FeederException(Err.INTERRUPTED);
+        }
+        synchronized (this) {
+            eAssert(null == mConnHost);
+            mConnHost = host;
+        }
+    }
+
+    /**
+     * Release connection slot held by this loader, if exists.
+     * This may be called by multiple threads. (Ex. {@link #cancel()})
+     */
+    private void
+    releaseConnSlot() {
+        String host;
+        synchronized (this) {
+            host = mConnHost;
+            mConnHost = null;
+        }
+        if (null != host)
+            mPool.release(host);
+    }
+
     /**
      * Close output stream - mOstream.
      * (Usually, output stream is file stream)
@@ -155,18 +438,100 @@ public class NetLoader {
     }
 
     /**
-     * NOTE!
-     *   Many caller assumes that 'download' function throws only below three exceptions.
-     *   If another exception need to be thrown, all callers should be checked and verified!
+     * @param conn
+     * @return
+     *   first byte position of 'Content-Range' header. (ex. "bytes 100-199/200")
+     *   -1 if it's not available.
+     */
+    private static long
+    getContentRangeStart(URLConnection conn) {
+        String cr = conn.getHeaderField("Content-Range");
+        if (null == cr)
+            return -1;
+        cr = cr.trim();
+        if (!cr.startsWith("bytes "))
+            return -1;
+        int i = cr.indexOf('-');
+        if (i < 0)
+            return -1;
+        try {
+            return Long.parseLong(cr.substring("bytes ".length(), i).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Get validator that can be used at 'If-Range'.
+     * Weak ETag is not allowed at 'If-Range'.
+     * @param conn
+     * @return
+     *   empty string if there is no available validator.
+     */
+    private static String
+    getRangeValidator(URLConnection conn) {
+        String etag = conn.getHeaderField("ETag");
+        if (null != etag
+            && !etag.startsWith("W/"))
+            return etag;
+        String lastModified = conn.getHeaderField("Last-Modified");
+        return (null == lastModified)? "": lastModified;
+    }
+
+    /**
+     * Check response of range request and update 'resume'.
+     * @param conn
+     * @param resume
+     * @return
+     *   false if range request is failed. Whole content should be requested again.
+     * @throws IOException
+     */
+    private static boolean
+    handleRangeResponse(URLConnection conn, Resume resume) throws IOException {
+        if (!(conn instanceof HttpURLConnection)) {
+            resume.offset = 0;
+            resume.validator = "";
+            return true;
+        }
+
+        int code = ((HttpURLConnection)conn).getResponseCode();
+        if (resume.offset > 0) {
+            if (HttpURLConnection.HTTP_PARTIAL == code) {
+                if (resume.offset != getContentRangeStart(conn))
+                    return false;
+            } else if (HTTP_RANGE_NOT_SATISFIABLE == code)
+                return false;
+            else
+                // Server ignores 'Range' or content is changed. Whole content is given.
+                resume.offset = 0;
+        }
+        resume.validator = getRangeValidator(conn);
+        return true;
+    }
+
+    /**
+     * Connect to url and open stream of content.
+     * Opened stream is set to mIstream. So, it can be closed by {@link #cancel()}.
+     * Connection slot of host is held until mIstream is closed. (See {@link NetConnPool})
      *
-     * FeederException : Err.IONet / Err.UserCancelled / Err.Interrupted
-     * @param outstream
+     * FeederException : Err.IONet / Err.UserCancelled / Err.Interrupted / Err.InvalidURL
      * @param urlStr
-     * @param progressListener
+     * @param validators
+     *   null for unconditional GET.
+     *   Otherwise, request is conditional GET and validators of response are stored to it.
+     * @param resume
+     *   null if download is not resumable.
+     *   Otherwise, range request is sent and result is stored to it. (See {@link Resume})
+     * @param compress
+     *   true to request compressed transfer. Content is decompressed while it is read.
+     *   false to get raw content as it is. (ex. enclosure.)
+     * @return
+     *   length of content. (< 0) if unknown. (Length of compressed content is regarded as unknown.)
+     *   null if content is not modified (HTTP 304). In this case, mIstream is not set.
      * @throws FeederException
      */
-    private void
-    download(OutputStream outstream, String urlStr, OnProgress progressListener)
+    private Long
+    openContent(String urlStr, Validators validators, Resume resume, boolean compress)
             throws FeederException {
            URL           url = null;
            URLConnection conn = null;
@@ -182,60 +547,160 @@ public class NetLoader {
            if (!Utils.isNetworkAvailable())
                 throw new FeederException(Err.IO_NET);
 
-           while (0 < retry--) {
-               try {
-                   conn = url.openConnection();
-                   conn.setConnectTimeout(NET_CONN_TIMEOUT);
-                   conn.connect();
-                   break; // done
-               } catch (Exception e) {
-                   // SocketTimeoutException
-                   // IOException
-                   if (mCancelled)
-                       throw new FeederException(Err.USER_CANCELLED);
-
-                   if (0 >= retry)
-                       throw new FeederException(Err.IO_NET);
-
+           acquireConnSlot(url.getHost());
+           // true if connection slot is passed to mIstream or redirected one.
+           boolean keepSlot = false;
+           try {
+               while (0 < retry--) {
                    try {
-                       Thread.sleep(500);
-                   } catch (InterruptedException ie) {
+                       conn = url.openConnection();
+                       conn.setConnectTimeout(NET_CONN_TIMEOUT);
+                       // NOTE
+                       // Platform HTTP client requests gzip and decompresses it transparently if
+                       //   'Accept-Encoding' is not set. Then, Content-Length doesn't match with content.
+                       // So, it is always set explicitly.
+                       conn.setRequestProperty("Accept-Encoding", compress? "gzip, deflate": "identity");
+                       if (null != validators) {
+                           if (Utils.isValidValue(validators.etag))
+                               conn.setRequestProperty("If-None-Match", validators.etag);
+                           if (Utils.isValidValue(validators.lastModified))
+                               conn.setRequestProperty("If-Modified-Since", validators.lastModified);
+                       }
+                       if (null != resume
+                           && resume.offset > 0
+                           && Utils.isValidValue(resume.validator)) {
+                           // If content is changed, server sends whole new content.
+                           conn.setRequestProperty("Range", "bytes=" + resume.offset + "-");
+                           conn.setRequestProperty("If-Range", resume.validator);
+                       }
+                       mPool.connect(conn);
+                       break; // done
+                   } catch (Exception e) {
+                       // SocketTimeoutException
+                       // IOException
                        if (mCancelled)
                            throw new FeederException(Err.USER_CANCELLED);
-                       else
-                           throw new FeederException(Err.INTERRUPTED);
+
+                       if (0 >= retry)
+                           throw new FeederException(Err.IO_NET);
+
+                       try {
+                           Thread.sleep(500);
+                       } catch (InterruptedException ie) {
+                           if (mCancelled)
+                               throw new FeederException(Err.USER_CANCELLED);
+                           else
+                               throw new FeederException(Err.INTERRUPTED);
+                       }
                    }
                }
-           }
 
-           String locurl = conn.getHeaderField("Location");
-           if (locurl != null
-               && !urlStr.equals(locurl)) {
-               // May be redirection
-               download(outstream, locurl, progressListener);
-               return;
-           }
-
-           try {
-               int lengthOfFile = -1;
-               retry = NET_RETRY;
-               while (0 < retry--) {
-                   lengthOfFile = conn.getContentLength();
-                   if (lengthOfFile >= 0)
-                       break;
+               String locurl = conn.getHeaderField("Location");
+               if (locurl != null
+                   && !urlStr.equals(locurl)) {
+                   // May be redirection
+                   if (conn instanceof HttpURLConnection)
+                       ((HttpURLConnection)conn).disconnect();
+                   // Redirected host may be different one.
+                   releaseConnSlot();
+                   keepSlot = true;
+                   return openContent(locurl, validators, resume, compress);
                }
-               mIstream = new BufferedInputStream(conn.getInputStream());
 
-               if (Thread.currentThread().isInterrupted()) {
-                   cancel();
-                   throw new FeederException(Err.INTERRUPTED);
+               try {
+                   if (null != resume) {
+                       if (!handleRangeResponse(conn, resume)) {
+                           // Range request is failed. Get whole content again.
+                           if (conn instanceof HttpURLConnection)
+                               ((HttpURLConnection)conn).disconnect();
+                           releaseConnSlot();
+                           keepSlot = true;
+                           resume.offset = 0;
+                           resume.validator = "";
+                           return openContent(urlStr, validators, resume, compress);
+                       }
+                   }
+
+                   if (null != validators
+                       && conn instanceof HttpURLConnection) {
+                       if (HttpURLConnection.HTTP_NOT_MODIFIED == ((HttpURLConnection)conn).getResponseCode()) {
+                           // NOTE
+                           // Closing stream(not 'disconnect') returns connection to the pool.
+                           try {
+                               conn.getInputStream().close();
+                           } catch (IOException e) {
+                               ((HttpURLConnection)conn).disconnect();
+                           }
+                           return null;
+                       }
+                       String etag = conn.getHeaderField("ETag");
+                       String lastModified = conn.getHeaderField("Last-Modified");
+                       validators.etag = (null == etag)? "": etag;
+                       validators.lastModified = (null == lastModified)? "": lastModified;
+                   }
+
+                   long lengthOfFile = -1;
+                   retry = NET_RETRY;
+                   while (0 < retry--) {
+                       lengthOfFile = conn.getContentLength();
+                       if (lengthOfFile >= 0)
+                           break;
+                   }
+                   mWireIn = new CountingInputStream(conn.getInputStream());
+                   mWireBytes = mContentBytes = 0;
+                   mIstream = new BufferedInputStream(mWireIn);
+                   keepSlot = true;
+                   if (compress
+                       && null != conn.getContentEncoding()) {
+                       mIstream = decodeContent(mIstream, conn.getContentEncoding());
+                       // Content-Length is size of compressed data.
+                       lengthOfFile = -1;
+                   }
+
+                   if (Thread.currentThread().isInterrupted()) {
+                       cancel();
+                       throw new FeederException(Err.INTERRUPTED);
+                   }
+                   return lengthOfFile;
+               } catch (IOException e) {
+                   closeIstream();
+                   if (mCancelled)
+                       throw new FeederException(Err.USER_CANCELLED);
+                   throw new FeederException(Err.IO_NET);
                }
+           } finally {
+               if (!keepSlot)
+                   releaseConnSlot();
+           }
+    }
 
+    /**
+     * Copy content of mIstream to outstream.
+     * FeederException : Err.IONet / Err.UserCancelled / Err.Interrupted
+     * @param outstream
+     * @param offset
+     *   bytes of content already downloaded. (Resumed download.)
+     *   Progress is reported including these bytes.
+     * @param length
+     *   length of content at mIstream. (< 0) if unknown.
+     * @param progressListener
+     * @throws FeederException
+     */
+    private void
+    copyContent(OutputStream outstream, long offset, long length, OnProgress progressListener)
+            throws FeederException {
+           try {
+               long lengthOfFile = (length < 0)? -1: offset + length;
                byte data[] = new byte[256*1024];
 
-               long total = 0;
+               long total = offset;
                int  count;
                long prevProgress = -1;
+               if (offset > 0 && lengthOfFile > 0 && null != progressListener) {
+                   // Show resumed position at once.
+                   prevProgress = total * 100 / lengthOfFile;
+                   progressListener.onProgress(this, prevProgress);
+               }
                while (true) {
                    // Check network state as often as possible to confirm that
                    //   network what user want to use is available.
@@ -255,6 +720,8 @@ public class NetLoader {
                        prevProgress = progress;
                    }
                }
+               mWireBytes = mWireIn.count();
+               mContentBytes = total - offset;
 
                outstream.flush();
                outstream.close();
@@ -269,29 +736,116 @@ public class NetLoader {
                    if (DBG) P.w(e.getMessage());
                    throw new FeederException(Err.IO_NET);
                }
+           }
+    }
+
+    /**
+     * NOTE!
+     *   Many caller assumes that 'download' function throws only below three exceptions.
+     *   If another exception need to be thrown, all callers should be checked and verified!
+     *
+     * FeederException : Err.IONet / Err.UserCancelled / Err.Interrupted
+     * @param outstream
+     * @param urlStr
+     * @param progressListener
+     *   In case of compressed transfer, progress is reported as 'unknown'.
+     * @param validators
+     *   See {@link #openContent(String, Validators, Resume, boolean)}
+     * @param compress
+     *   See {@link #openContent(String, Validators, Resume, boolean)}
+     * @return
+     *   false if content is not modified (HTTP 304). In this case, nothing is written to outstream.
+     * @throws FeederException
+     */
+    private boolean
+    download(OutputStream outstream, String urlStr, OnProgress progressListener,
+             Validators validators, boolean compress)
+            throws FeederException {
+           Long length = openContent(urlStr, validators, null, compress);
+           if (null == length)
+               return false;
+
+           try {
+               copyContent(outstream, 0, length, progressListener);
            } finally {
                closeIstream();
            }
+           return true;
+    }
+
+    /**
+     * Unconditional GET.
+     * See {@link #download(OutputStream, String, OnProgress, Validators, boolean)}
+     */
+    private void
+    download(OutputStream outstream, String urlStr, OnProgress progressListener)
+            throws FeederException {
+        download(outstream, urlStr, progressListener, null, false);
     }
 
 
     public NetLoader() {
     }
 
+    /**
+     * @return
+     *   bytes received from network at last fetch. (compressed size if transfer is compressed.)
+     */
+    public long
+    getLastFetchWireBytes() {
+        return mWireBytes;
+    }
+
+    /**
+     * @return
+     *   bytes of content at last fetch. (uncompressed size.)
+     */
+    public long
+    getLastFetchContentBytes() {
+        return mContentBytes;
+    }
+
+    /**
+     * Content of feed is parsed while it is downloaded.
+     * (Whole feed is NOT buffered at memory.)
+     * @param url
+     * @param validators
+     *   validators of feed applied lastly. Validators of new feed are stored back to it.
+     * @return
+     *   null if feed is not changed since validators are given.
+     * @throws FeederException
+     */
     private RSSParser.Result
-    parseFeedUrl(String url)
+    parseFeedUrl(String url, Validators validators)
             throws FeederException {
-
-        ByteArrayOutputStream os = new ByteArrayOutputStream();
         RSSParser.Result res = null;
         try {
-            download(os, url, null);
-            mIstream = new ByteArrayInputStream(os.toByteArray());
+            if (null == openContent(url, validators, null, true))
+                return null; // HTTP 304
+
+            // NOTE
+            // Parser reads network stream directly.
+            // So, cancel() closing mIstream stops parsing, too.
+            FeedInputStream fin = new FeedInputStream(mIstream);
+            mIstream = fin;
             Document dom = DocumentBuilderFactory
                                .newInstance()
                                .newDocumentBuilder()
-                               .parse(mIstream);
+                               .parse(fin);
+            drainIstream();
+            mWireBytes = mWireIn.count();
+            mContentBytes = fin.count();
             closeIstream();
+            if (DBG) P.v("Feed fetched : " + mWireBytes + " bytes (" + mContentBytes + " bytes decoded) : " + url);
+
+            // Some servers don't support validators, but give same body.
+            // Building items from DOM and checking them with DB again is just waste.
+            long bodyHash = fin.hash();
+            if (0 != validators.bodyHash
+                && bodyHash == validators.bodyHash)
+                return null;
+            validators.bodyHash = bodyHash;
+
             res = FeedParser.getParser(dom).parse(dom);
         } catch (MalformedURLException e) {
             throw new FeederException(Err.INVALID_URL);
@@ -303,6 +857,16 @@ public class NetLoader {
         } catch (DOMException e) {
             throw new FeederException(Err.PARSER_UNSUPPORTED_FORMAT);
         } catch (SAXException e) {
+            // Parser reads network stream directly.
+            // So, network error (or cancel closing stream) may be wrapped by SAXException.
+            if (e.getException() instanceof IOException) {
+                if (mCancelled)
+                    throw new FeederException(Err.USER_CANCELLED);
+                else
+                    throw new FeederException(Err.IO_NET);
+            }
+            if (mCancelled)
+                throw new FeederException(Err.USER_CANCELLED);
             e.printStackTrace();
             throw new FeederException(Err.PARSER_UNSUPPORTED_FORMAT);
         } catch (ParserConfigurationException e) {
@@ -310,9 +874,6 @@ public class NetLoader {
         } catch (FeederException e) {
             throw e;
         } finally {
-            try {
-                os.close();
-            } catch (IOException ignored) { }
             closeIstream();
         }
         return res;
@@ -335,9 +896,28 @@ public class NetLoader {
         //logI("Loading Items: " + url);
 
         long time = System.currentTimeMillis();
-        RSSParser.Result parD = parseFeedUrl(url);
+        String oldEtag = mDbp.getChannelInfoString(cid, ColumnChannel.ETAG);
+        String oldLastModified = mDbp.getChannelInfoString(cid, ColumnChannel.LASTMODIFIED);
+        Validators validators = new Validators(oldEtag,
+                                               oldLastModified,
+                                               mDbp.getChannelInfoLong(cid, ColumnChannel.BODYHASH));
+        RSSParser.Result parD = parseFeedUrl(url, validators);
         //logI("TIME: Loading + Parsing : " + (System.currentTimeMillis() - time));
 
+        if (null == parD) {
+            // Feed is not changed since last update.
+            if (DBG) P.v("Feed is not modified : " + url);
+            // Same body may be given with new validators.
+            if (!validators.etag.equals(oldEtag)
+                || !validators.lastModified.equals(oldLastModified))
+                mDbp.updateChannel_validators(cid,
+                                              validators.etag,
+                                              validators.lastModified,
+                                              validators.bodyHash);
+            mDbp.updateChannel_notModified(cid);
+            return;
+        }
+
         // set to given value forcely due to this is 'update' - Not new insertion.
 
         // decide action type.
@@ -375,7 +955,7 @@ public class NetLoader {
                 byte[] imageblob = Utils.compressBitmap(bm);
                 bm.recycle();
                 if (null != imageblob)
-                    mDbp.updateChannel(cid, ColumnChannel.IMAGEBLOB, imageblob);
+                    mDbp.updateChannel_image(cid, imageblob);
             }
             //logI("TIME: Handle Image : " + (System.currentTimeMillis() - time));
             checkInterrupted();
@@ -402,13 +982,17 @@ public class NetLoader {
                         return null;
 
                     File f = Utils.getNewTempFile();
-                    downloadToFile(url, Utils.getNewTempFile(), f, null);
+                    // Failed download is resumed at next update.
+                    downloadToFileResumable(url, f, null);
                     return f;
                 }
             };
         }
         checkInterrupted();
         mDbp.updateChannel(cid, parD.channel, newItems, idop);
+        // Validators are saved only after feed is applied successfully.
+        // Otherwise, feed of failed update would be skipped at next update.
+        mDbp.updateChannel_validators(cid, validators.etag, validators.lastModified, validators.bodyHash);
 
         //logI("TIME: Updating Items : " + (System.currentTimeMillis() - time));
     }
@@ -497,6 +1081,158 @@ public class NetLoader {
         }
     }
 
+    /**
+     * @param url
+     * @return
+     *   file where partial content of url is stored. Same url always gives same file.
+     */
+    private static File
+    getPartialFile(String url) {
+        String name;
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest)
+                sb.append(String.format("%02x", b & 0xff));
+            name = sb.toString();
+        } catch (Exception e) {
+            // MD5 and UTF-8 are always supported. But, just in case.
+            name = Integer.toHexString(url.hashCode());
+        }
+        return new File(Environ.get().getPartialDirFile(), name);
+    }
+
+    /**
+     * Read resume state of partial content from meta file.
+     * @param url
+     * @param partf
+     * @param metaf
+     * @return
+     */
+    private static Resume
+    loadResume(String url, File partf, File metaf) {
+        if (!partf.exists()
+            || !metaf.exists())
+            return new Resume(0, null);
+
+        Properties meta = new Properties();
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(metaf);
+            meta.load(in);
+        } catch (IOException e) {
+            return new Resume(0, null);
+        } finally {
+            try {
+                if (null != in)
+                    in.close();
+            } catch (IOException ignored) { }
+        }
+        // Check hash collision of file name.
+        if (!url.equals(meta.getProperty(META_URL)))
+            return new Resume(0, null);
+        return new Resume(partf.length(), meta.getProperty(META_VALIDATOR));
+    }
+
+    /**
+     * Write resume state of partial content to meta file.
+     * @param url
+     * @param resume
+     * @param metaf
+     * @return
+     */
+    private static boolean
+    storeResume(String url, Resume resume, File metaf) {
+        Properties meta = new Properties();
+        meta.setProperty(META_URL, url);
+        meta.setProperty(META_VALIDATOR, resume.validator);
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(metaf);
+            meta.store(out, null);
+            return true;
+        } catch (IOException e) {
+            return false;
+        } finally {
+            try {
+                if (null != out)
+                    out.close();
+            } catch (IOException ignored) { }
+        }
+    }
+
+    /**
+     * Download data and make it as file.
+     * Unlike {@link #downloadToFile(String, File, File, OnProgress)}, partial content is kept
+     *   if download is stopped by network error or cancel, and download is resumed from there
+     *   at next time - even after process is restarted.
+     * Server that doesn't support range request gives whole content again.
+     * @param url
+     * @param toFile
+     *   Final target file path where downloaded data is stored at.
+     * @param progressListener
+     * @throws FeederException
+     */
+    public void
+    downloadToFileResumable(String url, File toFile, OnProgress progressListener)
+            throws FeederException {
+        synchronized (sPartialInUse) {
+            if (!sPartialInUse.add(url)) {
+                // Same content is being downloaded by someone else. (Very rare.)
+                File tmpf = Utils.getNewTempFile();
+                if (null == tmpf)
+                    throw new FeederException(Err.IO_FILE);
+                downloadToFile(url, tmpf, toFile, progressListener);
+                return;
+            }
+        }
+
+        new File(toFile.getParent()).mkdirs();
+        File partf = getPartialFile(url);
+        File metaf = new File(partf.getAbsolutePath() + PARTIAL_META_SUFFIX);
+        partf.getParentFile().mkdirs();
+        Resume resume = loadResume(url, partf, metaf);
+        if (DBG && resume.offset > 0) P.v("Resume download at " + resume.offset + " : " + url);
+
+        boolean keepPartial = resume.offset > 0;
+        try {
+            Long length = openContent(url, null, resume, false);
+            eAssert(null != length); // This is not conditional GET.
+            // Content without validator can't be resumed safely.
+            keepPartial = Utils.isValidValue(resume.validator)
+                          && storeResume(url, resume, metaf);
+            // Offset is 0 if server gives whole content.
+            mOstream = new FileOutputStream(partf, resume.offset > 0);
+            copyContent(mOstream, resume.offset, length, progressListener);
+            closeOstream();
+            if (!partf.renameTo(toFile))
+                throw new FeederException(Err.IO_FILE);
+            keepPartial = false;
+        } catch (FileNotFoundException e) {
+            keepPartial = false;
+            throw new FeederException(Err.IO_FILE);
+        } catch (FeederException e) {
+            if (Err.IO_NET != e.getError()
+                && Err.USER_CANCELLED != e.getError()
+                && Err.INTERRUPTED != e.getError())
+                keepPartial = false;
+            throw e;
+        } finally {
+            try {
+                closeIstream();
+                closeOstream();
+            } finally {
+                if (!keepPartial) {
+                    partf.delete();
+                    metaf.delete();
+                }
+                synchronized (sPartialInUse) {
+                    sPartialInUse.remove(url);
+                }
+            }
+        }
+    }
+
     /**
      * Cancel network loading (usually downloading.)
      * @return
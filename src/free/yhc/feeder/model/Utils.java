@@ -95,6 +95,9 @@ public class Utils {
     public static final int    HOUR_IN_SEC  = 60 * 60;
     public static final int    DAY_IN_SEC   = 24 * HOUR_IN_SEC;
 
+    // Partial file of download not resumed during this time is deleted.
+    private static final long  PARTIAL_FILE_MAX_AGE = 7 * DAY_IN_MS;
+
     private static SharedPreferences sPrefs = null;
 
     // To enable logging to file - NOT LOGCAT
@@ -857,6 +860,22 @@ public class Utils {
         removeFileRecursive(Environ.get().getTempDirFile(), false);
     }
 
+    /**
+     * Delete partial files of resumable download that are not touched for long time.
+     * (Download may be given up by user.)
+     */
+    public static void
+    cleanStalePartialFiles() {
+        File[] fs = Environ.get().getPartialDirFile().listFiles();
+        if (null == fs)
+            return;
+        long now = System.currentTimeMillis();
+        for (File f : fs) {
+            if (now - f.lastModified() > PARTIAL_FILE_MAX_AGE)
+                f.delete();
+        }
+    }
+
     // ------------------------------------------------------------------------
     //
     // Accessing preference
@@ -885,6 +904,22 @@ public class Utils {
         return value;
     }
 
+    /**
+     * @return
+     *   maximum number of concurrent connections to one host.
+     */
+    public static int
+    getPrefMaxNrConnPerHost() {
+        String v = sPrefs.getString(getResString(R.string.csmaxnr_conn_per_host), "2");
+        int value = 2;
+        try {
+            value = Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            eAssert(false);
+        }
+        return value;
+    }
+
     /**
      * Get BG task thread priority from shared preference.
      * @param context
@@ -924,6 +959,23 @@ public class Utils {
         }
     }
 
+    /**
+     * Get maximum age of item.
+     * @return
+     *   days. '0' means 'no limit'.
+     */
+    public static int
+    getPrefItemMaxAge() {
+        String v = sPrefs.getString(getResString(R.string.csitem_maxage), "0");
+        int value = 0;
+        try {
+            value = Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            eAssert(false);
+        }
+        return value;
+    }
+
     public static int
     getPrefContentVersion() {
         return sPrefs.getInt(getResString(R.string.cscontent_version), 0);